@@ -5,7 +5,13 @@ import org.apache.commons.io.IOUtils;
 
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.net.URL;
+import java.net.URLConnection;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.zip.ZipFile;
 
 /**
@@ -15,6 +21,8 @@ import java.util.zip.ZipFile;
  */
 public class LauncherUpdater {
 
+	private static final long TRANSFER_CHUNK_SIZE = 1024 * 1024;
+
 	public static void main(String[] args) {
 		try {
 			if (args.length == 0) throw new IllegalArgumentException("No URL specified");
@@ -33,7 +41,7 @@ public class LauncherUpdater {
 			outputFile.createNewFile();
 
 			//Download the file at the URL and write it to the output file
-			IOUtils.copy(new URL(url).openStream(), new FileOutputStream(outputFile));
+			download(new URL(url), outputFile);
 			System.out.println("Downloaded update to " + outputFile.getAbsolutePath());
 			System.out.println("Updating launcher...");
 
@@ -64,6 +72,22 @@ public class LauncherUpdater {
 		}
 	}
 
+	private static void download(URL url, File outputFile) throws IOException {
+		URLConnection connection = url.openConnection();
+		long size = connection.getContentLengthLong();
+		try (ReadableByteChannel in = Channels.newChannel(connection.getInputStream());
+		     FileChannel out = FileChannel.open(outputFile.toPath(), StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			//Let the file channel pull the bytes in chunks, reporting the progress after each one
+			long position = 0;
+			long n;
+			while ((n = out.transferFrom(in, position, TRANSFER_CHUNK_SIZE)) > 0) {
+				position += n;
+				if (size > 0) System.out.print("\rDownloaded " + (position * 100 / size) + "%");
+			}
+			if (size > 0) System.out.println();
+		}
+	}
+
 	private static void unzip(File file) {
 		try {
 			ZipFile zipFile = new ZipFile(file);
@@ -0,0 +1,78 @@
+package smlauncher.starmade;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link FileHasher} against the original {@code FileUtil.getSha1Checksum} implementation, which read
+ * through a 1 KB buffer and built the hex string by concatenation. {@code mapped} switches {@link FileHasher} between
+ * buffered channel reads and memory mapping.
+ * <p>
+ * Run with {@code ./gradlew jmh}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FileHasherBenchmark {
+
+	@Param({"4096", "1048576", "67108864"})
+	public int fileSize;
+
+	@Param({"false", "true"})
+	public boolean mapped;
+
+	private File file;
+
+	@Setup
+	public void setup() throws IOException {
+		file = File.createTempFile("sha1-bench", ".bin");
+		byte[] data = new byte[fileSize];
+		new Random(42).nextBytes(data);
+		Files.write(file.toPath(), data);
+		FileHasher.setMappedThreshold(mapped ? 0 : -1);
+	}
+
+	@TearDown
+	public void tearDown() {
+		file.delete();
+	}
+
+	@Benchmark
+	public String legacy() throws IOException {
+		return legacySha1Checksum(file);
+	}
+
+	@Benchmark
+	public String fileHasher() throws IOException {
+		return FileHasher.get().sha1Hex(file);
+	}
+
+	private static String legacySha1Checksum(File filename) throws IOException {
+		byte[] b;
+		try (InputStream fis = new BufferedInputStream(new FileInputStream(filename))) {
+			byte[] buffer = new byte[1024];
+			MessageDigest complete = MessageDigest.getInstance("SHA1");
+			int numRead;
+			while ((numRead = fis.read(buffer)) != -1) {
+				complete.update(buffer, 0, numRead);
+			}
+			b = complete.digest();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException(e);
+		}
+		String result = "";
+		for (int i = 0; i < b.length; i++) {
+			result += Integer.toString((b[i] & 0xff) + 0x100, 16).substring(1);
+		}
+		return result;
+	}
+}
@@ -0,0 +1,156 @@
+package smlauncher.starmade;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares parsing a synthetic build manifest into {@link CompactManifest}, {@link ChecksumFile} and the original
+ * {@code ChecksumFile.parse}, which trimmed and split every line through {@code substring} and stripped the leading
+ * dot of every path with a regular expression.
+ * <p>
+ * The {@code *Parse} benchmarks measure parse time. The {@code *Retained} benchmarks are single shots that report
+ * the heap still used by the parsed manifest as the {@code retainedBytes} counter.
+ * <p>
+ * Run with {@code ./gradlew jmh}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = {"-Xms2g", "-Xmx2g"})
+public class ManifestBenchmark {
+
+	@Param({"100000"})
+	public int entries;
+
+	private byte[] manifest;
+
+	@Setup
+	public void setup() {
+		Random random = new Random(42);
+		StringBuilder text = new StringBuilder(entries * 100);
+		byte[] hash = new byte[20];
+		for (int i = 0; i < entries; i++) {
+			random.nextBytes(hash);
+			// a few hundred directories of varying depth, like the data tree of a build
+			text.append("./data/textures/block/set").append(i % 40).append("/variant").append(i % 7)
+					.append("/block_").append(i).append(i % 5 == 0 ? " - normal map.png " : ".png ")
+					.append(random.nextInt(1 << 20)).append(' ').append(FileHasher.get().toHex(hash)).append('\n');
+		}
+		text.append("./version.txt 24 ").append(FileHasher.get().toHex(hash)).append('\n');
+		manifest = text.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	@Benchmark
+	public List<LegacyEntry> legacyParse() throws IOException {
+		return legacyParse(reader());
+	}
+
+	@Benchmark
+	public ChecksumFile checksumFileParse() throws IOException {
+		ChecksumFile checksums = new ChecksumFile();
+		checksums.parse(reader());
+		return checksums;
+	}
+
+	@Benchmark
+	public CompactManifest compactParse() throws IOException {
+		return CompactManifest.parse(manifest, 0, manifest.length);
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	public Object legacyRetained(HeapCounters counters) throws IOException {
+		long before = usedHeap();
+		List<LegacyEntry> parsed = legacyParse(reader());
+		counters.retainedBytes = usedHeap() - before;
+		return parsed;
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	public Object checksumFileRetained(HeapCounters counters) throws IOException {
+		long before = usedHeap();
+		ChecksumFile parsed = checksumFileParse();
+		counters.retainedBytes = usedHeap() - before;
+		return parsed;
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	public Object compactRetained(HeapCounters counters) throws IOException {
+		long before = usedHeap();
+		CompactManifest parsed = compactParse();
+		counters.retainedBytes = usedHeap() - before;
+		return parsed;
+	}
+
+	private BufferedReader reader() {
+		return new BufferedReader(new InputStreamReader(new ByteArrayInputStream(manifest), StandardCharsets.UTF_8));
+	}
+
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) System.gc();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	public static class HeapCounters {
+		public long retainedBytes;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			retainedBytes = 0;
+		}
+	}
+
+	/**
+	 * The fields of the original {@link ChecksumFileEntry}, which the legacy parser filled.
+	 */
+	public static final class LegacyEntry {
+		final long size;
+		final String checksum;
+		final String relativePath;
+
+		LegacyEntry(long size, String checksum, String relativePath) {
+			this.size = size;
+			this.checksum = checksum;
+			this.relativePath = relativePath.replaceFirst("\\.", "");
+		}
+	}
+
+	private static List<LegacyEntry> legacyParse(BufferedReader in) throws IOException {
+		List<LegacyEntry> checksums = new ArrayList<>();
+		String line;
+		while ((line = in.readLine()) != null) {
+			line = line.trim();
+			int hashIndex = line.lastIndexOf(' ');
+			String checksum = line.substring(hashIndex).trim();
+			line = line.substring(0, hashIndex).trim();
+			int sizeIndex = line.lastIndexOf(' ');
+			String sizeStr = line.substring(sizeIndex).trim();
+			long size = Long.parseLong(sizeStr.trim());
+			line = line.substring(0, sizeIndex).trim();
+			checksums.add(new LegacyEntry(size, checksum, line.trim()));
+		}
+		for (int i = 0; i < checksums.size(); i++) {
+			if ("/version.txt".equals(checksums.get(i).relativePath)) {
+				checksums.add(checksums.remove(i));
+				break;
+			}
+		}
+		return checksums;
+	}
+}
@@ -0,0 +1,90 @@
+package smlauncher.starmade;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the stream copy of {@link FileUtil#copyLarge} against the channel transfer of {@link FileUtil#transfer},
+ * writing an in-memory body to a file the way a download does. With {@code hashed}, the stream copy reads the file
+ * back to hash it as downloads were verified before, while the transfer feeds its digest as the bytes pass, which
+ * makes it go through its direct buffer instead of {@code transferFrom}.
+ * <p>
+ * Run with {@code ./gradlew jmh}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TransferBenchmark {
+
+	@Param({"4096", "1048576", "33554432"})
+	public int bodySize;
+
+	@Param({"false", "true"})
+	public boolean hashed;
+
+	private byte[] body;
+	private File file;
+	private MessageDigest digest;
+	private long downloaded;
+
+	@Setup
+	public void setup() throws IOException, NoSuchAlgorithmException {
+		body = new byte[bodySize];
+		new Random(42).nextBytes(body);
+		file = File.createTempFile("transfer-bench", ".bin");
+		digest = hashed ? MessageDigest.getInstance("SHA1") : null;
+	}
+
+	@TearDown
+	public void tearDown() {
+		file.delete();
+	}
+
+	@Benchmark
+	public long stream() throws IOException {
+		long count;
+		try (InputStream in = new BufferedInputStream(new ByteArrayInputStream(body));
+		     OutputStream out = new FileOutputStream(file)) {
+			count = FileUtil.copyLarge(in, out, new byte[4096], callback());
+		}
+		if (hashed) FileHasher.get().sha1(file);
+		return count;
+	}
+
+	@Benchmark
+	public long channel() throws IOException {
+		try (InputStream in = new ByteArrayInputStream(body);
+		     FileChannel out = FileChannel.open(file.toPath(), StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			return FileUtil.transfer(Channels.newChannel(in), out, callback(), reset(digest));
+		}
+	}
+
+	private static MessageDigest reset(MessageDigest digest) {
+		if (digest != null) digest.reset();
+		return digest;
+	}
+
+	private DownloadCallback callback() {
+		return new DownloadCallback() {
+			@Override
+			public void downloaded(long size, long diff) {
+				downloaded += diff;
+			}
+
+			@Override
+			public void doneDownloading() {
+			}
+		};
+	}
+}
@@ -10,6 +10,7 @@ public class DownloadStatus {
 	private float installProgress;
 	private String filename = "None";
 	private long downloadedMb, totalMb, speedMb;
+	private boolean paused;
 
 	// Setter Methods
 
@@ -33,6 +34,20 @@ public class DownloadStatus {
 		this.speedMb = speedMb;
 	}
 
+	public void setPaused(boolean paused) {
+		this.paused = paused;
+	}
+
+	// Getter Methods
+
+	public float getInstallProgress() {
+		return installProgress;
+	}
+
+	public boolean isPaused() {
+		return paused;
+	}
+
 	// To String Methods
 
 	private static String formatBytes(long bytes) {
@@ -44,6 +59,12 @@ public class DownloadStatus {
 
 	@Override
 	public String toString() {
+		if(paused) {
+			return String.format(
+					"Paused [%d%%]\nDownloaded %s / %s, click to resume",
+					(int) (installProgress * 100), formatBytes(downloadedMb), formatBytes(totalMb)
+			);
+		}
 		return String.format(
 				"Updating... [%d%%]\nDownloading %s [%s / %s] at %s/s",
 				(int) (installProgress * 100), filename, formatBytes(downloadedMb), formatBytes(totalMb), formatBytes(speedMb)
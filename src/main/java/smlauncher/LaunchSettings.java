@@ -2,6 +2,7 @@ package smlauncher;
 
 import org.json.JSONObject;
 import smlauncher.fileio.TextFileUtil;
+import smlauncher.util.OperatingSystem;
 
 import java.io.File;
 import java.io.IOException;
@@ -59,9 +60,19 @@ public final class LaunchSettings {
 		settings.put("lastUsedVersion", "NONE");
 		settings.put("launchArgs", "");
 		settings.put("memory", 4096);
+		settings.put("hashMappedThresholdMb", getDefaultHashMappedThresholdMb());
+		settings.put("downloadLimitKb", 0);
+		settings.put("contentStoreDir", "");
+		settings.put("manifestSanityCheck", true);
+		settings.put("stagedUpdates", false);
 		return settings;
 	}
 
+	private static int getDefaultHashMappedThresholdMb() {
+		// Windows keeps mapped files locked, which would block replacing them right after verification
+		return OperatingSystem.getCurrent() == OperatingSystem.WINDOWS ? -1 : 32;
+	}
+
 	// Settings Getters and Setters
 
 	public static String getInstallDir() {
@@ -112,4 +123,63 @@ public final class LaunchSettings {
 		launchSettings.put("memory", memory);
 	}
 
+	/**
+	 * Game files of at least this size are memory mapped when verifying them.
+	 *
+	 * @return the size in megabytes, or a negative value if memory mapping is disabled
+	 */
+	public static int getHashMappedThresholdMb() {
+		return launchSettings.optInt("hashMappedThresholdMb", getDefaultHashMappedThresholdMb());
+	}
+
+	public static void setHashMappedThresholdMb(int hashMappedThresholdMb) {
+		launchSettings.put("hashMappedThresholdMb", hashMappedThresholdMb);
+	}
+
+	/**
+	 * @return the combined bandwidth limit of game downloads in kilobytes per second, or 0 if unlimited
+	 */
+	public static int getDownloadLimitKb() {
+		return launchSettings.optInt("downloadLimitKb", 0);
+	}
+
+	public static void setDownloadLimitKb(int downloadLimitKb) {
+		launchSettings.put("downloadLimitKb", downloadLimitKb);
+	}
+
+	/**
+	 * @return the directory of the content store shared between installs, or an empty string if installs don't
+	 * share their files
+	 */
+	public static String getContentStoreDir() {
+		return launchSettings.optString("contentStoreDir", "");
+	}
+
+	public static void setContentStoreDir(String contentStoreDir) {
+		launchSettings.put("contentStoreDir", contentStoreDir);
+	}
+
+	/**
+	 * @return whether files the installed build already has are checked for their size and modification time before
+	 * an update skips them
+	 */
+	public static boolean isManifestSanityCheck() {
+		return launchSettings.optBoolean("manifestSanityCheck", true);
+	}
+
+	public static void setManifestSanityCheck(boolean manifestSanityCheck) {
+		launchSettings.put("manifestSanityCheck", manifestSanityCheck);
+	}
+
+	/**
+	 * @return whether updates are downloaded into a staging tree and moved into the install at the end
+	 */
+	public static boolean isStagedUpdates() {
+		return launchSettings.optBoolean("stagedUpdates", false);
+	}
+
+	public static void setStagedUpdates(boolean stagedUpdates) {
+		launchSettings.put("stagedUpdates", stagedUpdates);
+	}
+
 }
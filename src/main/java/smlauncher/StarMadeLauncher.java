@@ -5,6 +5,7 @@ import smlauncher.community.LauncherCommunityPanel;
 import smlauncher.downloader.JavaDownloader;
 import smlauncher.downloader.JavaVersion;
 import smlauncher.fileio.TextFileUtil;
+import smlauncher.http.PooledHttpClient;
 import smlauncher.news.LauncherNewsPanel;
 import smlauncher.starmade.*;
 import smlauncher.util.OperatingSystem;
@@ -48,6 +49,7 @@ public class StarMadeLauncher extends JFrame {
 	private final VersionRegistry versionRegistry;
 	private final DownloadStatus dlStatus = new DownloadStatus();
 	private UpdaterThread updaterThread;
+	private boolean refreshingVersions;
 	private int mouseX;
 	private int mouseY;
 	private JButton updateButton;
@@ -92,6 +94,7 @@ public class StarMadeLauncher extends JFrame {
 
 		// Read launch settings
 		LaunchSettings.readSettings();
+		applyUpdaterSettings();
 
 		// Read game version and branch
 		gameVersion = getLastUsedVersion();
@@ -134,7 +137,39 @@ public class StarMadeLauncher extends JFrame {
 
 		if(args == null || args.length == 0) startup();
 		else {
+			LaunchSettings.readSettings();
+			applyUpdaterSettings();
 			GameBranch buildBranch = GameBranch.RELEASE;
+			for(String arg : args) {
+				// the limit has to be in place before the update starts, wherever the flag is
+				if(arg.toLowerCase().startsWith("-limit:")) {
+					try {
+						BandwidthLimiter.getGlobal().setRate(Math.max(0, Long.parseLong(arg.substring(7))) * 1024);
+					} catch(NumberFormatException ignored) {
+					}
+				}
+				if(arg.equalsIgnoreCase("-store_gc")) {
+					collectStoreGarbage();
+					return;
+				}
+				if(arg.toLowerCase().startsWith("-files_url:")) {
+					GameUpdater.setFilesUrl(arg.substring(11));
+				}
+				if(arg.equalsIgnoreCase("-staged")) ChecksumFile.setStaged(true);
+			}
+			for(String arg : args) {
+				if(arg.toLowerCase().startsWith("-lan_cache")) {
+					int cachePort = LanCacheServer.DEFAULT_PORT;
+					if(arg.startsWith("-lan_cache:")) {
+						try {
+							cachePort = Integer.parseInt(arg.substring(11));
+						} catch(NumberFormatException ignored) {
+						}
+					}
+					runLanCache(cachePort);
+					return;
+				}
+			}
 			for(String arg : args) {
 				arg = arg.toLowerCase();
 				if(arg.equals("-debug_mode")) debugMode = true;
@@ -180,6 +215,55 @@ public class StarMadeLauncher extends JFrame {
 		}
 	}
 
+	/**
+	 * Applies the launch settings that configure the game updater.
+	 */
+	private static void applyUpdaterSettings() {
+		long mappedThresholdMb = LaunchSettings.getHashMappedThresholdMb();
+		FileHasher.setMappedThreshold(mappedThresholdMb < 0 ? -1 : mappedThresholdMb * 1024 * 1024);
+		BandwidthLimiter.getGlobal().setRate(Math.max(0, LaunchSettings.getDownloadLimitKb()) * 1024L);
+		String storeDir = LaunchSettings.getContentStoreDir();
+		ContentStore.setDefault(storeDir.isEmpty() ? null : new ContentStore(new File(storeDir)));
+		ChecksumFile.setSanityCheck(LaunchSettings.isManifestSanityCheck());
+		ChecksumFile.setStaged(LaunchSettings.isStagedUpdates());
+	}
+
+	/**
+	 * Serves game files to other launchers on the network until the launcher is stopped, printing stats every minute.
+	 */
+	private static void runLanCache(int cachePort) {
+		try {
+			LanCacheServer cache = new LanCacheServer(new File(OperatingSystem.getAppDir(), "lancache"), GameUpdater.FILES_URL, PooledHttpClient.getDefault());
+			cache.start(cachePort);
+			System.out.println("LAN cache running, start other launchers with -files_url:http://<this machine>:" + cache.getPort() + "/");
+			while(true) {
+				Thread.sleep(60000);
+				System.out.println("LAN cache: " + cache.getStats());
+			}
+		} catch(IOException exception) {
+			exception.printStackTrace();
+		} catch(InterruptedException exception) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Removes the files from the content store that no install uses anymore.
+	 */
+	private static void collectStoreGarbage() {
+		ContentStore store = ContentStore.getDefault();
+		if(store == null) {
+			System.out.println("No content store configured, set contentStoreDir in the launch settings");
+			return;
+		}
+		try {
+			long freed = store.collectGarbage();
+			System.out.println("Freed " + freed / (1024 * 1024) + " MB in " + store.getDir().getAbsolutePath());
+		} catch(IOException exception) {
+			exception.printStackTrace();
+		}
+	}
+
 	private static void startup() {
 		EventQueue.invokeLater(() -> {
 			try {
@@ -292,6 +376,11 @@ public class StarMadeLauncher extends JFrame {
 		System.out.println("-pre : Use pre branch (default is release)");
 		System.out.println("-dev : Use dev branch (default is release)");
 		System.out.println("-server -port:<port> : Start in server mode");
+		System.out.println("-limit:<KB/s> : Limit the download bandwidth of updates (default is unlimited)");
+		System.out.println("-store_gc : Remove files no install uses from the shared content store");
+		System.out.println("-lan_cache[:<port>] : Serve game files to other launchers on the network (default port is " + LanCacheServer.DEFAULT_PORT + ")");
+		System.out.println("-files_url:<url> : Download the game from another file server, such as a LAN cache");
+		System.out.println("-staged : Download the update next to the install and swap it in at the end, so a running server keeps working");
 	}
 
 	private static String getCurrentUser() {
@@ -436,6 +525,30 @@ public class StarMadeLauncher extends JFrame {
 		}
 	}
 
+	private void refreshVersionDropdown(JComboBox<String> versionDropdown, JComboBox<String> branchDropdown) {
+		// recreating the buttons would replace the update button of the running update, the next refresh catches up
+		if(updaterThread != null && updaterThread.updating) return;
+		Object selected = versionDropdown.getSelectedItem();
+		// repopulating selects and deselects items, which must not save the settings and recreate the buttons each time
+		refreshingVersions = true;
+		try {
+			versionDropdown.removeAllItems();
+			updateVersionDropdown(versionDropdown, branchDropdown, versionRegistry);
+			if(selected != null) {
+				String selectedVersion = selected.toString().split(" ")[0];
+				for(int i = 0; i < versionDropdown.getItemCount(); i++) {
+					if(versionDropdown.getItemAt(i).split(" ")[0].equals(selectedVersion)) {
+						versionDropdown.setSelectedIndex(i);
+						break;
+					}
+				}
+			}
+		} finally {
+			refreshingVersions = false;
+		}
+		if(!Objects.equals(selected, versionDropdown.getSelectedItem())) onSelectVersion(versionDropdown);
+	}
+
 	private void downloadJRE(JavaVersion version) throws Exception {
 		if(new File(getJavaPath(version)).exists()) return;
 		new JavaDownloader(version).downloadAndUnzip();
@@ -486,6 +599,16 @@ public class StarMadeLauncher extends JFrame {
 		closeButton.setContentAreaFilled(false);
 		closeButton.setBorderPainted(false);
 		closeButton.addActionListener(e -> {
+			if(updaterThread != null && updaterThread.updating) {
+				int choice = JOptionPane.showConfirmDialog(this, "The game is still updating. Cancel the update and close the launcher?\nThe next update continues where this one stopped.", "Cancel Update", JOptionPane.YES_NO_OPTION, JOptionPane.WARNING_MESSAGE);
+				if(choice != JOptionPane.YES_OPTION) return;
+				updaterThread.cancelUpdate();
+				try {
+					//Give the updater a moment to save its progress
+					updaterThread.join(5000);
+				} catch(InterruptedException ignored) {
+				}
+			}
 			dispose();
 			System.exit(0);
 		});
@@ -822,7 +945,7 @@ public class StarMadeLauncher extends JFrame {
 			dialog[0].setModal(true);
 			dialog[0].setResizable(false);
 			dialog[0].setTitle("Installation Settings");
-			dialog[0].setSize(450, 150);
+			dialog[0].setSize(450, 185);
 			dialog[0].setLocationRelativeTo(null);
 			dialog[0].setLayout(new BorderLayout());
 			dialog[0].setAlwaysOnTop(true);
@@ -896,6 +1019,21 @@ public class StarMadeLauncher extends JFrame {
 				} else JOptionPane.showMessageDialog(dialog[0], "The Launcher needs to be online to do this!", "Error", JOptionPane.ERROR_MESSAGE);
 			});
 
+			JPanel limitPanel = new JPanel();
+			limitPanel.setDoubleBuffered(true);
+			limitPanel.setOpaque(false);
+			limitPanel.setLayout(new FlowLayout(FlowLayout.CENTER));
+			dialogPanel.add(limitPanel);
+			JLabel limitLabel = new JLabel("Download Limit (KB/s, 0 = unlimited): ");
+			limitLabel.setDoubleBuffered(true);
+			limitLabel.setOpaque(false);
+			limitLabel.setFont(new Font("Roboto", Font.BOLD, 12));
+			limitPanel.add(limitLabel);
+			JSpinner limitSpinner = new JSpinner(new SpinnerNumberModel(Math.max(0, LaunchSettings.getDownloadLimitKb()), 0, Integer.MAX_VALUE, 256));
+			limitSpinner.setDoubleBuffered(true);
+			limitSpinner.setPreferredSize(new Dimension(100, 20));
+			limitPanel.add(limitSpinner);
+
 			JPanel buttonPanel = new JPanel();
 			buttonPanel.setDoubleBuffered(true);
 			buttonPanel.setOpaque(false);
@@ -911,10 +1049,12 @@ public class StarMadeLauncher extends JFrame {
 			buttonPanel.add(cancelButton);
 			saveButton.addActionListener(e1 -> {
 				String installDir = tempInstallDir[0];
-				if(installDir != null) {
-					LaunchSettings.setInstallDir(installDir);
-					LaunchSettings.saveSettings();
-				}
+				if(installDir != null) LaunchSettings.setInstallDir(installDir);
+				int limitKb = (Integer) limitSpinner.getValue();
+				LaunchSettings.setDownloadLimitKb(limitKb);
+				//Takes effect right away, also for an update that is already running
+				BandwidthLimiter.getGlobal().setRate(limitKb * 1024L);
+				LaunchSettings.saveSettings();
 				dialog[0].dispose();
 			});
 			cancelButton.addActionListener(e1 -> dialog[0].dispose());
@@ -1024,9 +1164,20 @@ public class StarMadeLauncher extends JFrame {
 				System.out.println("selected version " + version);
 				if(version != null) {
 					if(updaterThread == null || !updaterThread.updating) updateGame(version);
+					else toggleUpdatePause();
 				} else JOptionPane.showMessageDialog(null, "The Launcher needs to be online to do this!", "Error", JOptionPane.ERROR_MESSAGE);
 			});
 			updateButton.addMouseListener(new MouseAdapter() {
+				@Override
+				public void mousePressed(MouseEvent e) {
+					showUpdatePopup(e);
+				}
+
+				@Override
+				public void mouseReleased(MouseEvent e) {
+					showUpdatePopup(e);
+				}
+
 				@Override
 				public void mouseEntered(MouseEvent e) {
 					if(updaterThread == null || !updaterThread.updating) updateButton.setIcon(getIcon("sprites/update_roll.png"));
@@ -1200,8 +1351,12 @@ public class StarMadeLauncher extends JFrame {
 
 		versionDropdown.removeAllItems();
 		updateVersionDropdown(versionDropdown, branchDropdown, versionRegistry);
-		versionDropdown.addItemListener(e -> onSelectVersion(versionDropdown));
+		versionDropdown.addItemListener(e -> {
+			if(!refreshingVersions) onSelectVersion(versionDropdown);
+		});
 		setInitialVersion(versionDropdown);
+		// the registry may have started from the versions on disk, show what the server has once it answered
+		versionRegistry.setUpdateListener(() -> SwingUtilities.invokeLater(() -> refreshVersionDropdown(versionDropdown, branchDropdown)));
 
 		versionSubPanel.add(branchDropdown);
 		versionSubPanel.add(versionDropdown);
@@ -1246,15 +1401,61 @@ public class StarMadeLauncher extends JFrame {
 		recreateButtons(playPanel, false);
 	}
 
+	private void toggleUpdatePause() {
+		boolean paused = !updaterThread.isPaused();
+		updaterThread.setPaused(paused);
+		dlStatus.setPaused(paused);
+		drawUpdateProgress();
+		updateButton.setToolTipText(dlStatus.toString());
+	}
+
+	/**
+	 * Draws the update progress onto the update button, marking it while the download is paused.
+	 */
+	private void drawUpdateProgress() {
+		ImageIcon updateButtonEmpty = getIcon("sprites/update_load_empty.png");
+		ImageIcon updateButtonFilled = getIcon("sprites/update_load_full.png");
+		int width = updateButtonEmpty.getIconWidth();
+		int height = updateButtonEmpty.getIconHeight();
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+		Graphics2D g = image.createGraphics();
+		g.drawImage(updateButtonEmpty.getImage(), 0, 0, null);
+		int filledWidth = (int) (width * dlStatus.getInstallProgress());
+		g.drawImage(updateButtonFilled.getImage(), 0, 0, filledWidth, updateButtonFilled.getIconHeight(), 0, 0, filledWidth, updateButtonFilled.getIconHeight(), null);
+		if(dlStatus.isPaused()) {
+			g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+			g.setFont(new Font("Roboto", Font.BOLD, 14));
+			g.setColor(Palette.textColor);
+			FontMetrics metrics = g.getFontMetrics();
+			String text = "PAUSED";
+			g.drawString(text, (width - metrics.stringWidth(text)) / 2, (height - metrics.getHeight()) / 2 + metrics.getAscent());
+		}
+		g.dispose();
+		updateButton.setIcon(new ImageIcon(image));
+		updateButton.repaint();
+	}
+
+	private void showUpdatePopup(MouseEvent e) {
+		if(!e.isPopupTrigger() || updaterThread == null || !updaterThread.updating || updaterThread.isCancelled()) return;
+		JPopupMenu popup = new JPopupMenu();
+		JMenuItem pauseItem = new JMenuItem(updaterThread.isPaused() ? "Resume" : "Pause");
+		pauseItem.addActionListener(a -> toggleUpdatePause());
+		popup.add(pauseItem);
+		JMenuItem cancelItem = new JMenuItem("Cancel Update");
+		cancelItem.addActionListener(a -> updaterThread.cancelUpdate());
+		popup.add(cancelItem);
+		popup.show(e.getComponent(), e.getX(), e.getY());
+	}
+
 	private void updateGame(IndexFileEntry version) {
 		String[] options = {"Backup Database", "Backup Everything", "Don't Backup"};
 		int choice = JOptionPane.showOptionDialog(this, "Would you like to backup your database, everything, or nothing?", "Backup", JOptionPane.YES_NO_CANCEL_OPTION, JOptionPane.QUESTION_MESSAGE, null, options, options[0]);
 		int backupMode = UpdaterThread.BACKUP_MODE_NONE;
 		if(choice == 0) backupMode = UpdaterThread.BACKUP_MODE_DATABASE;
 		else if(choice == 1) backupMode = UpdaterThread.BACKUP_MODE_EVERYTHING;
-		ImageIcon updateButtonEmpty = getIcon("sprites/update_load_empty.png");
-		ImageIcon updateButtonFilled = getIcon("sprites/update_load_full.png");
-		updateButton.setIcon(updateButtonEmpty);
+		dlStatus.setInstallProgress(0);
+		dlStatus.setPaused(false);
+		updateButton.setIcon(getIcon("sprites/update_load_empty.png"));
 		//Start update process and update progress bar
 		(updaterThread = new UpdaterThread(version, backupMode, new File(LaunchSettings.getInstallDir())) {
 			@Override
@@ -1264,16 +1465,7 @@ public class StarMadeLauncher extends JFrame {
 				dlStatus.setTotalMb(mbTotal);
 				dlStatus.setSpeedMb(mbSpeed);
 				if(file != null && !file.equals("null")) dlStatus.setFilename(file);
-				int width = updateButtonEmpty.getIconWidth();
-				int height = updateButtonEmpty.getIconHeight();
-				BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
-				Graphics2D g = image.createGraphics();
-				g.drawImage(updateButtonEmpty.getImage(), 0, 0, null);
-				int filledWidth = (int) (width * progress);
-				g.drawImage(updateButtonFilled.getImage(), 0, 0, filledWidth, updateButtonFilled.getIconHeight(), 0, 0, filledWidth, updateButtonFilled.getIconHeight(), null);
-				g.dispose();
-				updateButton.setIcon(new ImageIcon(image));
-				updateButton.repaint();
+				drawUpdateProgress();
 			}
 
 			@Override
@@ -1296,7 +1488,8 @@ public class StarMadeLauncher extends JFrame {
 
 			@Override
 			public void onError(Exception exception) {
-				exception.printStackTrace();
+				if(isCancelled()) System.out.println("Update was cancelled");
+				else exception.printStackTrace();
 				updateButton.setIcon(getIcon("sprites/update_btn.png"));
 			}
 		}).start();
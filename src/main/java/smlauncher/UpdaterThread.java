@@ -3,8 +3,10 @@ package smlauncher;
 
 import smlauncher.starmade.*;
 
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.security.NoSuchAlgorithmException;
 
 /**
@@ -21,18 +23,26 @@ public class UpdaterThread extends Thread {
 	private final IndexFileEntry version;
 	private final int backupMode;
 	private final File installDir;
-	public boolean updating;
+	/**
+	 * Whether this thread is still working on the install. Only cleared once the update ended, never from progress
+	 * snapshots, whose totals keep growing while files are still being verified and queued.
+	 */
+	public volatile boolean updating;
+	private volatile ChecksumFile checksums;
+	private volatile boolean cancelled;
 
 	public UpdaterThread(IndexFileEntry version, int backupMode, File installDir) {
 		this.version = version;
 		this.backupMode = backupMode;
 		this.installDir = installDir;
+		// set before the thread starts, so the launcher never sees an update that was started as idle
+		this.updating = true;
 	}
 
 	@Override
 	public void run() {
 		try {
-			updating = true;
+			setPaused(false);
 
 			// Back up the database
 			boolean dbOnly = backupMode == BACKUP_MODE_DATABASE;
@@ -41,56 +51,79 @@ public class UpdaterThread extends Thread {
 						.backUp(installDir.getPath(), "server-database", String.valueOf(System.currentTimeMillis()), ".zip", false, dbOnly, null);
 			}
 
-			// Get checksums
+			// Stream the checksums, files are verified and downloaded while the rest of the manifest arrives
 			String buildDir = GameUpdater.FILES_URL + version.path; // build dir is same as path
-			ChecksumFile checksums = GameUpdater.getChecksums(buildDir);
+			ChecksumFile checksums = new ChecksumFile();
+			this.checksums = checksums;
+			if (cancelled) throw new InterruptedIOException("Update was cancelled");
 
 			if (!installDir.exists()) installDir.mkdirs();
-			float finalSize = checksums.checksums.size();
-			if (finalSize == 0) {
-				onFinished();
-				return;
-			}
-			checksums.download(false, buildDir, installDir, installDir.getPath(), new FileDowloadCallback() {
-				@Override
-				public void update(FileDownloadUpdate u) {
-					if (u.total == 0) {
-						onFinished();
-						return;
-					}
-					float progress = (float) u.currentSize / u.totalSize;
-					if (progress < 0) progress = (float) u.total / u.index; //Somehow its negative sometimes
-					onProgress(progress, u.fileName, u.downloaded, u.totalSize, (long) u.downloadSpeed);
-					System.out.println(u.index + " " + u.total + " " + u.currentSize + " " + u.totalSize);
-					if (u.index >= u.total - 1 && u.currentSize >= u.totalSize) {
-						updating = false;
-//						onFinished();
+			try (BufferedReader manifest = GameUpdater.openChecksums(buildDir)) {
+				checksums.download(false, buildDir, installDir, installDir.getPath(), new FileDowloadCallback() {
+					@Override
+					public void update(FileDownloadUpdate u) {
+						float progress = (float) u.currentSize / u.totalSize;
+						if (progress < 0) progress = (float) u.total / u.index; //Somehow its negative sometimes
+						onProgress(progress, u.fileName, u.downloaded, u.totalSize, (long) u.downloadSpeed);
+						System.out.println(u.index + " " + u.total + " " + u.currentSize + " " + u.totalSize);
 					}
-				}
 
-				@Override
-				public void update(String u) {
-					if (u.contains("Nothing to download")) onFinished();
-				}
+					@Override
+					public void update(String u) {
+						if (u.contains("Nothing to download")) {
+							updating = false;
+							onFinished();
+						}
+					}
 
-				@Override
-				public void done(FileDownloadUpdate u) {
-					if (u.index == 0 || u.total == 0) return;//idk
-					if (u.index >= u.total - 1) {
+					@Override
+					public void done(FileDownloadUpdate u) {
+						// only published once every file was downloaded and committed
 						updating = false;
 						onFinished();
 					}
-				}
-			});
+				}, manifest);
+			}
 			//onFinished();
 		} catch (IOException exception) {
 			System.out.println("Could not download file checksums");
+			updating = false;
 			onError(exception);
 		} catch (NoSuchAlgorithmException exception) {
 			throw new RuntimeException(exception);
+		} finally {
+			updating = false;
 		}
 	}
 
+	/**
+	 * Cancels the update. Files that were already committed stay, the rest is resumed by the next update. The thread
+	 * ends with {@link #onError} once the running downloads were aborted.
+	 */
+	public void cancelUpdate() {
+		cancelled = true;
+		ChecksumFile checksums = this.checksums;
+		if (checksums != null) checksums.cancel();
+		// paused downloads would otherwise only notice the cancel once resumed
+		setPaused(false);
+	}
+
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * Pauses or resumes the download of game files. Paused downloads keep their partial files and continue where they
+	 * stopped.
+	 */
+	public void setPaused(boolean paused) {
+		BandwidthLimiter.getGlobal().setPaused(paused);
+	}
+
+	public boolean isPaused() {
+		return BandwidthLimiter.getGlobal().isPaused();
+	}
+
 	public void onProgress(float progress, String currentFile, long downloaded, long total, long speed) {
 	}
 
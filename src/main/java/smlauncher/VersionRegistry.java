@@ -2,15 +2,13 @@ package smlauncher;
 
 import smlauncher.starmade.GameBranch;
 import smlauncher.starmade.IndexFileEntry;
+import smlauncher.starmade.VersionIndexService;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.net.URL;
-import java.net.URLConnection;
-import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.function.Predicate;
 
 /**
@@ -21,57 +19,117 @@ import java.util.function.Predicate;
 public class VersionRegistry {
 
 	private final Map<GameBranch, List<IndexFileEntry>> branchVersions;
+	private Runnable updateListener;
+	private boolean updatePending;
 
 	public VersionRegistry() {
-		this.branchVersions = new HashMap<>();
+		this.branchVersions = new ConcurrentHashMap<>();
 	}
 
 	// Read Version Method
 
 	/**
-	 * Reads all game versions for each branch into the registry.
+	 * Reads all game versions for each branch into the registry. If every branch has an index on disk, the registry
+	 * is filled from those right away and revalidated in the background, which calls the update listener if the
+	 * versions changed. Otherwise, all branches are fetched concurrently and waited for.
 	 *
 	 * @throws IOException if the URL of versions cannot be read.
 	 */
 	public void createRegistry() throws IOException {
+		VersionIndexService service = VersionIndexService.getDefault();
+		List<GameBranch> branches = new ArrayList<>();
 		for (GameBranch branch : GameBranch.values()) {
-			if (branch == GameBranch.ARCHIVE) continue; // don't run archive versions
+			if (branch != GameBranch.ARCHIVE) branches.add(branch); // don't run archive versions
+		}
 
-			List<IndexFileEntry> versions = readVersions(branch);
-			branchVersions.put(branch, versions);
+		Map<GameBranch, List<IndexFileEntry>> cached = new EnumMap<>(GameBranch.class);
+		for (GameBranch branch : branches) {
+			List<IndexFileEntry> versions = service.getCached(branch);
+			if (versions != null) cached.put(branch, versions);
 		}
-	}
+		CompletableFuture<Map<GameBranch, List<IndexFileEntry>>> fetch = service.fetchAll(branches);
 
-	private List<IndexFileEntry> readVersions(GameBranch branch) throws IOException {
-		// Open URL connection
-		URL url = new URL(branch.url);
-		URLConnection openConnection = url.openConnection();
-		openConnection.setConnectTimeout(10000);
-		openConnection.setReadTimeout(10000);
-		openConnection.setRequestProperty("User-Agent", "StarMade-Updater_" + StarMadeLauncher.LAUNCHER_VERSION);
-
-		// Read all versions
-		List<IndexFileEntry> versions = new ArrayList<>();
-		try (BufferedReader in = new BufferedReader(new InputStreamReader(new BufferedInputStream(openConnection.getInputStream()), StandardCharsets.UTF_8))) {
-			String line;
-			while ((line = in.readLine()) != null) {
-				IndexFileEntry entry = IndexFileEntry.create(line, branch);
-				versions.add(entry);
+		if (cached.size() == branches.size()) {
+			for (Map.Entry<GameBranch, List<IndexFileEntry>> entry : cached.entrySet()) {
+				branchVersions.put(entry.getKey(), sortVersions(entry.getKey(), entry.getValue()));
 			}
-			// Sort versions from old to recent
-			versions.sort(Collections.reverseOrder());
-		} catch (Exception e) {
+			fetch.thenAccept(this::update);
+			return;
+		}
+
+		Map<GameBranch, List<IndexFileEntry>> fetched;
+		try {
+			fetched = fetch.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while fetching versions", e);
+		} catch (ExecutionException e) {
+			throw new IOException(e.getCause());
+		}
+		// a branch that failed to fetch falls back to whatever index it has on disk
+		cached.putAll(fetched);
+		if (cached.isEmpty()) {
 			System.out.println("Could not read versions list");
-			throw new IOException(e);
+			throw new IOException("Could not fetch the version index of any branch");
+		}
+		for (Map.Entry<GameBranch, List<IndexFileEntry>> entry : cached.entrySet()) {
+			branchVersions.put(entry.getKey(), sortVersions(entry.getKey(), entry.getValue()));
+		}
+	}
+
+	/**
+	 * Sets the listener to call when a background revalidation changed the versions of a branch. It is called on a
+	 * background thread, or right away if the versions already changed before a listener was set.
+	 */
+	public void setUpdateListener(Runnable updateListener) {
+		boolean replay;
+		synchronized (this) {
+			this.updateListener = updateListener;
+			replay = updatePending && updateListener != null;
+			if (replay) updatePending = false;
+		}
+		if (replay) updateListener.run();
+	}
+
+	private void update(Map<GameBranch, List<IndexFileEntry>> fetched) {
+		boolean changed = false;
+		for (Map.Entry<GameBranch, List<IndexFileEntry>> entry : fetched.entrySet()) {
+			List<IndexFileEntry> versions = sortVersions(entry.getKey(), entry.getValue());
+			if (!sameVersions(branchVersions.get(entry.getKey()), versions)) {
+				branchVersions.put(entry.getKey(), versions);
+				changed = true;
+			}
 		}
-		openConnection.getInputStream().close();
+		if (!changed) return;
+		Runnable listener;
+		synchronized (this) {
+			listener = updateListener;
+			// the revalidation may finish before the launcher set up its version dropdown
+			if (listener == null) updatePending = true;
+		}
+		if (listener != null) listener.run();
+	}
 
+	private static List<IndexFileEntry> sortVersions(GameBranch branch, List<IndexFileEntry> index) {
+		List<IndexFileEntry> versions = new ArrayList<>(index);
+		// Sort versions from old to recent
+		versions.sort(Collections.reverseOrder());
 		if (branch == GameBranch.DEV) { // Remove old dev versions
 			versions.removeIf(v -> v.build.startsWith("2017"));
 		}
 		return versions;
 	}
 
+	private static boolean sameVersions(List<IndexFileEntry> a, List<IndexFileEntry> b) {
+		if (a == null || a.size() != b.size()) return false;
+		for (int i = 0; i < a.size(); i++) {
+			IndexFileEntry x = a.get(i);
+			IndexFileEntry y = b.get(i);
+			if (!x.build.equals(y.build) || !x.version.equals(y.version) || !x.path.equals(y.path)) return false;
+		}
+		return true;
+	}
+
 	// Get Version Methods
 
 	/**
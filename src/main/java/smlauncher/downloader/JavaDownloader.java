@@ -5,12 +5,12 @@ import org.codehaus.plexus.archiver.UnArchiver;
 import org.codehaus.plexus.archiver.tar.TarGZipUnArchiver;
 import org.codehaus.plexus.archiver.zip.ZipUnArchiver;
 import smlauncher.LaunchSettings;
+import smlauncher.starmade.DownloadCallback;
+import smlauncher.starmade.SegmentedDownloader;
 import smlauncher.util.OperatingSystem;
 
 import java.io.*;
 import java.net.URL;
-import java.nio.channels.Channels;
-import java.nio.channels.ReadableByteChannel;
 import java.util.Objects;
 
 /**
@@ -41,16 +41,27 @@ public class JavaDownloader {
 	}
 
 	public void download() throws IOException {
+		download(null);
+	}
+
+	/**
+	 * Downloads the JDK archive, logging the progress if no callback is given.
+	 *
+	 * @param cb the callback to report the downloaded bytes to, or null
+	 */
+	public void download(DownloadCallback cb) throws IOException {
 		String url = getJavaURL();
 		if (url == null) return;
 
+		// the archives are large enough to be fetched over several connections
+		SegmentedDownloader downloader = SegmentedDownloader.getDefault();
 		URL website = new URL(url);
-		ReadableByteChannel rbc = Channels.newChannel(website.openStream());
+		long size = downloader.getContentLength(website);
+		if (cb == null) cb = new LoggingCallback(size);
 
-		String destination = getZipFilename();
-		FileOutputStream fos = new FileOutputStream(destination);
-		fos.getChannel().transferFrom(rbc, 0, Long.MAX_VALUE);
-		fos.close();
+		File destination = new File(getZipFilename());
+		destination.delete(); // don't resume an archive of another version
+		downloader.download(website, destination, size, cb);
 	}
 
 	public void unzip() throws IOException {
@@ -107,6 +118,32 @@ public class JavaDownloader {
 		return LaunchSettings.getInstallDir() + "/jre" + version.number;
 	}
 
+	/**
+	 * Prints the progress in steps of ten percent.
+	 */
+	private static class LoggingCallback implements DownloadCallback {
+		private final long size;
+		private int lastPercent;
+
+		LoggingCallback(long size) {
+			this.size = size;
+		}
+
+		@Override
+		public void downloaded(long downloaded, long diff) {
+			if (size <= 0) return;
+			int percent = (int) (downloaded * 100 / size) / 10 * 10;
+			if (percent > lastPercent) {
+				lastPercent = percent;
+				System.out.println("Downloading JRE: " + percent + "%");
+			}
+		}
+
+		@Override
+		public void doneDownloading() {
+		}
+	}
+
 	void cleanupZip() {
 		File zipFile = new File(getZipFilename());
 		if (zipFile.exists()) zipFile.delete();
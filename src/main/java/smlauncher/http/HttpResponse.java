@@ -0,0 +1,95 @@
+package smlauncher.http;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * A response of the {@link PooledHttpClient}. The response must be closed, which returns its connection to the pool.
+ */
+public abstract class HttpResponse implements Closeable {
+
+	private final URL url;
+	private final int status;
+	private final Map<String, String> headers;
+
+	HttpResponse(URL url, int status, Map<String, String> headers) {
+		this.url = url;
+		this.status = status;
+		this.headers = headers;
+	}
+
+	/**
+	 * @return the URL this response was received from, after following redirects
+	 */
+	public URL getUrl() {
+		return url;
+	}
+
+	public int getStatus() {
+		return status;
+	}
+
+	public boolean isSuccessful() {
+		return status >= 200 && status < 300;
+	}
+
+	/**
+	 * @param name the case-insensitive header name
+	 * @return the header value, or null if it was not sent
+	 */
+	public String getHeader(String name) {
+		return headers.get(name);
+	}
+
+	/**
+	 * @return the value of the Content-Length header, or -1 if it is unknown
+	 */
+	public long getContentLength() {
+		String length = getHeader("Content-Length");
+		if (length == null) return -1;
+		try {
+			return Long.parseLong(length.trim());
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Throws if the status code is not 2xx, closing the response.
+	 *
+	 * @return this response
+	 * @throws HttpStatusException if the request was not successful
+	 */
+	public HttpResponse requireSuccess() throws HttpStatusException {
+		if (!isSuccessful()) {
+			close();
+			throw new HttpStatusException(url.toString(), status);
+		}
+		return this;
+	}
+
+	/**
+	 * @return the response body; closing it closes the response
+	 */
+	public abstract InputStream getBody();
+
+	/**
+	 * Undoes the gzip content encoding of responses to requests sent with {@link PooledHttpClient#ACCEPT_GZIP}.
+	 *
+	 * @return the decoded response body; closing it closes the response
+	 * @throws IOException if the gzip header cannot be read
+	 */
+	public InputStream getDecodedBody() throws IOException {
+		String encoding = getHeader("Content-Encoding");
+		if (encoding != null && encoding.trim().equalsIgnoreCase("gzip")) return new GZIPInputStream(getBody(), 8192);
+		return getBody();
+	}
+
+	@Override
+	public abstract void close();
+
+}
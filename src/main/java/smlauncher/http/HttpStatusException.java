@@ -0,0 +1,22 @@
+package smlauncher.http;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a server answers with an unexpected HTTP status code.
+ */
+public class HttpStatusException extends IOException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final int status;
+
+	public HttpStatusException(String url, int status) {
+		super("Server returned HTTP " + status + " for " + url);
+		this.status = status;
+	}
+
+	public int getStatus() {
+		return status;
+	}
+}
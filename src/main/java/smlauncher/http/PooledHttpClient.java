@@ -0,0 +1,576 @@
+package smlauncher.http;
+
+import smlauncher.StarMadeLauncher;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * HTTP/1.1 client that keeps connections alive and reuses them across requests.
+ * <p>
+ * Game updates fetch thousands of small files from the same host, where setting up a new connection per file
+ * dominates the transfer time. Connections are pooled per host and bounded by {@code maxConnectionsPerHost}; a
+ * request blocks until a connection of its host is free. Only plain {@code http} is pooled by this client,
+ * {@code https} requests go through {@link HttpURLConnection}, which keeps its own connections alive.
+ * <p>
+ * Proxies are taken from {@link ProxySelector#getDefault()}, which also covers the {@code http.proxyHost} and
+ * {@code socksProxyHost} system properties. Through an HTTP proxy, connections are pooled per proxy and requests are
+ * sent in absolute form; through a SOCKS proxy, they are pooled per host as usual.
+ */
+public class PooledHttpClient {
+
+	public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 16;
+	public static final int DEFAULT_CONNECT_TIMEOUT = 10000;
+	public static final int DEFAULT_READ_TIMEOUT = 50000;
+	/**
+	 * Headers that let the server compress the response. Bodies must then be read through
+	 * {@link HttpResponse#getDecodedBody()}. Range requests should not use them, since ranges would refer to the
+	 * compressed bytes.
+	 */
+	public static final Map<String, String> ACCEPT_GZIP = Collections.singletonMap("Accept-Encoding", "gzip");
+	private static final long IDLE_TIMEOUT = 30000;
+	private static final int MAX_REDIRECTS = 5;
+	private static final int DRAIN_LIMIT = 64 * 1024;
+
+	private static PooledHttpClient defaultClient;
+
+	private final int maxConnectionsPerHost;
+	private final int connectTimeout;
+	private final int readTimeout;
+	private final String userAgent;
+	private final Map<String, HostPool> pools = new ConcurrentHashMap<>();
+	private final LongAdder requests = new LongAdder();
+	private final LongAdder connectionsOpened = new LongAdder();
+	private final LongAdder connectionsReused = new LongAdder();
+
+	public PooledHttpClient(int maxConnectionsPerHost, int connectTimeout, int readTimeout, String userAgent) {
+		this.maxConnectionsPerHost = maxConnectionsPerHost;
+		this.connectTimeout = connectTimeout;
+		this.readTimeout = readTimeout;
+		this.userAgent = userAgent;
+	}
+
+	/**
+	 * @return the client shared by all game downloads
+	 */
+	public static synchronized PooledHttpClient getDefault() {
+		if (defaultClient == null) {
+			defaultClient = new PooledHttpClient(DEFAULT_MAX_CONNECTIONS_PER_HOST, DEFAULT_CONNECT_TIMEOUT, DEFAULT_READ_TIMEOUT, "StarMade-Updater_" + StarMadeLauncher.LAUNCHER_VERSION);
+		}
+		return defaultClient;
+	}
+
+	public HttpResponse get(URL url) throws IOException {
+		return execute("GET", url, Collections.emptyMap());
+	}
+
+	public HttpResponse get(URL url, Map<String, String> headers) throws IOException {
+		return execute("GET", url, headers);
+	}
+
+	/**
+	 * Sends a request without a body and follows redirects.
+	 *
+	 * @param method  the request method, e.g. GET or HEAD
+	 * @param url     the URL to request
+	 * @param headers additional request headers
+	 * @return the response, which has to be closed
+	 * @throws IOException if the request could not be sent or the response could not be read
+	 */
+	public HttpResponse execute(String method, URL url, Map<String, String> headers) throws IOException {
+		for (int redirects = 0; ; redirects++) {
+			HttpResponse response = executeOnce(method, url, headers);
+			String location = response.getHeader("Location");
+			if (!isRedirect(response.getStatus()) || location == null || redirects >= MAX_REDIRECTS) return response;
+			response.close();
+			url = new URL(url, location);
+		}
+	}
+
+	// Metrics
+
+	public long getRequestCount() {
+		return requests.sum();
+	}
+
+	public long getConnectionsOpened() {
+		return connectionsOpened.sum();
+	}
+
+	public long getConnectionsReused() {
+		return connectionsReused.sum();
+	}
+
+	/**
+	 * @return the fraction of pooled requests that were sent over an already open connection
+	 */
+	public double getReuseRate() {
+		long reused = connectionsReused.sum();
+		long total = reused + connectionsOpened.sum();
+		return total == 0 ? 0 : reused / (double) total;
+	}
+
+	public String getMetrics() {
+		return String.format("%d requests, %d connections opened, %d reused (%.1f%% reuse)", getRequestCount(), getConnectionsOpened(), getConnectionsReused(), getReuseRate() * 100);
+	}
+
+	/**
+	 * Closes all idle connections.
+	 */
+	public void closeIdleConnections() {
+		for (HostPool pool : pools.values()) pool.closeIdle(0);
+	}
+
+	// Request Methods
+
+	private HttpResponse executeOnce(String method, URL url, Map<String, String> headers) throws IOException {
+		requests.increment();
+		if (!"http".equalsIgnoreCase(url.getProtocol())) return executeWithUrlConnection(method, url, headers);
+
+		int port = url.getPort() != -1 ? url.getPort() : url.getDefaultPort();
+		Proxy proxy = selectProxy(url);
+		String key = proxy.type() == Proxy.Type.HTTP ? "proxy " + proxy.address() : url.getHost().toLowerCase(Locale.ENGLISH) + ":" + port;
+		if (proxy.type() == Proxy.Type.SOCKS) key += " via " + proxy.address();
+		HostPool pool = pools.computeIfAbsent(key, k -> new HostPool(maxConnectionsPerHost));
+		pool.acquire();
+		boolean sent = false;
+		try {
+			PooledConnection connection = pool.pollIdle();
+			if (connection != null) {
+				try {
+					HttpResponse response = send(pool, connection, proxy, method, url, headers);
+					connectionsReused.increment();
+					sent = true;
+					return response;
+				} catch (StaleConnectionException e) {
+					// the server closed the idle connection in the meantime, so the request is sent once more on a new one
+					connection.close();
+				} catch (IOException e) {
+					// a timeout or any other failure would only repeat itself on another connection
+					connection.close();
+					throw e;
+				}
+			}
+
+			connection = new PooledConnection(proxy, url.getHost(), port, connectTimeout, readTimeout);
+			connectionsOpened.increment();
+			try {
+				HttpResponse response = send(pool, connection, proxy, method, url, headers);
+				sent = true;
+				return response;
+			} catch (IOException e) {
+				connection.close();
+				throw e;
+			}
+		} finally {
+			if (!sent) pool.release();
+		}
+	}
+
+	private HttpResponse send(HostPool pool, PooledConnection connection, Proxy proxy, String method, URL url, Map<String, String> headers) throws IOException {
+		String path = url.getFile().isEmpty() ? "/" : url.getFile();
+		// an HTTP proxy needs the whole URL to know where to forward the request to
+		String target = proxy.type() == Proxy.Type.HTTP ? new URL(url.getProtocol(), url.getHost(), url.getPort(), path).toExternalForm() : path;
+		StringBuilder request = new StringBuilder();
+		request.append(method).append(' ').append(target).append(" HTTP/1.1\r\n");
+		request.append("Host: ").append(url.getHost());
+		if (url.getPort() != -1 && url.getPort() != url.getDefaultPort()) request.append(':').append(url.getPort());
+		request.append("\r\n");
+		request.append("User-Agent: ").append(userAgent).append("\r\n");
+		request.append("Connection: keep-alive\r\n");
+		for (Map.Entry<String, String> header : headers.entrySet()) {
+			request.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+		}
+		request.append("\r\n");
+		String statusLine;
+		try {
+			connection.out.write(request.toString().getBytes(StandardCharsets.ISO_8859_1));
+			connection.out.flush();
+			statusLine = readLine(connection.in);
+		} catch (SocketException e) {
+			throw new StaleConnectionException(e.getMessage(), e);
+		}
+		if (statusLine == null) throw new StaleConnectionException("Connection closed before response", null);
+		String[] statusParts = statusLine.split(" ", 3);
+		if (statusParts.length < 2 || !statusParts[0].startsWith("HTTP/")) throw new IOException("Invalid status line: " + statusLine);
+		int status;
+		try {
+			status = Integer.parseInt(statusParts[1]);
+		} catch (NumberFormatException e) {
+			throw new IOException("Invalid status line: " + statusLine, e);
+		}
+
+		Map<String, String> responseHeaders = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+		String line;
+		while ((line = readLine(connection.in)) != null && !line.isEmpty()) {
+			int colon = line.indexOf(':');
+			if (colon <= 0) continue;
+			String name = line.substring(0, colon).trim();
+			String value = line.substring(colon + 1).trim();
+			responseHeaders.merge(name, value, (a, b) -> a + ", " + b);
+		}
+		if (line == null) throw new EOFException("Connection closed while reading headers");
+
+		boolean keepAlive = !statusParts[0].equals("HTTP/1.0") && !"close".equalsIgnoreCase(responseHeaders.get("Connection"));
+		BodyInputStream body;
+		String transferEncoding = responseHeaders.get("Transfer-Encoding");
+		String contentLength = responseHeaders.get("Content-Length");
+		if ("HEAD".equals(method) || status / 100 == 1 || status == 204 || status == 304) {
+			body = new FixedLengthInputStream(connection.in, 0);
+		} else if (transferEncoding != null && transferEncoding.toLowerCase(Locale.ENGLISH).contains("chunked")) {
+			body = new ChunkedInputStream(connection.in);
+		} else if (contentLength != null) {
+			try {
+				body = new FixedLengthInputStream(connection.in, Long.parseLong(contentLength.trim()));
+			} catch (NumberFormatException e) {
+				throw new IOException("Invalid Content-Length: " + contentLength, e);
+			}
+		} else {
+			body = new UntilCloseInputStream(connection.in);
+			keepAlive = false;
+		}
+		return new SocketResponse(url, status, responseHeaders, pool, connection, body, keepAlive);
+	}
+
+	private HttpResponse executeWithUrlConnection(String method, URL url, Map<String, String> headers) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+		connection.setRequestMethod(method);
+		connection.setConnectTimeout(connectTimeout);
+		connection.setReadTimeout(readTimeout);
+		connection.setInstanceFollowRedirects(false);
+		connection.setRequestProperty("User-Agent", userAgent);
+		for (Map.Entry<String, String> header : headers.entrySet()) {
+			connection.setRequestProperty(header.getKey(), header.getValue());
+		}
+		int status = connection.getResponseCode();
+		Map<String, String> responseHeaders = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+		for (Map.Entry<String, List<String>> header : connection.getHeaderFields().entrySet()) {
+			if (header.getKey() != null) responseHeaders.put(header.getKey(), String.join(", ", header.getValue()));
+		}
+		InputStream body = status >= 400 ? connection.getErrorStream() : connection.getInputStream();
+		if (body == null) body = new ByteArrayInputStream(new byte[0]);
+		InputStream finalBody = body;
+		return new HttpResponse(url, status, responseHeaders) {
+			@Override
+			public InputStream getBody() {
+				return finalBody;
+			}
+
+			@Override
+			public void close() {
+				try {
+					finalBody.close();
+				} catch (IOException ignored) {
+				}
+			}
+		};
+	}
+
+	/**
+	 * @return the proxy to send a request through, {@link Proxy#NO_PROXY} to connect directly
+	 */
+	private static Proxy selectProxy(URL url) {
+		ProxySelector selector = ProxySelector.getDefault();
+		if (selector == null) return Proxy.NO_PROXY;
+		List<Proxy> proxies;
+		try {
+			proxies = selector.select(url.toURI());
+		} catch (URISyntaxException | IllegalArgumentException e) {
+			return Proxy.NO_PROXY;
+		}
+		// only the first proxy is used, there is no failover to the others
+		Proxy proxy = proxies == null || proxies.isEmpty() ? Proxy.NO_PROXY : proxies.get(0);
+		return proxy.type() != Proxy.Type.DIRECT && proxy.address() instanceof InetSocketAddress ? proxy : Proxy.NO_PROXY;
+	}
+
+	private static boolean isRedirect(int status) {
+		return status == 301 || status == 302 || status == 303 || status == 307 || status == 308;
+	}
+
+	private static String readLine(InputStream in) throws IOException {
+		StringBuilder line = new StringBuilder();
+		int b;
+		while ((b = in.read()) != -1) {
+			if (b == '\n') {
+				int length = line.length();
+				if (length > 0 && line.charAt(length - 1) == '\r') line.setLength(length - 1);
+				return line.toString();
+			}
+			line.append((char) b);
+		}
+		return line.length() == 0 ? null : line.toString();
+	}
+
+	/**
+	 * Thrown when a connection was reset or closed before the status line of the response arrived, which is what an
+	 * idle connection the server closed looks like. The server did not answer, so the request can be sent again.
+	 */
+	private static final class StaleConnectionException extends EOFException {
+		private static final long serialVersionUID = 1L;
+
+		StaleConnectionException(String message, Throwable cause) {
+			super(message);
+			if (cause != null) initCause(cause);
+		}
+	}
+
+	// Connection Pool
+
+	private static final class HostPool {
+		private final Semaphore permits;
+		private final Deque<PooledConnection> idle = new ConcurrentLinkedDeque<>();
+
+		HostPool(int maxConnections) {
+			this.permits = new Semaphore(maxConnections, true);
+		}
+
+		void acquire() throws IOException {
+			try {
+				permits.acquire();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for a connection");
+			}
+		}
+
+		void release() {
+			permits.release();
+		}
+
+		PooledConnection pollIdle() {
+			closeIdle(IDLE_TIMEOUT);
+			return idle.pollFirst(); // most recently used, the least likely to be closed by the server
+		}
+
+		void offer(PooledConnection connection) {
+			connection.lastUsed = System.nanoTime();
+			idle.offerFirst(connection);
+		}
+
+		void closeIdle(long maxIdleMillis) {
+			long now = System.nanoTime();
+			for (Iterator<PooledConnection> it = idle.iterator(); it.hasNext(); ) {
+				PooledConnection connection = it.next();
+				if (TimeUnit.NANOSECONDS.toMillis(now - connection.lastUsed) >= maxIdleMillis) {
+					it.remove();
+					connection.close();
+				}
+			}
+		}
+	}
+
+	private static final class PooledConnection {
+		final Socket socket;
+		final InputStream in;
+		final OutputStream out;
+		long lastUsed;
+
+		PooledConnection(Proxy proxy, String host, int port, int connectTimeout, int readTimeout) throws IOException {
+			InetSocketAddress address;
+			if (proxy.type() == Proxy.Type.HTTP) {
+				InetSocketAddress proxyAddress = (InetSocketAddress) proxy.address();
+				socket = new Socket();
+				address = new InetSocketAddress(proxyAddress.getHostString(), proxyAddress.getPort());
+			} else if (proxy.type() == Proxy.Type.SOCKS) {
+				socket = new Socket(proxy);
+				address = InetSocketAddress.createUnresolved(host, port); // resolved by the proxy
+			} else {
+				socket = new Socket();
+				address = new InetSocketAddress(host, port);
+			}
+			try {
+				socket.setTcpNoDelay(true);
+				socket.setKeepAlive(true);
+				socket.setSoTimeout(readTimeout);
+				socket.connect(address, connectTimeout);
+				in = new BufferedInputStream(socket.getInputStream(), 64 * 1024);
+				out = new BufferedOutputStream(socket.getOutputStream());
+			} catch (IOException e) {
+				socket.close();
+				throw e;
+			}
+		}
+
+		void close() {
+			try {
+				socket.close();
+			} catch (IOException ignored) {
+			}
+		}
+	}
+
+	private static final class SocketResponse extends HttpResponse {
+		private final HostPool pool;
+		private final PooledConnection connection;
+		private final BodyInputStream body;
+		private final boolean keepAlive;
+		private boolean closed;
+
+		SocketResponse(URL url, int status, Map<String, String> headers, HostPool pool, PooledConnection connection, BodyInputStream body, boolean keepAlive) {
+			super(url, status, headers);
+			this.pool = pool;
+			this.connection = connection;
+			this.body = body;
+			this.keepAlive = keepAlive;
+			body.response = this;
+		}
+
+		@Override
+		public InputStream getBody() {
+			return body;
+		}
+
+		@Override
+		public synchronized void close() {
+			if (closed) return;
+			closed = true;
+			if (keepAlive && body.drain(DRAIN_LIMIT)) pool.offer(connection);
+			else connection.close();
+			pool.release();
+		}
+	}
+
+	// Body Streams
+
+	private abstract static class BodyInputStream extends InputStream {
+		final InputStream in;
+		SocketResponse response;
+
+		BodyInputStream(InputStream in) {
+			this.in = in;
+		}
+
+		abstract boolean isFinished();
+
+		/**
+		 * Reads the rest of the body so the connection can be reused.
+		 *
+		 * @return true if the whole body was read
+		 */
+		boolean drain(long limit) {
+			try {
+				byte[] buffer = new byte[4096];
+				long drained = 0;
+				while (!isFinished() && drained <= limit) {
+					int n = read(buffer);
+					if (n == -1) break;
+					drained += n;
+				}
+				return isFinished();
+			} catch (IOException e) {
+				return false;
+			}
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			int n = read(b, 0, 1);
+			return n == -1 ? -1 : b[0] & 0xff;
+		}
+
+		@Override
+		public void close() {
+			if (response != null) response.close();
+		}
+	}
+
+	private static final class FixedLengthInputStream extends BodyInputStream {
+		private long remaining;
+
+		FixedLengthInputStream(InputStream in, long length) {
+			super(in);
+			this.remaining = length;
+		}
+
+		@Override
+		boolean isFinished() {
+			return remaining == 0;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (remaining == 0) return -1;
+			int n = in.read(b, off, (int) Math.min(len, remaining));
+			if (n == -1) throw new EOFException("Connection closed with " + remaining + " bytes of the body left");
+			remaining -= n;
+			return n;
+		}
+
+		@Override
+		public int available() throws IOException {
+			return (int) Math.min(in.available(), remaining);
+		}
+	}
+
+	private static final class ChunkedInputStream extends BodyInputStream {
+		private long chunkRemaining;
+		private boolean finished;
+
+		ChunkedInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		boolean isFinished() {
+			return finished;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (finished) return -1;
+			if (chunkRemaining == 0) {
+				String sizeLine = readLine(in);
+				if (sizeLine == null) throw new EOFException("Connection closed in chunked body");
+				int extension = sizeLine.indexOf(';');
+				if (extension >= 0) sizeLine = sizeLine.substring(0, extension);
+				try {
+					chunkRemaining = Long.parseLong(sizeLine.trim(), 16);
+				} catch (NumberFormatException e) {
+					throw new IOException("Invalid chunk size: " + sizeLine, e);
+				}
+				if (chunkRemaining == 0) {
+					String trailer;
+					do {
+						trailer = readLine(in);
+					} while (trailer != null && !trailer.isEmpty());
+					finished = true;
+					return -1;
+				}
+			}
+			int n = in.read(b, off, (int) Math.min(len, chunkRemaining));
+			if (n == -1) throw new EOFException("Connection closed in chunked body");
+			chunkRemaining -= n;
+			if (chunkRemaining == 0) readLine(in); // CRLF after the chunk data
+			return n;
+		}
+	}
+
+	private static final class UntilCloseInputStream extends BodyInputStream {
+		private boolean finished;
+
+		UntilCloseInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		boolean isFinished() {
+			return finished;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (finished) return -1;
+			int n = in.read(b, off, len);
+			if (n == -1) finished = true;
+			return n;
+		}
+	}
+}
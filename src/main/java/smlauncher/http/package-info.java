@@ -0,0 +1,4 @@
+/**
+ * Pooled HTTP client used to download game files.
+ */
+package smlauncher.http;
@@ -0,0 +1,100 @@
+package smlauncher.starmade;
+
+import java.io.InterruptedIOException;
+
+/**
+ * Caps the combined bandwidth of all game downloads, and pauses them.
+ * <p>
+ * A token bucket that refills at the configured rate and holds at most a quarter second of it. Download loops call
+ * {@link #acquire} after every read with the number of bytes they got, which may overdraw the bucket; the next call
+ * then waits until the debt is paid off. While paused, every download blocks in {@link #acquire} with its connection
+ * and {@code .filepart} intact, so it continues where it stopped, or resumes by range request if the server dropped
+ * the connection in the meantime.
+ */
+public final class BandwidthLimiter {
+
+	private static final BandwidthLimiter GLOBAL = new BandwidthLimiter();
+	private static final long MIN_BURST = 64 * 1024;
+
+	private volatile long rate;
+	private volatile boolean paused;
+	private double tokens;
+	private long lastRefill = System.nanoTime();
+
+	/**
+	 * @return the limiter shared by all downloads
+	 */
+	public static BandwidthLimiter getGlobal() {
+		return GLOBAL;
+	}
+
+	/**
+	 * @return the limit in bytes per second, or 0 if unlimited
+	 */
+	public long getRate() {
+		return rate;
+	}
+
+	/**
+	 * Changes the limit, also for downloads that are already running.
+	 *
+	 * @param bytesPerSecond the limit in bytes per second, or 0 for no limit
+	 */
+	public synchronized void setRate(long bytesPerSecond) {
+		refill();
+		rate = Math.max(0, bytesPerSecond);
+		tokens = Math.min(tokens, getBurst());
+		notifyAll();
+	}
+
+	public boolean isPaused() {
+		return paused;
+	}
+
+	public synchronized void setPaused(boolean paused) {
+		this.paused = paused;
+		if (!paused) notifyAll();
+	}
+
+	/**
+	 * Takes the given number of bytes out of the bucket, first waiting while downloads are paused or the bucket is
+	 * in debt.
+	 *
+	 * @param bytes the number of bytes that were just transferred
+	 * @throws InterruptedIOException if the thread was interrupted while waiting
+	 */
+	public void acquire(long bytes) throws InterruptedIOException {
+		// unlimited and running is the common case, which every chunk of every download passes without the lock
+		if (rate == 0 && !paused) return;
+		synchronized (this) {
+			while (true) {
+				long waitMillis = 0;
+				if (!paused) {
+					if (rate == 0) return;
+					refill();
+					if (tokens > 0) {
+						tokens -= bytes;
+						return;
+					}
+					waitMillis = Math.max(1, (long) Math.ceil((1 - tokens) * 1000 / rate));
+				}
+				try {
+					wait(waitMillis); // 0 waits until resumed
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("Download was interrupted");
+				}
+			}
+		}
+	}
+
+	private long getBurst() {
+		return Math.max(MIN_BURST, rate / 4);
+	}
+
+	private void refill() {
+		long now = System.nanoTime();
+		if (rate > 0) tokens = Math.min(getBurst(), tokens + (now - lastRefill) * rate / 1e9d);
+		lastRefill = now;
+	}
+}
@@ -1,70 +1,175 @@
 package smlauncher.starmade;
 
+import smlauncher.http.PooledHttpClient;
+
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.security.NoSuchAlgorithmException;
-import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.Set;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 public class ChecksumFile {
-	public static Set<ChecksumFileEntry> running = new HashSet<ChecksumFileEntry>();
+	static final String VERSION_FILE = "/version.txt";
+	private static final String INSTALLED_MANIFEST = "installed-checksums";
+	private static final String STAGING_DIR = "staging";
+	private static final String BACKUP_DIR = "staging-backup";
+	private static volatile boolean sanityCheck = true;
+	private static volatile boolean staged;
 	public ArrayList<ChecksumFileEntry> checksums = new ArrayList<ChecksumFileEntry>();
-	int toExecute;
-	private int failed;
+	private volatile DownloadSession session;
+	private volatile boolean cancelRequested;
+	private volatile int verifiedCount;
+	private volatile int skippedCount;
+
+	/**
+	 * Sets whether files the installed manifest already lists with the right checksum are still checked for their
+	 * size and modification time before they are skipped. Without it, only the paths that differ between the
+	 * manifests are looked at.
+	 */
+	public static void setSanityCheck(boolean sanityCheck) {
+		ChecksumFile.sanityCheck = sanityCheck;
+	}
+
+	/**
+	 * Sets whether updates download into {@code .launcher/staging} of the install and only move the files into place
+	 * once all of them arrived, so a running server keeps a complete install until it is restarted.
+	 */
+	public static void setStaged(boolean staged) {
+		ChecksumFile.staged = staged;
+	}
+
+	/**
+	 * Loads the manifest of the build that was last installed completely, which {@link #download} keeps in
+	 * {@code .launcher/installed-checksums} of the install directory.
+	 *
+	 * @return the manifest, or null if there is none or it can't be read
+	 */
+	public static ChecksumFile loadInstalled(File installDir) {
+		CompactManifest manifest = loadInstalledManifest(installDir);
+		return manifest != null ? manifest.toChecksumFile() : null;
+	}
+
+	/**
+	 * Loads the installed manifest in its compact form, which is what an update keeps in memory to compare against.
+	 *
+	 * @return the manifest, or null if there is none or it can't be read
+	 */
+	static CompactManifest loadInstalledManifest(File installDir) {
+		File file = new File(new File(installDir, LocalHashIndex.LAUNCHER_DIR), INSTALLED_MANIFEST);
+		if (!file.exists()) return null;
+		try {
+			return CompactManifest.read(file);
+		} catch (IOException e) {
+			System.err.println("[UPDATER] Could not read installed manifest, verifying all files: " + e.getMessage());
+			return null;
+		}
+	}
+
+	private void saveInstalled(File installDir) throws IOException {
+		File dir = new File(installDir, LocalHashIndex.LAUNCHER_DIR);
+		if (!dir.exists() && !dir.mkdirs()) throw new IOException("Could not create " + dir.getAbsolutePath());
+		File tmp = new File(dir, INSTALLED_MANIFEST + ".tmp");
+		try (Writer out = Files.newBufferedWriter(tmp.toPath(), StandardCharsets.UTF_8)) {
+			for (ChecksumFileEntry e : checksums) {
+				out.write("." + e.relativePath + " " + e.size + " " + e.checksum);
+				out.write('\n');
+			}
+		}
+		LocalHashIndex.moveAtomically(tmp, new File(dir, INSTALLED_MANIFEST));
+	}
+
+	private static void deleteInstalled(File installDir) throws IOException {
+		Files.deleteIfExists(new File(new File(installDir, LocalHashIndex.LAUNCHER_DIR), INSTALLED_MANIFEST).toPath());
+	}
+
+	/**
+	 * Compares this manifest with the one of the installed build, in memory.
+	 *
+	 * @param installed the manifest of the installed build
+	 * @return the entries of this manifest that the installed build doesn't have with the same size and checksum
+	 */
+	public List<ChecksumFileEntry> getChanged(ChecksumFile installed) {
+		Map<String, ChecksumFileEntry> old = new HashMap<String, ChecksumFileEntry>(installed.checksums.size() * 2);
+		for (ChecksumFileEntry e : installed.checksums) old.put(e.relativePath, e);
+		List<ChecksumFileEntry> changed = new ArrayList<ChecksumFileEntry>();
+		for (ChecksumFileEntry e : checksums) {
+			ChecksumFileEntry o = old.get(e.relativePath);
+			if (o == null || o.size != e.size || !o.checksum.equals(e.checksum)) changed.add(e);
+		}
+		return changed;
+	}
 
 	public void parse(BufferedReader in) throws IOException {
+		parse(in, null);
+	}
+
+	/**
+	 * Parses a manifest in a single pass, handing every entry on as soon as its line was read. The version file is
+	 * held back and only added to {@link #checksums} at the end, so it is always the last entry.
+	 *
+	 * @param onEntry called with every entry except the version file, or null
+	 */
+	public void parse(BufferedReader in, Consumer<ChecksumFileEntry> onEntry) throws IOException {
+		ChecksumFileEntry versionEntry = null;
 		String line;
 
 		while ((line = in.readLine()) != null) {
 
 			//			./data/audio-resource/Gameplay/0022_gameplay - cockpit warning beep.ogg 14722 90b34870b3e9df9c5892d23f94f9df710716685a
 
-			line = line.trim();
-			int hashIndex = line.lastIndexOf(' ');
-			if (hashIndex < 0) {
+			// scan from the end by index, paths may contain spaces; only the path and checksum become strings
+			int from = 0;
+			int to = line.length();
+			while (from < to && line.charAt(from) <= ' ') from++;
+			while (to > from && line.charAt(to - 1) <= ' ') to--;
+			if (from == to) continue;
+
+			int hashIndex = line.lastIndexOf(' ', to - 1);
+			if (hashIndex < from) {
 				throw new IOException("Checksum file invalid [CHECKSUMNOTFOUND]: " + line);
 			}
+			String checksum = line.substring(hashIndex + 1, to);
 
-			String checksum = line.substring(hashIndex).trim();
-
-			//remove hash part
-			line = line.substring(0, hashIndex).trim();
-
-			int sizeIndex = line.lastIndexOf(' ');
-			if (sizeIndex < 0) {
-				throw new IOException("Checksum file invalid [SIZENOTFOUND]: " + line);
+			int sizeEnd = hashIndex;
+			while (sizeEnd > from && line.charAt(sizeEnd - 1) == ' ') sizeEnd--;
+			int sizeIndex = line.lastIndexOf(' ', sizeEnd - 1);
+			if (sizeIndex < from) {
+				throw new IOException("Checksum file invalid [SIZENOTFOUND]: " + line.substring(from, sizeEnd));
 			}
 
-			String sizeStr = line.substring(sizeIndex).trim();
-
-			long size;
-			try {
-				size = Long.parseLong(sizeStr.trim());
-			} catch (NumberFormatException e) {
-				throw new IOException("Checksum file invalid [SIZEINVALID]: " + sizeStr + " (line left: " + line + ")", e);
+			long size = 0;
+			for (int i = sizeIndex + 1; i < sizeEnd; i++) {
+				char c = line.charAt(i);
+				if (c < '0' || c > '9' || size > Long.MAX_VALUE / 10) {
+					throw new IOException("Checksum file invalid [SIZEINVALID]: " + line.substring(sizeIndex + 1, sizeEnd) + " (line left: " + line.substring(from, sizeEnd) + ")");
+				}
+				size = size * 10 + (c - '0');
 			}
-			//remove size part
-			line = line.substring(0, sizeIndex).trim();
 
-			String relativePath = line.trim();
+			int pathEnd = sizeIndex;
+			while (pathEnd > from && line.charAt(pathEnd - 1) <= ' ') pathEnd--;
+			String relativePath = line.substring(from, pathEnd);
 
 			ChecksumFileEntry e = new ChecksumFileEntry(size, checksum, relativePath);
 
+			if (versionEntry == null && VERSION_FILE.equals(e.relativePath)) {
+				versionEntry = e;
+				continue;
+			}
 			checksums.add(e);
+			if (onEntry != null) onEntry.accept(e);
 		}
 
 		//put the version file last
-		for (int i = 0; i < checksums.size(); i++) {
-			if ("./version.txt".equals(checksums.get(i).relativePath)) {
-				ChecksumFileEntry remove = checksums.remove(i);
-				checksums.add(remove);
-				break;
-			}
-		}
+		if (versionEntry != null) checksums.add(versionEntry);
 	}
 
 	/* (non-Javadoc)
@@ -83,77 +188,363 @@ public class ChecksumFile {
 	}
 
 	public void download(boolean force, String buildPath, File installDir, String installDirStr, FileDowloadCallback cb) throws NoSuchAlgorithmException, IOException {
+		download(force, buildPath, installDir, installDirStr, cb, null);
+	}
 
-		ArrayList<ChecksumFileEntry> checksumsToDownload = new ArrayList<ChecksumFileEntry>();
-
+	/**
+	 * Brings the install up to date with this build. Every entry is verified, and downloaded if it is stale, while
+	 * the remaining entries are still being verified; given a manifest, this already starts while it is read.
+	 *
+	 * @param buildDir the URL of the build directory, with or without a trailing slash
+	 * @param manifest the manifest of the build to parse into this file while downloading, or null if it was parsed
+	 *                 already
+	 */
+	public void download(boolean force, String buildDir, File installDir, String installDirStr, FileDowloadCallback cb, BufferedReader manifest) throws NoSuchAlgorithmException, IOException {
 		cb.update("Determining files to download... ");
+		// the journal is keyed by the build, so every caller has to name it the same way
+		String buildPath = GameUpdater.normalizeBuildPath(buildDir);
 
-		FileUpdateTotal o = new FileUpdateTotal();
-		float p = 1.0f / checksums.size();
-		float g = 0;
-		for (ChecksumFileEntry e : checksums) {
-			if (force || e.needsDownload(buildPath, installDirStr)) {
-				checksumsToDownload.add(e);
-				o.totalSize += e.size;
+		UpdateJournal journal = UpdateJournal.open(installDir, buildPath, force);
+		CompactManifest installed = force ? null : loadInstalledManifest(installDir);
+		DownloadSession session = new DownloadSession(force, buildPath, installDir, installDirStr, journal, installed, cb);
+		this.session = session;
+		// a cancel that came in before the session existed
+		if (cancelRequested) session.cancel();
+
+		AtomicInteger skipped = new AtomicInteger();
+		List<ForkJoinTask<Void>> verifications = new ArrayList<ForkJoinTask<Void>>();
+		ForkJoinPool verifyPool = new ForkJoinPool(getVerifyParallelism(installDir));
+		// verify local files in parallel, downloads of stale files start while the rest is still being hashed
+		Consumer<ChecksumFileEntry> dispatch = e -> {
+			if (session.cancelled) return;
+			// files the installed build or an interrupted update of this build already has are only checked for changes
+			boolean known = installed != null && installed.contains(e) || journal.isCompleted(e);
+			if (known && (!sanityCheck || session.index.isUnchanged(e.relativePath, new File(installDirStr, e.relativePath), e.checksum))) {
+				skipped.incrementAndGet();
+				return;
+			}
+			verifications.add(verifyPool.submit(() -> {
+				if (session.cancelled) return null;
+				if (force || e.needsDownload(buildPath, installDirStr, session.index)) {
+					journal.planned(e);
+					session.submit(e);
+				} else {
+					journal.verified(e);
+				}
+				return null;
+			}));
+		};
+
+		boolean completed = false;
+		try {
+			// an interrupted update leaves a mix of builds behind, so the manifest only describes complete installs
+			deleteInstalled(installDir);
+			try {
+				if (manifest != null) {
+					parse(manifest, dispatch);
+				} else {
+					for (ChecksumFileEntry e : checksums) {
+						if (!VERSION_FILE.equals(e.relativePath)) dispatch.accept(e);
+					}
+				}
+				for (ForkJoinTask<Void> verification : verifications) verification.get();
+			} catch (ExecutionException e) {
+				session.cancel();
+				if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+				if (e.getCause() instanceof NoSuchAlgorithmException) throw (NoSuchAlgorithmException) e.getCause();
+				throw new IOException("Could not verify local files", e.getCause());
+			} catch (InterruptedException e) {
+				session.cancel();
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Update was interrupted");
+			} catch (IOException | RuntimeException e) {
+				session.cancel();
+				throw e;
+			} finally {
+				verifyPool.shutdown();
+			}
+			verifiedCount = verifications.size();
+			skippedCount = skipped.get();
+			if (skippedCount > 0) System.err.println("[UPDATER] Verified " + verifiedCount + " files, skipped " + skippedCount + " the install already had");
+
+			// the version file is committed last, so an interrupted update never claims the new version
+			ChecksumFileEntry last = checksums.isEmpty() ? null : checksums.get(checksums.size() - 1);
+			ChecksumFileEntry versionEntry = last != null && VERSION_FILE.equals(last.relativePath) ? last : null;
+			session.await();
+			if (versionEntry != null && session.failed.get() == 0 && (force || versionEntry.needsDownload(buildPath, installDirStr, session.index))) {
+				journal.planned(versionEntry);
+				session.submit(versionEntry);
+				session.await();
+			}
+			if (session.stageDir != null && !session.cancelled && session.failed.get() == 0) commit(session);
+			completed = true;
+		} finally {
+			session.scheduler.shutdown();
+			session.index.trySave();
+			journal.close();
+			// a commit that failed after every download succeeded is still a failed update
+			boolean succeeded = completed && !session.cancelled && session.failed.get() == 0;
+			// the install is recorded before the callback is told it is done, which may start the game right away
+			if (succeeded) {
+				journal.delete();
+				try {
+					saveInstalled(installDir);
+				} catch (IOException e) {
+					System.err.println("[UPDATER] Could not save installed manifest: " + e.getMessage());
+				}
 			}
-			//cb.update("Determining files to download... " + (StringTools.formatPointZero(g * p * 100.0f)) + "%  selected " + checksumsToDownload.size() + " / " + checksums.size() + "(" + (o.totalSize / 1024) / 1024 + " MB)");
-			g++;
+			session.progress.stop(succeeded && !session.checksumsToDownload.isEmpty());
+			System.err.println("[UPDATER] HTTP: " + PooledHttpClient.getDefault().getMetrics());
 		}
-		if(checksumsToDownload.isEmpty()) {
+
+		if (session.checksumsToDownload.isEmpty()) {
 			cb.update("Nothing to download");
 			return;
 		}
-		o.startTime = System.currentTimeMillis();
+		int failed = session.failed.get();
+		if (failed > 0) {
+			throw new IOException("Download failed on " + failed + " file" + (failed > 1 ? "s" : "") + "\nplease redownload forced from the options");
+		}
+	}
 
-		ThreadPoolExecutor pool = (ThreadPoolExecutor) Executors.newFixedThreadPool(5);
-		toExecute = checksumsToDownload.size();
-		failed = 0;
-		running.clear();
-		for (int i = 0; i < checksumsToDownload.size(); i++) {
-			ChecksumFileEntry e = checksumsToDownload.get(i);
+	/**
+	 * Moves the staged files into the install, the version file last. Every move is a rename within the install
+	 * directory, so the whole commit takes milliseconds.
+	 * <p>
+	 * The commit is all or nothing: the files it replaces are first moved aside, and if any move fails, the files
+	 * already moved are put back and the staged files stay for the next attempt. Only then are the moved files
+	 * recorded in the hash index and the journal.
+	 */
+	private static void commit(DownloadSession session) throws IOException {
+		long start = System.currentTimeMillis();
+		List<ChecksumFileEntry> staged;
+		synchronized (session.checksumsToDownload) {
+			staged = new ArrayList<ChecksumFileEntry>(session.checksumsToDownload);
+		}
+		// in path order rather than the order the downloads happened to start in, the version file still last
+		staged.sort(Comparator.comparing((ChecksumFileEntry e) -> VERSION_FILE.equals(e.relativePath)).thenComparing(e -> e.relativePath));
+		File backupDir = new File(session.stageDir.getParentFile(), BACKUP_DIR);
+		// left by a commit that was killed halfway, whose files were either all put back or all replaced
+		FileUtil.deleteRecursive(backupDir);
+		for (ChecksumFileEntry e : staged) {
+			File source = new File(session.stageDir, e.relativePath);
+			File dst = new File(session.installDirStr, e.relativePath);
+			if (!source.isFile()) throw new IOException("Staged file " + source.getAbsolutePath() + " is missing");
+			if (dst.isDirectory()) throw new IOException("Could not replace " + dst.getAbsolutePath() + ", it is a directory");
+			if (dst.exists() && !dst.canWrite()) throw new IOException("Could not replace " + dst.getAbsolutePath() + ", it is read-only");
+		}
 
-			e.index = i;
+		List<ChecksumFileEntry> moved = new ArrayList<ChecksumFileEntry>();
+		try {
+			for (ChecksumFileEntry e : staged) {
+				File source = new File(session.stageDir, e.relativePath);
+				File dst = new File(session.installDirStr, e.relativePath);
+				File backup = new File(backupDir, e.relativePath);
+				if (!dst.getParentFile().exists() && !dst.getParentFile().mkdirs()) throw new IOException("Could not create " + dst.getParentFile().getAbsolutePath());
+				if (dst.exists()) {
+					if (!backup.getParentFile().exists() && !backup.getParentFile().mkdirs()) throw new IOException("Could not create " + backup.getParentFile().getAbsolutePath());
+					Files.move(dst.toPath(), backup.toPath(), StandardCopyOption.REPLACE_EXISTING);
+				}
+				try {
+					LocalHashIndex.moveAtomically(source, dst);
+				} catch (IOException e1) {
+					if (backup.exists()) Files.move(backup.toPath(), dst.toPath(), StandardCopyOption.REPLACE_EXISTING);
+					throw e1;
+				}
+				moved.add(e);
+			}
+		} catch (IOException e) {
+			System.err.println("[UPDATER] Commit failed after " + moved.size() + " of " + staged.size() + " files, rolling back: " + e.getMessage());
+			rollback(session, moved, backupDir);
+			throw new IOException("Could not commit the update, the install was left unchanged: " + e.getMessage(), e);
+		}
 
-			synchronized (running) {
-				boolean add = running.add(e);
-//				System.err.println("STARTED: "+e+"; "+running);
-				assert (add);
+		for (ChecksumFileEntry e : moved) {
+			session.index.update(e.relativePath, new File(session.installDirStr, e.relativePath), e.checksum);
+			session.journal.committed(e);
+		}
+		FileUtil.deleteRecursive(backupDir);
+		FileUtil.deleteRecursive(session.stageDir);
+		System.err.println("[UPDATER] Committed " + staged.size() + " staged files in " + (System.currentTimeMillis() - start) + " ms");
+	}
+
+	/**
+	 * Moves committed files back into the staging tree and restores the files they replaced, newest first.
+	 */
+	private static void rollback(DownloadSession session, List<ChecksumFileEntry> moved, File backupDir) {
+		for (int i = moved.size() - 1; i >= 0; i--) {
+			ChecksumFileEntry e = moved.get(i);
+			File source = new File(session.stageDir, e.relativePath);
+			File dst = new File(session.installDirStr, e.relativePath);
+			File backup = new File(backupDir, e.relativePath);
+			try {
+				Files.move(dst.toPath(), source.toPath(), StandardCopyOption.REPLACE_EXISTING);
+				if (backup.exists()) Files.move(backup.toPath(), dst.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			} catch (IOException e1) {
+				// the hash index notices the mismatch, so the next update downloads the file again
+				System.err.println("[UPDATER] Could not roll back " + e.relativePath + ": " + e1.getMessage());
 			}
-			pool.execute(new Runnable() {
+		}
+	}
 
-				@Override
-				public void run() {
+	/**
+	 * Cancels a running {@link #download}. Files that are still being downloaded are aborted with their next chunk,
+	 * and the download throws an {@link InterruptedIOException}. A download that has not started yet is cancelled as
+	 * soon as it starts.
+	 */
+	public void cancel() {
+		cancelRequested = true;
+		DownloadSession session = this.session;
+		if (session != null) session.cancel();
+	}
 
-					try {
-						o.index = e.index;
-						o.total = checksumsToDownload.size();
-						e.download(force, buildPath, installDir, installDirStr, cb, o);
-					} catch (Exception e1) {
-						e1.printStackTrace();
-						failed++;
-					}
-					synchronized (running) {
-						boolean remove = running.remove(e);
-//						System.err.println("FINISHED: "+e);
-						assert (remove);
-					}
-					toExecute--;
+	/**
+	 * @return the number of local files the last download hashed or checked for existence
+	 */
+	int getVerifiedCount() {
+		return verifiedCount;
+	}
+
+	/**
+	 * @return the number of local files the last download skipped because the install already had them
+	 */
+	int getSkippedCount() {
+		return skippedCount;
+	}
+
+	/**
+	 * State of a single {@link #download} run.
+	 */
+	private final class DownloadSession {
+		final boolean force;
+		final String buildPath;
+		final File installDir;
+		final String installDirStr;
+		final LocalHashIndex index;
+		final File stageDir;
+		final UpdateJournal journal;
+		final CompactManifest installed;
+		final MirrorSelector mirrors;
+		final CompletableFuture<Void> mirrorsProbed;
+		final DownloadProgress progress;
+		final DownloadScheduler scheduler;
+		final List<ChecksumFileEntry> checksumsToDownload = new ArrayList<ChecksumFileEntry>();
+		final List<CompletableFuture<DownloadResult>> downloads = new ArrayList<CompletableFuture<DownloadResult>>();
+		final List<DownloadResult> results = Collections.synchronizedList(new ArrayList<DownloadResult>());
+		final AtomicInteger failed = new AtomicInteger();
+		volatile boolean cancelled;
+
+		DownloadSession(boolean force, String buildPath, File installDir, String installDirStr, UpdateJournal journal, CompactManifest installed, FileDowloadCallback cb) {
+			this.force = force;
+			this.buildPath = buildPath;
+			this.installDir = installDir;
+			this.installDirStr = installDirStr;
+			this.index = LocalHashIndex.load(installDir);
+			this.stageDir = staged ? new File(new File(installDir, LocalHashIndex.LAUNCHER_DIR), STAGING_DIR) : null;
+			this.journal = journal;
+			this.installed = installed;
+			ContentStore store = ContentStore.getDefault();
+			if (store != null) {
+				try {
+					store.registerInstall(installDir);
+				} catch (IOException e) {
+					System.err.println("[UPDATER] Could not register install in the content store: " + e.getMessage());
 				}
-			});
+			}
+			this.mirrors = MirrorSelector.forBuild(buildPath);
+			// probing runs while local files are verified, only the first download waits for it
+			this.mirrorsProbed = CompletableFuture.runAsync(mirrors::probe);
+			this.progress = new DownloadProgress(cb);
+			this.scheduler = new DownloadScheduler(progress::getCurrentSize);
+			progress.start();
+		}
 
+		void submit(ChecksumFileEntry e) {
+			synchronized (checksumsToDownload) {
+				e.index = checksumsToDownload.size();
+				checksumsToDownload.add(e);
+			}
+			progress.queued(e.size);
+			synchronized (downloads) {
+				if (cancelled) return;
+				downloads.add(CompletableFuture.supplyAsync(() -> run(e), scheduler.laneFor(e.size)));
+			}
 		}
 
-		while (toExecute > 0) {
+		private DownloadResult run(ChecksumFileEntry e) {
+			long start = System.currentTimeMillis();
+			Exception error = null;
 			try {
-				Thread.sleep(300);
-			} catch (InterruptedException e1) {
-				e1.printStackTrace();
+				mirrorsProbed.join();
+				e.download(force, mirrors, installDir, installDirStr, index, progress, stageDir, installed);
+				if (stageDir == null) journal.committed(e);
+				progress.finished();
+			} catch (Exception e1) {
+				error = e1;
+				if (!cancelled) {
+					e1.printStackTrace();
+					failed.incrementAndGet();
+				}
 			}
+			DownloadResult result = new DownloadResult(e, error, System.currentTimeMillis() - start);
+			results.add(result);
+			scheduler.completed(result);
+			return result;
 		}
-		if (failed > 0) {
-			throw new IOException("Download failed on " + failed + " file" + (failed > 1 ? "s" : "") + "\nplease redownload forced from the options");
+
+		/**
+		 * Blocks until every submitted download finished.
+		 */
+		void await() throws InterruptedIOException {
+			CompletableFuture<?>[] pending;
+			synchronized (downloads) {
+				pending = downloads.toArray(new CompletableFuture<?>[0]);
+			}
+			try {
+				CompletableFuture.allOf(pending).join();
+			} catch (CancellationException | CompletionException e) {
+				if (!cancelled) throw e;
+			}
+			if (cancelled) throw new InterruptedIOException("Update was cancelled");
+		}
+
+		void cancel() {
+			synchronized (downloads) {
+				cancelled = true;
+				scheduler.shutdownNow();
+				for (CompletableFuture<DownloadResult> future : downloads) future.cancel(true);
+			}
+		}
+	}
+
+	/**
+	 * Hashing is CPU bound on solid state drives, but concurrent reads make a spinning disk seek back and forth.
+	 *
+	 * @return the number of threads to verify local files in the given directory with
+	 */
+	static int getVerifyParallelism(File installDir) {
+		int cores = Runtime.getRuntime().availableProcessors();
+		return isRotational(installDir) ? Math.min(2, cores) : cores;
+	}
+
+	private static boolean isRotational(File dir) {
+		// only linux exposes this, every other system is assumed to be on an ssd
+		try {
+			File existing = dir.getAbsoluteFile();
+			while (existing != null && !existing.exists()) existing = existing.getParentFile();
+			if (existing == null) return false;
+
+			String device = Files.getFileStore(existing.toPath()).name();
+			if (!device.startsWith("/dev/")) return false;
+
+			File block = new File("/sys/class/block/" + device.substring(5)).getCanonicalFile();
+			File rotational = new File(block, "queue/rotational");
+			if (!rotational.exists()) rotational = new File(block.getParentFile(), "queue/rotational"); // partition
+			if (!rotational.exists()) return false;
+			return "1".equals(new String(Files.readAllBytes(rotational.toPath()), StandardCharsets.US_ASCII).trim());
+		} catch (IOException | RuntimeException e) {
+			return false;
 		}
-		pool.shutdown();
 	}
 
 }
@@ -1,11 +1,24 @@
 package smlauncher.starmade;
 
+import smlauncher.http.HttpResponse;
+import smlauncher.http.PooledHttpClient;
+
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
 
 public class ChecksumFileEntry {
+	private static final int MAX_ATTEMPTS = 3;
 	public final long size;
 	public final String checksum;
 	public final String relativePath;
@@ -14,17 +27,34 @@ public class ChecksumFileEntry {
 	public ChecksumFileEntry(long size, String checksum, String relativePath) {
 		this.size = size;
 		this.checksum = checksum;
-		this.relativePath = relativePath.replaceFirst("\\.", "");
+		this.relativePath = stripDot(relativePath);
+	}
+
+	/**
+	 * Drops the first dot of a manifest path, turning {@code ./data} into {@code /data}.
+	 */
+	private static String stripDot(String path) {
+		int dot = path.indexOf('.');
+		if (dot < 0) return path;
+		if (dot == 0) return path.substring(1);
+		return path.substring(0, dot) + path.substring(dot + 1);
 	}
 
 	public boolean needsDownload(String buildPath, String installDirStr) throws NoSuchAlgorithmException, IOException {
-		String sourceFilePath = buildPath + relativePath;
+		return needsDownload(buildPath, installDirStr, null);
+	}
 
+	/**
+	 * Checks if the local copy of this file is missing or differs from the remote one.
+	 *
+	 * @param hashIndex the hash index of the install dir to look up unchanged files in, or null to always hash the file
+	 */
+	public boolean needsDownload(String buildPath, String installDirStr, LocalHashIndex hashIndex) throws NoSuchAlgorithmException, IOException {
 		File dst = new File(installDirStr, relativePath);
 
 		boolean replace = false;
 		if (dst.exists()) {
-			String localChecksum = FileUtil.getSha1Checksum(dst.getAbsolutePath());
+			String localChecksum = hashIndex != null ? hashIndex.getChecksum(relativePath, dst) : FileUtil.getSha1Checksum(dst.getAbsolutePath());
 			replace = !localChecksum.equals(checksum);
 			if (replace) {
 				System.err.println("[UPDATER] Checksum Differs for " + relativePath + ": " + localChecksum + " :: " + checksum);
@@ -33,99 +63,214 @@ public class ChecksumFileEntry {
 			}
 		} else {
 			System.err.println("[UPDATER] Does Not Exist " + dst.getAbsolutePath() + ": Downloading");
+			if (hashIndex != null) hashIndex.remove(relativePath);
 			replace = true;
 		}
 		return replace;
 	}
 
-	public void download(boolean force, String buildPath, File installDir, String installDirStr, FileDowloadCallback cb, FileUpdateTotal o) throws NoSuchAlgorithmException, IOException {
-		String sourceFilePath = buildPath + relativePath;
+	/**
+	 * Downloads this file from one of the build's mirrors. The content is hashed while it arrives and only replaces
+	 * the local file if it matches the checksum. If a mirror fails or serves a corrupt file, the file is downloaded
+	 * again right away, from the next mirror if there is one. A {@code .filepart} left by an interrupted update is
+	 * resumed instead of downloaded again. With a {@link ContentStore}, files another install already has are linked
+	 * from the store instead, and downloaded files are added to it. Large files that changed are patched from their
+	 * local version when the mirror has a {@link DeltaPatch} for it, see
+	 * {@link #download(boolean, MirrorSelector, File, String, LocalHashIndex, DownloadProgress, File, CompactManifest)}.
+	 */
+	public void download(boolean force, MirrorSelector mirrors, File installDir, String installDirStr, LocalHashIndex hashIndex, DownloadProgress progress) throws NoSuchAlgorithmException, IOException {
+		download(force, mirrors, installDir, installDirStr, hashIndex, progress, null, null);
+	}
+
+	/**
+	 * Downloads this file like {@link #download(boolean, MirrorSelector, File, String, LocalHashIndex, DownloadProgress)},
+	 * optionally into a staging tree instead of the install, leaving the local file in place. A staged file that
+	 * already has the right checksum, left by an earlier update that failed to commit, is kept.
+	 *
+	 * @param stageDir  the staging tree to place the file in, or null to replace the local file directly. Staged
+	 *                  files are not added to the hash index; that happens when they are moved into the install.
+	 * @param installed the manifest of the installed build, or null. Patches are only published against released
+	 *                  builds, so a patch is only asked for when the local file is the one this manifest lists;
+	 *                  for modded or corrupt files the request could only fail.
+	 */
+	public void download(boolean force, MirrorSelector mirrors, File installDir, String installDirStr, LocalHashIndex hashIndex, DownloadProgress progress, File stageDir, CompactManifest installed) throws NoSuchAlgorithmException, IOException {
 		File dst = new File(installDirStr, relativePath);
+		File target = stageDir != null ? new File(stageDir, relativePath) : dst;
 
-//		File dst = destFilePath;//new File(destFilePath);
+		boolean replace = needsDownload(null, installDirStr, hashIndex) || force;
+		// a forced update doesn't trust the local file enough to patch it
+		String localChecksum = null;
+		if (replace && !force && installed != null && size >= DeltaPatch.MIN_SIZE && dst.exists()) {
+			int i = installed.indexOf(relativePath);
+			String checksum = i >= 0 ? hashIndex.getChecksum(relativePath, dst) : null;
+			if (checksum != null && installed.hasChecksum(i, checksum)) localChecksum = checksum;
+		}
 
-		System.err.println("Downloading " + sourceFilePath + " -> " + dst.getAbsolutePath());
+		if (!target.getParentFile().exists()) {
+			System.err.println("Creating path: " + target.getParentFile().getAbsolutePath());
+		}
 
-		boolean replace = needsDownload(buildPath, installDirStr) || force;
+		target.getParentFile().mkdirs();
 
-		if (dst.exists() && replace) {
+		DownloadProgress.FileProgress fileProgress = progress.started(dst.getName(), size);
+		if (stageDir != null && target.exists() && checksum.equals(FileUtil.getSha1Checksum(target))) {
+			System.err.println("[UPDATER] " + relativePath + " is already staged");
+			fileProgress.downloaded(size, size);
+			return;
+		}
+		ContentStore store = ContentStore.getDefault();
+		if (store != null && store.linkInto(checksum, size, target)) {
+			System.err.println("[UPDATER] Took " + relativePath + " from the content store");
+			fileProgress.downloaded(size, size);
+			finished(target, stageDir, hashIndex, null);
+			return;
+		}
+		if (localChecksum != null && patch(mirrors, dst, target, localChecksum, fileProgress)) {
+			finished(target, stageDir, hashIndex, store);
+			return;
+		}
+
+		if (stageDir == null && dst.exists() && replace) {
 			if (!dst.delete()) {
 				throw new IOException("File " + dst.getAbsolutePath() + " could not be removed! Is it still in use?");
 			}
 		}
-		if (!dst.getParentFile().exists()) {
-			System.err.println("Creating path: " + dst.getParentFile().getAbsolutePath());
-		}
 
-		dst.getParentFile().mkdirs();
+		File file = new File(target.getAbsolutePath() + ".filepart");
+		MessageDigest digest = MessageDigest.getInstance("SHA1");
+		List<MirrorSelector.Mirror> tried = new ArrayList<MirrorSelector.Mirror>();
+		IOException lastError = null;
+		int attempts = Math.max(MAX_ATTEMPTS, mirrors.size());
+		for (int attempt = 0; attempt < attempts; attempt++) {
+			MirrorSelector.Mirror mirror = mirrors.select(tried);
+			if (mirror == null) {
+				// every mirror failed once, give them another chance
+				tried.clear();
+				mirror = mirrors.select(tried);
+				if (mirror == null) break;
+			}
+			tried.add(mirror);
+			String sourceFilePath = mirrors.getFileUrl(mirror, relativePath);
+			System.err.println("Downloading " + sourceFilePath + " -> " + target.getAbsolutePath());
+			long start = System.currentTimeMillis();
+			try {
+				String downloadedChecksum = downloadFrom(sourceFilePath, file, fileProgress, digest);
+				if (!downloadedChecksum.equals(checksum)) {
+					// the part may be left from another build, so none of it can be trusted
+					file.delete();
+					throw new IOException("Checksum of downloaded " + relativePath + " differs: " + downloadedChecksum + " :: " + checksum);
+				}
+				mirrors.reportSuccess(mirror, size, System.currentTimeMillis() - start);
+			} catch (IOException e) {
+				if (Thread.currentThread().isInterrupted()) throw e;
+				System.err.println("[UPDATER] Download of " + relativePath + " from " + mirror + " failed: " + e.getMessage());
+				mirrors.reportFailure(mirror);
+				fileProgress.discard();
+				lastError = e;
+				continue;
+			}
 
-		String name = dst.getName();
+			if (stageDir != null) Files.deleteIfExists(target.toPath());
+			if (!file.renameTo(target)) {
+				throw new IOException("File " + file.getAbsolutePath() + " could not be renamed to " + target.getName());
+			}
+			finished(target, stageDir, hashIndex, store);
+			return;
+		}
+		// a part left after network errors is resumed by the next update
+		throw lastError != null ? lastError : new IOException("No mirror available to download " + relativePath);
+	}
+
+	/**
+	 * Records a verified file in the content store and, unless it is only staged, in the hash index.
+	 */
+	private void finished(File target, File stageDir, LocalHashIndex hashIndex, ContentStore store) throws IOException {
+		if (store != null) store.add(checksum, target);
+		if (stageDir != null) return;
+		hashIndex.update(relativePath, target, checksum);
+		hashIndex.saveIfDue();
+	}
 
-		File file = new File(dst.getAbsolutePath() + ".filepart");
-		//remove file part
-		file.delete();
-		//		final long[] update = new long[2];
-		FileDownloadUpdate e = new FileDownloadUpdate();
+	/**
+	 * Patches the local file into this one, with the patch from the fastest mirror.
+	 *
+	 * @param target        the file to write the result to, which may be the local file itself
+	 * @param localChecksum the hex encoded checksum of the local file
+	 * @return true if the target was replaced by the patched file, false if it should be downloaded in full
+	 */
+	private boolean patch(MirrorSelector mirrors, File dst, File target, String localChecksum, DownloadProgress.FileProgress fileProgress) throws IOException {
+		MirrorSelector.Mirror mirror = mirrors.select(Collections.<MirrorSelector.Mirror>emptyList());
+		if (mirror == null) return false;
+		String patchUrl = DeltaPatch.getPatchUrl(mirrors.getFileUrl(mirror, relativePath), localChecksum);
+		File patched = new File(target.getAbsolutePath() + ".patched");
 		try {
-			FileUtil.copyURLToFile(FileUtil.convertToURLEscapingIllegalCharacters(sourceFilePath), file, 50000, 50000, new DownloadCallback() {
+			try (HttpResponse response = PooledHttpClient.getDefault().get(FileUtil.convertToURLEscapingIllegalCharacters(patchUrl), PooledHttpClient.ACCEPT_GZIP)) {
+				if (response.getStatus() == 404) {
+					System.err.println("[UPDATER] No patch for " + relativePath + " from " + localChecksum + ", downloading it in full");
+					return false;
+				}
+				response.requireSuccess();
+				System.err.println("Patching " + dst.getAbsolutePath() + " with " + patchUrl);
+				MessageDigest digest = MessageDigest.getInstance("SHA1");
+				DeltaPatch.apply(response.getDecodedBody(), dst, patched, digest, new DownloadCallback() {
 
-				@Override
-				public void doneDownloading() {
-					int s = Integer.MAX_VALUE;
-					synchronized (ChecksumFile.running) {
-						for (ChecksumFileEntry en : ChecksumFile.running) {
-							s = Math.min(en.index, s);
-						}
+					@Override
+					public void doneDownloading() {
 					}
-					if (s == index) {
-						cb.done(e);
-					} else {
 
-//						System.err.println(s+" INDNN "+index+": "+ChecksumFile.running);
+					@Override
+					public void downloaded(long size, long diff) {
+						if (Thread.currentThread().isInterrupted()) {
+							throw new CancellationException("Download of " + relativePath + " was cancelled");
+						}
+						fileProgress.downloaded(size, diff);
 					}
+				});
+				String patchedChecksum = FileHasher.get().toHex(digest.digest());
+				if (!patchedChecksum.equals(checksum)) {
+					throw new IOException("Checksum of patched " + relativePath + " differs: " + patchedChecksum + " :: " + checksum);
 				}
+			}
+			Files.move(patched.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			return true;
+		} catch (IOException | URISyntaxException | NoSuchAlgorithmException e) {
+			if (Thread.currentThread().isInterrupted()) throw new InterruptedIOException("Download of " + relativePath + " was interrupted");
+			System.err.println("[UPDATER] Patching " + relativePath + " failed: " + e.getMessage() + ", downloading it in full");
+			fileProgress.discard();
+			return false;
+		} finally {
+			patched.delete();
+		}
+	}
 
-				@Override
-				public void downloaded(long size, long diff) {
-
-					o.lastSpeedSize += diff;
-
-					o.currentSize += diff;
-					e.downloaded = size;
-					e.size = ChecksumFileEntry.this.size;
-					e.fileName = name;
-					e.index = o.index;
-					e.total = o.total;
-					e.totalSize = o.totalSize;
-					e.currentSize = o.currentSize;
-
-					long diffTime = System.currentTimeMillis() - o.startTime;
-					if (diffTime / 200 > 1) {
-						double secs = diffTime / 200.0d;
-
-						o.downloadSpeed = o.lastSpeedSize / secs;
-						o.lastSpeedSize = 0;
-						o.startTime = System.currentTimeMillis();
+	/**
+	 * Large files are fetched in segments unless a part of them is left to resume.
+	 *
+	 * @return the hex encoded checksum of the downloaded file
+	 */
+	private String downloadFrom(String sourceFilePath, File file, DownloadProgress.FileProgress fileProgress, MessageDigest digest) throws IOException {
+		try {
+			URL source = FileUtil.convertToURLEscapingIllegalCharacters(sourceFilePath);
+			DownloadCallback cb = new DownloadCallback() {
 
-					}
-					e.downloadSpeed = o.downloadSpeed;
+				@Override
+				public void doneDownloading() {
+				}
 
-					int s = Integer.MAX_VALUE;
-					synchronized (ChecksumFile.running) {
-						for (ChecksumFileEntry en : ChecksumFile.running) {
-							s = Math.min(en.index, s);
-						}
-					}
-					if (s == index) {
-//						System.err.println("INDNN "+index+": "+ChecksumFile.running);
-						cb.update(e);
-					} else {
-//						System.err.println(s+" INDNN "+index+": "+ChecksumFile.running);
+				@Override
+				public void downloaded(long size, long diff) {
+					if (Thread.currentThread().isInterrupted()) {
+						throw new CancellationException("Download of " + relativePath + " was cancelled");
 					}
+					fileProgress.downloaded(size, diff);
 				}
-			}, "dev", "dev", true);
-
-			file.renameTo(dst);
+			};
+			SegmentedDownloader segmented = SegmentedDownloader.getDefault();
+			if (segmented.isSegmented(size) && !file.exists()) {
+				return FileHasher.get().toHex(segmented.download(source, file, size, cb));
+			}
+			FileUtil.copyURLToFile(source, file, 50000, 50000, cb, "dev", "dev", true, digest);
+			return FileHasher.get().toHex(digest.digest());
 		} catch (URISyntaxException e1) {
 			e1.printStackTrace();
 			throw new IOException(e1);
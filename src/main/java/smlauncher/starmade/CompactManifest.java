@@ -0,0 +1,358 @@
+package smlauncher.starmade;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+/**
+ * Read-only checksum manifest kept in a handful of flat arrays instead of an object per entry.
+ * <p>
+ * Checksums are stored as 20 raw bytes, file names as UTF-8 in one shared buffer, and every directory is stored
+ * once and referenced by index, so a manifest of a whole build takes roughly a third of the heap of the equivalent
+ * {@link ChecksumFile}. It is parsed in a single pass over the raw bytes, without regular expressions or a string
+ * per line, and answers lookups by path through an open addressing table. Entries keep the order of the file and
+ * the path form of {@link ChecksumFileEntry#relativePath}.
+ */
+public final class CompactManifest {
+
+	private static final int SHA1_LENGTH = 20;
+	private static final byte[] HEX_VALUES = new byte[256];
+
+	static {
+		Arrays.fill(HEX_VALUES, (byte) -1);
+		for (int c = '0'; c <= '9'; c++) HEX_VALUES[c] = (byte) (c - '0');
+		for (int c = 'a'; c <= 'f'; c++) HEX_VALUES[c] = (byte) (c - 'a' + 10);
+		for (int c = 'A'; c <= 'F'; c++) HEX_VALUES[c] = (byte) (c - 'A' + 10);
+	}
+
+	private int count;
+	private long[] sizes;
+	private byte[] hashes;
+	private int[] directories;
+	private int[] nameStarts;
+	private byte[] names;
+	private String[] directoryNames = new String[64];
+	private byte[][] directoryBytes = new byte[64][];
+	private int directoryCount;
+	private int[] directoryTable = new int[128];
+	private int[] pathTable;
+
+	/**
+	 * @param capacity the expected number of entries
+	 * @param nameBytes the expected combined length of the file names
+	 */
+	private CompactManifest(int capacity, int nameBytes) {
+		sizes = new long[capacity];
+		hashes = new byte[capacity * SHA1_LENGTH];
+		directories = new int[capacity];
+		nameStarts = new int[capacity + 1];
+		names = new byte[nameBytes];
+	}
+
+	/**
+	 * Reads and parses a manifest file.
+	 */
+	public static CompactManifest read(File file) throws IOException {
+		byte[] data = Files.readAllBytes(file.toPath());
+		return parse(data, 0, data.length);
+	}
+
+	/**
+	 * Reads a manifest to the end and parses it.
+	 */
+	public static CompactManifest parse(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(1 << 16);
+		byte[] buffer = new byte[1 << 16];
+		for (int n; (n = in.read(buffer)) != -1; ) out.write(buffer, 0, n);
+		byte[] data = out.toByteArray();
+		return parse(data, 0, data.length);
+	}
+
+	/**
+	 * Parses manifest lines of the form {@code ./path/to/file <size> <sha1>}. Paths may contain spaces.
+	 *
+	 * @throws IOException if a line is malformed
+	 */
+	public static CompactManifest parse(byte[] data, int offset, int length) throws IOException {
+		// lines of real manifests are around a hundred bytes, a quarter of them the file name
+		CompactManifest manifest = new CompactManifest(Math.max(16, length / 80), Math.max(256, length / 4));
+		byte[] path = new byte[256];
+		int end = offset + length;
+		for (int lineStart = offset; lineStart < end; ) {
+			int lineEnd = lineStart;
+			while (lineEnd < end && data[lineEnd] != '\n') lineEnd++;
+			int next = lineEnd + 1;
+
+			int from = lineStart;
+			int to = lineEnd;
+			while (from < to && isSpace(data[from])) from++;
+			while (to > from && isSpace(data[to - 1])) to--;
+			if (from == to) {
+				lineStart = next;
+				continue;
+			}
+
+			int hashStart = lastSpace(data, from, to) + 1;
+			if (hashStart == 0) throw invalid("CHECKSUMNOTFOUND", data, from, to);
+			int sizeEnd = hashStart - 1;
+			while (sizeEnd > from && isSpace(data[sizeEnd - 1])) sizeEnd--;
+			int sizeStart = lastSpace(data, from, sizeEnd) + 1;
+			if (sizeStart == 0) throw invalid("SIZENOTFOUND", data, from, sizeEnd);
+			int pathEnd = sizeStart - 1;
+			while (pathEnd > from && isSpace(data[pathEnd - 1])) pathEnd--;
+
+			// same as the entries' constructor: the first dot is dropped, turning ./data into /data
+			int pathLength = pathEnd - from;
+			if (path.length < pathLength) path = new byte[pathLength * 2];
+			int dot = from;
+			while (dot < pathEnd && data[dot] != '.') dot++;
+			System.arraycopy(data, from, path, 0, dot - from);
+			if (dot < pathEnd) {
+				System.arraycopy(data, dot + 1, path, dot - from, pathEnd - dot - 1);
+				pathLength--;
+			}
+
+			manifest.add(path, pathLength, parseSize(data, sizeStart, sizeEnd, from, to), data, hashStart, to, from);
+			lineStart = next;
+		}
+		manifest.buildPathTable();
+		return manifest;
+	}
+
+	public int size() {
+		return count;
+	}
+
+	public long getSize(int i) {
+		return sizes[i];
+	}
+
+	/**
+	 * @return the path of an entry relative to the install directory, starting with {@code /}
+	 */
+	public String getPath(int i) {
+		return directoryNames[directories[i]] + getName(i);
+	}
+
+	/**
+	 * @return the directory part of an entry's path including the trailing {@code /}, the same instance for all
+	 * entries of a directory
+	 */
+	public String getDirectory(int i) {
+		return directoryNames[directories[i]];
+	}
+
+	public String getName(int i) {
+		return new String(names, nameStarts[i], nameStarts[i + 1] - nameStarts[i], StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @return the SHA-1 checksum of an entry, hex encoded
+	 */
+	public String getChecksum(int i) {
+		return FileHasher.get().toHex(Arrays.copyOfRange(hashes, i * SHA1_LENGTH, (i + 1) * SHA1_LENGTH));
+	}
+
+	/**
+	 * @return whether an entry has the given hex encoded checksum
+	 */
+	public boolean hasChecksum(int i, String checksum) {
+		if (checksum.length() != SHA1_LENGTH * 2) return false;
+		int base = i * SHA1_LENGTH;
+		for (int b = 0; b < SHA1_LENGTH; b++) {
+			int high = Character.digit(checksum.charAt(b * 2), 16);
+			int low = Character.digit(checksum.charAt(b * 2 + 1), 16);
+			if (high < 0 || low < 0 || (byte) (high << 4 | low) != hashes[base + b]) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @param relativePath a path in the form of {@link ChecksumFileEntry#relativePath}
+	 * @return the index of the entry with that path, or -1
+	 */
+	public int indexOf(String relativePath) {
+		int slash = relativePath.lastIndexOf('/');
+		byte[] dir = relativePath.substring(0, slash + 1).getBytes(StandardCharsets.UTF_8);
+		int directory = findDirectory(dir, dir.length, hash(dir, 0, dir.length));
+		if (directory < 0) return -1;
+		byte[] name = relativePath.substring(slash + 1).getBytes(StandardCharsets.UTF_8);
+		int mask = pathTable.length - 1;
+		for (int slot = pathHash(directory, hash(name, 0, name.length)) & mask; pathTable[slot] != 0; slot = (slot + 1) & mask) {
+			int i = pathTable[slot] - 1;
+			if (directories[i] == directory && nameEquals(i, name)) return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * @return whether this manifest has a file at the path of the entry with the same size and checksum
+	 */
+	public boolean contains(ChecksumFileEntry e) {
+		int i = indexOf(e.relativePath);
+		return i >= 0 && sizes[i] == e.size && hasChecksum(i, e.checksum);
+	}
+
+	/**
+	 * @return the entry at the given index as the object the updater works with
+	 */
+	public ChecksumFileEntry getEntry(int i) {
+		return new ChecksumFileEntry(sizes[i], getChecksum(i), "." + getPath(i));
+	}
+
+	/**
+	 * Expands this manifest into a {@link ChecksumFile}, the version file last as {@link ChecksumFile#parse} does.
+	 */
+	public ChecksumFile toChecksumFile() {
+		ChecksumFile file = new ChecksumFile();
+		file.checksums.ensureCapacity(count);
+		ChecksumFileEntry versionEntry = null;
+		for (int i = 0; i < count; i++) {
+			ChecksumFileEntry e = getEntry(i);
+			if (versionEntry == null && ChecksumFile.VERSION_FILE.equals(e.relativePath)) versionEntry = e;
+			else file.checksums.add(e);
+		}
+		if (versionEntry != null) file.checksums.add(versionEntry);
+		return file;
+	}
+
+	private void add(byte[] path, int pathLength, long size, byte[] data, int hashStart, int hashEnd, int lineStart) throws IOException {
+		if (count == sizes.length) {
+			int capacity = count * 2;
+			sizes = Arrays.copyOf(sizes, capacity);
+			hashes = Arrays.copyOf(hashes, capacity * SHA1_LENGTH);
+			directories = Arrays.copyOf(directories, capacity);
+			nameStarts = Arrays.copyOf(nameStarts, capacity + 1);
+		}
+		if (hashEnd - hashStart != SHA1_LENGTH * 2) throw invalid("CHECKSUMINVALID", data, lineStart, hashEnd);
+		int base = count * SHA1_LENGTH;
+		for (int b = 0; b < SHA1_LENGTH; b++) {
+			int high = HEX_VALUES[data[hashStart + b * 2] & 0xff];
+			int low = HEX_VALUES[data[hashStart + b * 2 + 1] & 0xff];
+			if ((high | low) < 0) throw invalid("CHECKSUMINVALID", data, lineStart, hashEnd);
+			hashes[base + b] = (byte) (high << 4 | low);
+		}
+
+		int slash = pathLength - 1;
+		while (slash >= 0 && path[slash] != '/') slash--;
+		int dirLength = slash + 1;
+		int nameLength = pathLength - dirLength;
+		int nameStart = nameStarts[count];
+		if (names.length < nameStart + nameLength) names = Arrays.copyOf(names, Math.max(names.length * 2, nameStart + nameLength));
+		System.arraycopy(path, dirLength, names, nameStart, nameLength);
+
+		sizes[count] = size;
+		directories[count] = internDirectory(path, dirLength);
+		nameStarts[count + 1] = nameStart + nameLength;
+		count++;
+	}
+
+	private int internDirectory(byte[] dir, int length) {
+		// manifests list a directory's files together, so most entries share the directory of the one before
+		if (count > 0) {
+			byte[] previous = directoryBytes[directories[count - 1]];
+			if (previous.length == length && regionEquals(previous, dir, 0, length)) return directories[count - 1];
+		}
+		int hash = hash(dir, 0, length);
+		int found = findDirectory(dir, length, hash);
+		if (found >= 0) return found;
+
+		if (directoryCount == directoryNames.length) {
+			directoryNames = Arrays.copyOf(directoryNames, directoryCount * 2);
+			directoryBytes = Arrays.copyOf(directoryBytes, directoryCount * 2);
+		}
+		directoryBytes[directoryCount] = Arrays.copyOf(dir, length);
+		directoryNames[directoryCount] = new String(dir, 0, length, StandardCharsets.UTF_8);
+		directoryCount++;
+		if (directoryCount * 2 > directoryTable.length) {
+			directoryTable = new int[directoryTable.length * 2];
+			for (int d = 0; d < directoryCount; d++) insert(directoryTable, hash(directoryBytes[d], 0, directoryBytes[d].length), d);
+		} else {
+			insert(directoryTable, hash, directoryCount - 1);
+		}
+		return directoryCount - 1;
+	}
+
+	private int findDirectory(byte[] dir, int length, int hash) {
+		int mask = directoryTable.length - 1;
+		for (int slot = hash & mask; directoryTable[slot] != 0; slot = (slot + 1) & mask) {
+			byte[] candidate = directoryBytes[directoryTable[slot] - 1];
+			if (candidate.length == length && regionEquals(candidate, dir, 0, length)) return directoryTable[slot] - 1;
+		}
+		return -1;
+	}
+
+	private void buildPathTable() {
+		// the arrays were sized by estimate, don't keep the slack around for the lifetime of the manifest
+		if (sizes.length > count + count / 8) {
+			sizes = Arrays.copyOf(sizes, count);
+			hashes = Arrays.copyOf(hashes, count * SHA1_LENGTH);
+			directories = Arrays.copyOf(directories, count);
+			nameStarts = Arrays.copyOf(nameStarts, count + 1);
+		}
+		if (names.length > nameStarts[count] + nameStarts[count] / 8) names = Arrays.copyOf(names, nameStarts[count]);
+		int capacity = Integer.highestOneBit(Math.max(count, 1) * 2 - 1) << 1;
+		pathTable = new int[capacity];
+		for (int i = 0; i < count; i++) {
+			insert(pathTable, pathHash(directories[i], hash(names, nameStarts[i], nameStarts[i + 1])), i);
+		}
+	}
+
+	private boolean nameEquals(int i, byte[] name) {
+		return nameStarts[i + 1] - nameStarts[i] == name.length && regionEquals(name, names, nameStarts[i], name.length);
+	}
+
+	private static void insert(int[] table, int hash, int index) {
+		int mask = table.length - 1;
+		int slot = hash & mask;
+		while (table[slot] != 0) slot = (slot + 1) & mask;
+		table[slot] = index + 1;
+	}
+
+	private static boolean regionEquals(byte[] a, byte[] b, int bOffset, int length) {
+		for (int k = 0; k < length; k++) {
+			if (a[k] != b[bOffset + k]) return false;
+		}
+		return true;
+	}
+
+	private static int hash(byte[] data, int from, int to) {
+		int h = 0x811c9dc5;
+		for (int k = from; k < to; k++) h = (h ^ data[k]) * 0x01000193;
+		return h ^ (h >>> 16);
+	}
+
+	private static int pathHash(int directory, int nameHash) {
+		int h = nameHash + directory * 0x9e3779b9;
+		return h ^ (h >>> 15);
+	}
+
+	private static long parseSize(byte[] data, int from, int to, int lineStart, int lineEnd) throws IOException {
+		long size = 0;
+		for (int k = from; k < to; k++) {
+			int digit = data[k] - '0';
+			if (digit < 0 || digit > 9 || size > (Long.MAX_VALUE - digit) / 10) throw invalid("SIZEINVALID", data, lineStart, lineEnd);
+			size = size * 10 + digit;
+		}
+		return size;
+	}
+
+	private static int lastSpace(byte[] data, int from, int to) {
+		for (int k = to - 1; k >= from; k--) {
+			if (isSpace(data[k])) return k;
+		}
+		return -1;
+	}
+
+	private static boolean isSpace(byte b) {
+		return b == ' ' || b == '\t' || b == '\r';
+	}
+
+	private static IOException invalid(String reason, byte[] data, int from, int to) {
+		return new IOException("Checksum file invalid [" + reason + "]: " + new String(data, from, to - from, StandardCharsets.UTF_8));
+	}
+}
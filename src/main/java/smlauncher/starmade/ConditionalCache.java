@@ -0,0 +1,151 @@
+package smlauncher.starmade;
+
+import smlauncher.http.HttpResponse;
+import smlauncher.http.PooledHttpClient;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Downloads kept in a directory together with the validators they were served with, so they can be revalidated with
+ * {@code If-None-Match} and {@code If-Modified-Since} instead of downloaded again.
+ * <p>
+ * Every URL is stored as a file named after the SHA-1 of the URL and the given suffix, next to a {@code .meta} file
+ * holding its validators. Both are replaced atomically, and the validators only exist while the file they belong to
+ * is complete.
+ */
+final class ConditionalCache {
+
+	private static final String META_SUFFIX = ".meta";
+
+	private final File dir;
+	private final String suffix;
+
+	/**
+	 * @param dir    the directory to keep the files in, created on the first store
+	 * @param suffix the extension of the cached files
+	 */
+	ConditionalCache(File dir, String suffix) {
+		this.dir = dir;
+		this.suffix = suffix;
+	}
+
+	/**
+	 * @return the file the download of a URL is kept in, which may not exist
+	 */
+	File file(String url) {
+		return new File(dir, key(url) + suffix);
+	}
+
+	/**
+	 * @return a temporary file in the cache directory for the current thread to download a URL into
+	 */
+	File tempFile(String url) throws IOException {
+		createDir();
+		return new File(dir, key(url) + suffix + "." + Thread.currentThread().getId() + ".tmp");
+	}
+
+	/**
+	 * @return the validators of the cached download of a URL, or null if there is no complete download to revalidate
+	 */
+	Properties readMeta(String url) {
+		File metaFile = metaFile(key(url));
+		if (!file(url).exists() || !metaFile.exists()) return null;
+		Properties meta = new Properties();
+		try (Reader in = Files.newBufferedReader(metaFile.toPath(), StandardCharsets.UTF_8)) {
+			meta.load(in);
+			return meta;
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @param meta the validators of the cached download, or null to request it unconditionally
+	 * @return the headers of a conditional request for the download
+	 */
+	static Map<String, String> requestHeaders(Properties meta) {
+		Map<String, String> headers = new HashMap<>(PooledHttpClient.ACCEPT_GZIP);
+		if (meta != null) {
+			if (meta.getProperty("etag") != null) headers.put("If-None-Match", meta.getProperty("etag"));
+			if (meta.getProperty("lastModified") != null) headers.put("If-Modified-Since", meta.getProperty("lastModified"));
+		}
+		return headers;
+	}
+
+	/**
+	 * @return the validators a response was served with, to store with its body
+	 */
+	static Properties validators(String url, HttpResponse response) {
+		Properties meta = new Properties();
+		meta.setProperty("url", url);
+		if (response.getHeader("ETag") != null) meta.setProperty("etag", response.getHeader("ETag"));
+		if (response.getHeader("Last-Modified") != null) meta.setProperty("lastModified", response.getHeader("Last-Modified"));
+		return meta;
+	}
+
+	/**
+	 * Moves a completely downloaded file into the cache, replacing the previous download of the URL.
+	 */
+	synchronized void store(String url, File tmp, Properties meta) throws IOException {
+		createDir();
+		File metaFile = metaFile(key(url));
+		// without its validators, a file left by a failed store is downloaded again instead of revalidated
+		metaFile.delete();
+		LocalHashIndex.moveAtomically(tmp, file(url));
+		File metaTmp = new File(metaFile.getPath() + ".tmp");
+		try (Writer out = Files.newBufferedWriter(metaTmp.toPath(), StandardCharsets.UTF_8)) {
+			meta.store(out, null);
+		}
+		LocalHashIndex.moveAtomically(metaTmp, metaFile);
+	}
+
+	/**
+	 * Stores a download that was read into memory.
+	 */
+	void store(String url, byte[] body, Properties meta) throws IOException {
+		File tmp = tempFile(url);
+		try {
+			Files.write(tmp.toPath(), body);
+			store(url, tmp, meta);
+		} finally {
+			tmp.delete();
+		}
+	}
+
+	/**
+	 * Deletes a cached file and its validators.
+	 *
+	 * @param file a file of this cache, as listed from its directory
+	 */
+	synchronized void delete(File file) {
+		String key = file.getName().substring(0, file.getName().length() - suffix.length());
+		file.delete();
+		metaFile(key).delete();
+	}
+
+	private File metaFile(String key) {
+		return new File(dir, key + META_SUFFIX);
+	}
+
+	private void createDir() throws IOException {
+		if (!dir.exists() && !dir.mkdirs() && !dir.exists()) throw new IOException("Could not create " + dir.getAbsolutePath());
+	}
+
+	private static String key(String url) {
+		try {
+			return FileHasher.get().toHex(MessageDigest.getInstance("SHA1").digest(url.getBytes(StandardCharsets.UTF_8)));
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA1 is not supported by this JVM", e);
+		}
+	}
+}
@@ -0,0 +1,191 @@
+package smlauncher.starmade;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Shares game files between install directories on the same host.
+ * <p>
+ * Every downloaded file is kept in {@code objects/<first two hex digits>/<sha1>} of the store directory, and installs
+ * get hard links to those blobs instead of downloading the same file again. Across file systems, where hard links
+ * are impossible, the blob is copied instead.
+ * <p>
+ * Hard links share their content, so a file the game changes in place would change in every install. Blobs are
+ * therefore stamped with {@link #BLOB_MODIFIED_TIME} when stored; a blob whose modification time differs was written
+ * through one of its links and is dropped from the store instead of being linked again. The installs that still
+ * link to it notice the change on their next verification.
+ */
+public class ContentStore {
+
+	/**
+	 * The modification time of untouched blobs, 2000-01-01.
+	 */
+	static final long BLOB_MODIFIED_TIME = 946684800000L;
+	private static final String OBJECTS_DIR = "objects";
+	private static final String INSTALLS_FILE = "installs";
+	private static volatile ContentStore defaultStore;
+
+	private final File dir;
+
+	public ContentStore(File dir) {
+		this.dir = dir;
+	}
+
+	/**
+	 * @return the store configured in the launch settings, or null if installs don't share their files
+	 */
+	public static ContentStore getDefault() {
+		return defaultStore;
+	}
+
+	public static void setDefault(ContentStore store) {
+		defaultStore = store;
+	}
+
+	public File getDir() {
+		return dir;
+	}
+
+	/**
+	 * @param checksum the hex encoded SHA-1 of the blob
+	 * @return the file the blob is stored in, which may not exist
+	 */
+	public File getBlob(String checksum) {
+		return new File(new File(new File(dir, OBJECTS_DIR), checksum.substring(0, 2)), checksum);
+	}
+
+	/**
+	 * Creates a file from the store, if it holds a blob with the given checksum.
+	 *
+	 * @param checksum the hex encoded SHA-1 of the file
+	 * @param size     the expected size of the file
+	 * @param dst      the file to create, which must not exist
+	 * @return true if the file was created, false if the store doesn't have it
+	 */
+	public boolean linkInto(String checksum, long size, File dst) {
+		File blob = getBlob(checksum);
+		if (!blob.exists()) return false;
+		if (blob.length() != size || blob.lastModified() != BLOB_MODIFIED_TIME) {
+			System.err.println("[UPDATER] Blob " + checksum + " was modified, dropping it from the store");
+			blob.delete();
+			return false;
+		}
+
+		File part = new File(dst.getAbsolutePath() + ".filepart");
+		try {
+			Files.deleteIfExists(part.toPath());
+			link(blob, part);
+			Files.move(part.toPath(), dst.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			return true;
+		} catch (IOException e) {
+			System.err.println("[UPDATER] Could not take " + dst.getName() + " from the store: " + e.getMessage());
+			part.delete();
+			return false;
+		}
+	}
+
+	/**
+	 * Adds a verified file to the store, unless it already holds it. When hard linked, the file shares the
+	 * modification time of the blob afterwards.
+	 *
+	 * @param checksum the hex encoded SHA-1 of the file
+	 * @param file     the file
+	 */
+	public void add(String checksum, File file) {
+		File blob = getBlob(checksum);
+		if (blob.exists()) return;
+		File parent = blob.getParentFile();
+		File tmp = new File(parent, checksum + "." + Thread.currentThread().getId() + ".tmp");
+		try {
+			if (!parent.exists() && !parent.mkdirs() && !parent.exists()) throw new IOException("Could not create " + parent.getAbsolutePath());
+			Files.deleteIfExists(tmp.toPath());
+			link(file, tmp);
+			if (!tmp.setLastModified(BLOB_MODIFIED_TIME)) throw new IOException("Could not set modification time of " + tmp.getAbsolutePath());
+			Files.move(tmp.toPath(), blob.toPath(), StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			// the install has its file either way
+			System.err.println("[UPDATER] Could not add " + file.getName() + " to the store: " + e.getMessage());
+			tmp.delete();
+		}
+	}
+
+	/**
+	 * Hard links a file, or copies it if the file system can't link it there.
+	 */
+	private static void link(File source, File target) throws IOException {
+		try {
+			Files.createLink(target.toPath(), source.toPath());
+		} catch (IOException | UnsupportedOperationException e) {
+			Files.copy(source.toPath(), target.toPath(), StandardCopyOption.COPY_ATTRIBUTES);
+		}
+	}
+
+	/**
+	 * Remembers an install directory, so {@link #collectGarbage()} keeps the blobs it uses.
+	 */
+	public synchronized void registerInstall(File installDir) throws IOException {
+		Set<String> installs = readInstalls();
+		if (installs.add(installDir.getCanonicalPath())) writeInstalls(installs);
+	}
+
+	/**
+	 * Deletes all blobs that aren't in the hash index of any registered install. Installs that no longer exist are
+	 * forgotten. Installs keep their own links, so removing a blob never removes a file from an install.
+	 *
+	 * @return the number of bytes freed
+	 */
+	public synchronized long collectGarbage() throws IOException {
+		Set<String> installs = readInstalls();
+		Set<String> referenced = new HashSet<>();
+		for (Iterator<String> it = installs.iterator(); it.hasNext(); ) {
+			File installDir = new File(it.next());
+			if (!new File(installDir, LocalHashIndex.LAUNCHER_DIR).isDirectory()) {
+				System.err.println("[UPDATER] Forgetting install " + installDir.getAbsolutePath());
+				it.remove();
+				continue;
+			}
+			referenced.addAll(LocalHashIndex.load(installDir).getChecksums());
+		}
+		writeInstalls(installs);
+
+		long freed = 0;
+		int removed = 0;
+		File[] prefixes = new File(dir, OBJECTS_DIR).listFiles(File::isDirectory);
+		if (prefixes == null) return 0;
+		for (File prefix : prefixes) {
+			File[] blobs = prefix.listFiles();
+			if (blobs == null) continue;
+			for (File blob : blobs) {
+				if (referenced.contains(blob.getName())) continue;
+				long size = blob.length();
+				if (blob.delete()) {
+					freed += size;
+					removed++;
+				}
+			}
+			String[] left = prefix.list();
+			if (left != null && left.length == 0) prefix.delete();
+		}
+		System.err.println("[UPDATER] Removed " + removed + " unused blobs (" + freed / (1024 * 1024) + " MB) from " + dir.getAbsolutePath());
+		return freed;
+	}
+
+	private Set<String> readInstalls() throws IOException {
+		File file = new File(dir, INSTALLS_FILE);
+		Set<String> installs = new LinkedHashSet<>();
+		if (!file.exists()) return installs;
+		for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+			if (!line.trim().isEmpty()) installs.add(line.trim());
+		}
+		return installs;
+	}
+
+	private void writeInstalls(Set<String> installs) throws IOException {
+		if (!dir.exists() && !dir.mkdirs()) throw new IOException("Could not create " + dir.getAbsolutePath());
+		File tmp = new File(dir, INSTALLS_FILE + ".tmp");
+		Files.write(tmp.toPath(), installs, StandardCharsets.UTF_8);
+		LocalHashIndex.moveAtomically(tmp, new File(dir, INSTALLS_FILE));
+	}
+}
@@ -0,0 +1,201 @@
+package smlauncher.starmade;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary patches that turn the file of one build into the file of another.
+ * <p>
+ * A patch is a sequence of copy and add instructions in the style of VCDIFF: {@code COPY offset length} takes a
+ * range of the old file, {@code ADD length bytes} inserts new bytes. Jars of consecutive builds mostly differ in a few
+ * classes, so their patches are a fraction of the full file. Patches are applied while they download, the old file
+ * is read with positional reads and the result is written sequentially.
+ * <p>
+ * Patches are served next to the file they produce, as {@code <file>.<sha1 of the old file>.patch}. They are only
+ * asked for when the local file is the one the installed build listed, and a missing patch just means the file is
+ * downloaded in full.
+ */
+public final class DeltaPatch {
+
+	/**
+	 * Smaller files are downloaded in full, the extra request for a patch isn't worth it.
+	 */
+	public static final long MIN_SIZE = 1024 * 1024;
+	private static final int MAGIC = 0x534D4450; // SMDP
+	private static final int VERSION = 1;
+	private static final int END = 0;
+	private static final int COPY = 1;
+	private static final int ADD = 2;
+	private static final int BLOCK_SIZE = 1024;
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private DeltaPatch() {
+	}
+
+	/**
+	 * @param fileUrl        the URL of the file in the new build
+	 * @param sourceChecksum the hex encoded SHA-1 of the local file to patch
+	 * @return the URL of the patch from the local file to the new one
+	 */
+	public static String getPatchUrl(String fileUrl, String sourceChecksum) {
+		return fileUrl + "." + sourceChecksum + ".patch";
+	}
+
+	/**
+	 * Applies a patch.
+	 *
+	 * @param patch  the patch, read sequentially
+	 * @param source the file the patch was made from
+	 * @param target the file to write the result to, replaced if it exists
+	 * @param digest the digest to feed the result to, or null
+	 * @param cb     the callback to report the written bytes to, or null
+	 * @return the size of the result
+	 * @throws IOException if the patch is corrupt, made for another file, or could not be read
+	 */
+	public static long apply(InputStream patch, File source, File target, MessageDigest digest, DownloadCallback cb) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(patch, BUFFER_SIZE));
+		if (in.readInt() != MAGIC || in.readUnsignedByte() != VERSION) throw new IOException("Not a patch of a supported version");
+		long sourceSize = in.readLong();
+		long targetSize = in.readLong();
+		if (sourceSize != source.length()) throw new IOException("Patch was made for a file of " + sourceSize + " bytes, " + source.getName() + " has " + source.length());
+
+		byte[] bytes = new byte[BUFFER_SIZE];
+		ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		long written = 0;
+		try (FileChannel old = FileChannel.open(source.toPath(), StandardOpenOption.READ);
+		     FileChannel out = FileChannel.open(target.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			for (int op = in.readUnsignedByte(); op != END; op = in.readUnsignedByte()) {
+				long offset = op == COPY ? in.readLong() : -1;
+				int length = in.readInt();
+				if (op != COPY && op != ADD || length < 0) throw new IOException("Corrupt patch instruction " + op);
+				if (op == COPY && (offset < 0 || offset + length > sourceSize)) throw new IOException("Patch copies past the end of " + source.getName());
+				if (written + length > targetSize) throw new IOException("Patch writes more than " + targetSize + " bytes");
+				for (int done = 0; done < length; ) {
+					buffer.clear();
+					buffer.limit(Math.min(BUFFER_SIZE, length - done));
+					if (op == COPY) {
+						while (buffer.hasRemaining()) {
+							if (old.read(buffer, offset + done + buffer.position()) == -1) throw new EOFException(source.getName() + " ended early");
+						}
+					} else {
+						in.readFully(bytes, 0, buffer.limit());
+						BandwidthLimiter.getGlobal().acquire(buffer.limit());
+						buffer.position(buffer.limit());
+					}
+					buffer.flip();
+					int n = buffer.remaining();
+					if (digest != null) digest.update(bytes, 0, n);
+					while (buffer.hasRemaining()) out.write(buffer);
+					done += n;
+					written += n;
+					if (cb != null) cb.downloaded(written, n);
+				}
+			}
+		}
+		if (written != targetSize) throw new EOFException("Patch produced " + written + " of " + targetSize + " bytes");
+		return written;
+	}
+
+	/**
+	 * Creates a patch from one file to another. Both files are read into memory, so this is meant for build tooling
+	 * and tests rather than the launcher itself.
+	 *
+	 * @param source the old file
+	 * @param target the new file
+	 * @param patch  the stream to write the patch to
+	 */
+	public static void create(File source, File target, OutputStream patch) throws IOException {
+		byte[] old = Files.readAllBytes(source.toPath());
+		byte[] cur = Files.readAllBytes(target.toPath());
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(patch, BUFFER_SIZE));
+		out.writeInt(MAGIC);
+		out.writeByte(VERSION);
+		out.writeLong(old.length);
+		out.writeLong(cur.length);
+
+		// index the blocks of the old file by a rolling checksum, as rsync does
+		Map<Integer, List<Integer>> blocks = new HashMap<>();
+		for (int offset = 0; offset + BLOCK_SIZE <= old.length; offset += BLOCK_SIZE) {
+			blocks.computeIfAbsent(weakHash(old, offset), k -> new ArrayList<>(1)).add(offset);
+		}
+
+		int pos = 0;
+		int addStart = 0;
+		int hash = cur.length >= BLOCK_SIZE ? weakHash(cur, 0) : 0;
+		while (pos + BLOCK_SIZE <= cur.length) {
+			int match = -1;
+			List<Integer> candidates = blocks.get(hash);
+			if (candidates != null) {
+				for (int offset : candidates) {
+					if (matches(old, offset, cur, pos, BLOCK_SIZE)) {
+						match = offset;
+						break;
+					}
+				}
+			}
+			if (match < 0) {
+				if (pos + BLOCK_SIZE < cur.length) hash = roll(hash, cur[pos], cur[pos + BLOCK_SIZE]);
+				pos++;
+				continue;
+			}
+			int length = BLOCK_SIZE;
+			while (match + length < old.length && pos + length < cur.length && old[match + length] == cur[pos + length]) length++;
+			writeAdd(out, cur, addStart, pos);
+			out.writeByte(COPY);
+			out.writeLong(match);
+			out.writeInt(length);
+			pos += length;
+			addStart = pos;
+			if (pos + BLOCK_SIZE <= cur.length) hash = weakHash(cur, pos);
+		}
+		writeAdd(out, cur, addStart, cur.length);
+		out.writeByte(END);
+		out.flush();
+	}
+
+	private static void writeAdd(DataOutputStream out, byte[] data, int from, int to) throws IOException {
+		if (to <= from) return;
+		out.writeByte(ADD);
+		out.writeInt(to - from);
+		out.write(data, from, to - from);
+	}
+
+	private static boolean matches(byte[] a, int aOffset, byte[] b, int bOffset, int length) {
+		for (int i = 0; i < length; i++) {
+			if (a[aOffset + i] != b[bOffset + i]) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * An Adler-32 style checksum of a block, low half the byte sum and high half the weighted sum.
+	 */
+	private static int weakHash(byte[] data, int offset) {
+		int a = 0;
+		int b = 0;
+		for (int i = 0; i < BLOCK_SIZE; i++) {
+			int x = data[offset + i] & 0xFF;
+			a += x;
+			b += (BLOCK_SIZE - i) * x;
+		}
+		return (b & 0xFFFF) << 16 | a & 0xFFFF;
+	}
+
+	/**
+	 * Moves the block of a {@link #weakHash} one byte forward.
+	 */
+	private static int roll(int hash, byte out, byte in) {
+		int x = out & 0xFF;
+		int a = (hash & 0xFFFF) - x + (in & 0xFF);
+		int b = (hash >>> 16) - BLOCK_SIZE * x + a;
+		return (b & 0xFFFF) << 16 | a & 0xFFFF;
+	}
+}
@@ -0,0 +1,148 @@
+package smlauncher.starmade;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Aggregates the progress of concurrent file downloads.
+ * <p>
+ * Download threads only bump counters, they never lock or call back. A single sampling thread publishes an
+ * immutable {@link FileDownloadUpdate} snapshot to the callback every {@link #SAMPLE_INTERVAL} milliseconds.
+ */
+public class DownloadProgress {
+
+	public static final long SAMPLE_INTERVAL = 200;
+
+	private final FileDowloadCallback cb;
+	private final LongAdder totalSize = new LongAdder();
+	private final LongAdder currentSize = new LongAdder();
+	private final AtomicInteger total = new AtomicInteger();
+	private final AtomicInteger completed = new AtomicInteger();
+	private volatile FileProgress current;
+	private ScheduledExecutorService sampler;
+
+	// only accessed by the sampling thread
+	private long lastSampleTime;
+	private long lastSampleSize;
+	private double downloadSpeed;
+
+	public DownloadProgress(FileDowloadCallback cb) {
+		this.cb = cb;
+	}
+
+	/**
+	 * Starts publishing snapshots.
+	 */
+	public synchronized void start() {
+		if (sampler != null) return;
+		lastSampleTime = System.currentTimeMillis();
+		sampler = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "download-progress");
+			thread.setDaemon(true);
+			return thread;
+		});
+		sampler.scheduleAtFixedRate(this::sample, SAMPLE_INTERVAL, SAMPLE_INTERVAL, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stops publishing snapshots.
+	 *
+	 * @param done whether to publish a final snapshot through {@link FileDowloadCallback#done}
+	 */
+	public synchronized void stop(boolean done) {
+		if (sampler == null) return;
+		sampler.shutdownNow();
+		try {
+			sampler.awaitTermination(SAMPLE_INTERVAL, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		sampler = null;
+		if (done) cb.done(snapshot());
+	}
+
+	/**
+	 * Adds a file to the total that is going to be downloaded.
+	 */
+	public void queued(long size) {
+		total.incrementAndGet();
+		totalSize.add(size);
+	}
+
+	/**
+	 * Marks a file as the one currently being downloaded.
+	 *
+	 * @return the handle to report the file's progress to
+	 */
+	public FileProgress started(String fileName, long size) {
+		FileProgress file = new FileProgress(fileName, size);
+		current = file;
+		return file;
+	}
+
+	public void finished() {
+		completed.incrementAndGet();
+	}
+
+	public long getTotalSize() {
+		return totalSize.sum();
+	}
+
+	public long getCurrentSize() {
+		return currentSize.sum();
+	}
+
+	private void sample() {
+		long now = System.currentTimeMillis();
+		long size = currentSize.sum();
+		if (now > lastSampleTime) {
+			downloadSpeed = (size - lastSampleSize) * 1000.0d / (now - lastSampleTime);
+		}
+		lastSampleTime = now;
+		lastSampleSize = size;
+		if (total.get() == 0) return; // still verifying, nothing to report yet
+		try {
+			cb.update(snapshot());
+		} catch (RuntimeException e) {
+			// an exception would cancel all further samples
+			e.printStackTrace();
+		}
+	}
+
+	private FileDownloadUpdate snapshot() {
+		FileProgress file = current;
+		return new FileDownloadUpdate(file != null ? file.downloaded : 0, file != null ? file.size : 0, file != null ? file.fileName : null,
+				completed.get(), total.get(), totalSize.sum(), currentSize.sum(), downloadSpeed);
+	}
+
+	/**
+	 * The progress of a single file.
+	 */
+	public final class FileProgress {
+		final String fileName;
+		final long size;
+		volatile long downloaded;
+
+		private FileProgress(String fileName, long size) {
+			this.fileName = fileName;
+			this.size = size;
+		}
+
+		public void downloaded(long downloaded, long diff) {
+			this.downloaded = downloaded;
+			currentSize.add(diff);
+			current = this;
+		}
+
+		/**
+		 * Takes the bytes downloaded so far back out of the total, before the file is downloaded again.
+		 */
+		public void discard() {
+			currentSize.add(-downloaded);
+			downloaded = 0;
+		}
+	}
+}
@@ -0,0 +1,32 @@
+package smlauncher.starmade;
+
+/**
+ * The outcome of downloading a single {@link ChecksumFileEntry}.
+ */
+public class DownloadResult {
+
+	public final ChecksumFileEntry entry;
+	/**
+	 * The exception the download failed with, or null if it succeeded.
+	 */
+	public final Exception error;
+	public final long durationMillis;
+
+	public DownloadResult(ChecksumFileEntry entry, Exception error, long durationMillis) {
+		this.entry = entry;
+		this.error = error;
+		this.durationMillis = durationMillis;
+	}
+
+	public boolean isSuccessful() {
+		return error == null;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "DownloadResult [" + entry.relativePath + (error == null ? ", ok" : ", failed: " + error) + ", " + durationMillis + " ms]";
+	}
+}
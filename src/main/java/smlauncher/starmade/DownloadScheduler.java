@@ -0,0 +1,149 @@
+package smlauncher.starmade;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Runs file downloads in two lanes and adapts the concurrency of the small file lane to the link.
+ * <p>
+ * Large files get a lane of their own, so a few big downloads can't starve the thousands of small {@code data/}
+ * files and vice versa. Every {@link #ADJUST_INTERVAL} milliseconds the small file lane is resized: it grows by one
+ * thread while the aggregate throughput keeps improving, shrinks by one when throughput or file latency gets worse,
+ * and is halved when downloads failed.
+ */
+public class DownloadScheduler {
+
+	public static final long LARGE_FILE_SIZE = 4 * 1024 * 1024;
+	private static final int MIN_SMALL_THREADS = 2;
+	private static final int MAX_SMALL_THREADS = 16;
+	private static final int INITIAL_SMALL_THREADS = 4;
+	private static final int LARGE_THREADS = 2;
+	private static final long ADJUST_INTERVAL = 1000;
+
+	private final ThreadPoolExecutor smallLane;
+	private final ThreadPoolExecutor largeLane;
+	private final ScheduledExecutorService controller;
+	private final LongSupplier downloadedBytes;
+
+	private final AtomicInteger errors = new AtomicInteger();
+	private final LongAdder latencySum = new LongAdder();
+	private final LongAdder latencyCount = new LongAdder();
+
+	// only accessed by the controller thread
+	private int smallThreads = INITIAL_SMALL_THREADS;
+	private long lastBytes;
+	private double lastThroughput;
+	private double baseLatency = -1;
+
+	/**
+	 * @param downloadedBytes the number of bytes downloaded so far, across both lanes
+	 */
+	public DownloadScheduler(LongSupplier downloadedBytes) {
+		this(downloadedBytes, true);
+	}
+
+	/**
+	 * @param scheduled whether to adjust every {@link #ADJUST_INTERVAL} milliseconds, or only when {@link #adjust} is
+	 *                  called
+	 */
+	DownloadScheduler(LongSupplier downloadedBytes, boolean scheduled) {
+		this.downloadedBytes = downloadedBytes;
+		smallLane = newLane("download-small", INITIAL_SMALL_THREADS);
+		largeLane = newLane("download-large", LARGE_THREADS);
+		controller = Executors.newSingleThreadScheduledExecutor(daemonFactory("download-scheduler"));
+		if (scheduled) controller.scheduleAtFixedRate(this::adjust, ADJUST_INTERVAL, ADJUST_INTERVAL, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * @return the lane to download a file of the given size in
+	 */
+	public Executor laneFor(long size) {
+		return size >= LARGE_FILE_SIZE ? largeLane : smallLane;
+	}
+
+	/**
+	 * Reports a finished download to base the next adjustment on.
+	 */
+	public void completed(DownloadResult result) {
+		if (!result.isSuccessful()) {
+			errors.incrementAndGet();
+		} else if (result.entry.size < LARGE_FILE_SIZE) {
+			latencySum.add(result.durationMillis);
+			latencyCount.increment();
+		}
+	}
+
+	public int getSmallThreads() {
+		return smallLane.getCorePoolSize();
+	}
+
+	public void shutdown() {
+		controller.shutdownNow();
+		smallLane.shutdown();
+		largeLane.shutdown();
+	}
+
+	public void shutdownNow() {
+		controller.shutdownNow();
+		smallLane.shutdownNow();
+		largeLane.shutdownNow();
+	}
+
+	/**
+	 * Resizes the small file lane based on what was reported since the last adjustment. Always called from a single
+	 * thread.
+	 */
+	void adjust() {
+		long bytes = downloadedBytes.getAsLong();
+		double throughput = (bytes - lastBytes) * 1000.0d / ADJUST_INTERVAL;
+		lastBytes = bytes;
+
+		int failed = errors.getAndSet(0);
+		long count = latencyCount.sumThenReset();
+		double latency = count > 0 ? latencySum.sumThenReset() / (double) count : -1;
+		if (latency >= 0 && (baseLatency < 0 || latency < baseLatency)) baseLatency = latency;
+
+		int threads = smallThreads;
+		if (failed > 0) {
+			threads = Math.max(MIN_SMALL_THREADS, threads / 2);
+		} else if (latency >= 0 && latency > baseLatency * 3 && baseLatency > 0) {
+			threads = Math.max(MIN_SMALL_THREADS, threads - 1);
+		} else if (throughput > lastThroughput * 1.05d && !smallLane.getQueue().isEmpty()) {
+			threads = Math.min(MAX_SMALL_THREADS, threads + 1);
+		} else if (throughput < lastThroughput * 0.8d) {
+			threads = Math.max(MIN_SMALL_THREADS, threads - 1);
+		}
+		lastThroughput = throughput;
+
+		if (threads != smallThreads) {
+			resize(smallLane, threads);
+			smallThreads = threads;
+		}
+	}
+
+	private static void resize(ThreadPoolExecutor lane, int threads) {
+		// the core size may never exceed the maximum size, so grow the maximum first and shrink it last
+		if (threads > lane.getMaximumPoolSize()) {
+			lane.setMaximumPoolSize(threads);
+			lane.setCorePoolSize(threads);
+		} else {
+			lane.setCorePoolSize(threads);
+			lane.setMaximumPoolSize(threads);
+		}
+	}
+
+	private static ThreadPoolExecutor newLane(String name, int threads) {
+		return new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), daemonFactory(name));
+	}
+
+	private static ThreadFactory daemonFactory(String name) {
+		AtomicInteger count = new AtomicInteger();
+		return r -> {
+			Thread thread = new Thread(r, name + "-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+}
@@ -1,14 +1,28 @@
 package smlauncher.starmade;
 
+/**
+ * Immutable snapshot of the progress of a game update, published by {@link DownloadProgress}.
+ */
 // TODO merge with DownloadStatus
 public class FileDownloadUpdate {
-	public long downloaded;
-	public long size;
-	public String fileName;
-	public int index;
-	public int total;
-	public long totalSize;
-	public long currentSize;
-	public double downloadSpeed;
+	public final long downloaded;
+	public final long size;
+	public final String fileName;
+	public final int index;
+	public final int total;
+	public final long totalSize;
+	public final long currentSize;
+	public final double downloadSpeed;
+
+	public FileDownloadUpdate(long downloaded, long size, String fileName, int index, int total, long totalSize, long currentSize, double downloadSpeed) {
+		this.downloaded = downloaded;
+		this.size = size;
+		this.fileName = fileName;
+		this.index = index;
+		this.total = total;
+		this.totalSize = totalSize;
+		this.currentSize = currentSize;
+		this.downloadSpeed = downloadSpeed;
+	}
 
 }
@@ -0,0 +1,149 @@
+package smlauncher.starmade;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Computes SHA-1 checksums of files without per-file garbage.
+ * <p>
+ * Each thread owns one hasher with its own {@link MessageDigest}, a large direct read buffer and the output arrays,
+ * so hashing tens of thousands of game files only allocates the resulting strings. Files of at least
+ * {@link #getMappedThreshold()} bytes are memory mapped instead and fed to the digest window by window, which skips
+ * copying them through the read buffer.
+ */
+public final class FileHasher {
+
+	private static final int BUFFER_SIZE = 256 * 1024;
+	private static final int SHA1_LENGTH = 20;
+	private static final long MAPPED_WINDOW_SIZE = 64L * 1024 * 1024;
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+	private static final ThreadLocal<FileHasher> LOCAL = ThreadLocal.withInitial(FileHasher::new);
+	private static volatile long mappedThreshold = -1;
+
+	private final MessageDigest digest;
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+	private final byte[] sha1 = new byte[SHA1_LENGTH];
+	private final char[] hex = new char[SHA1_LENGTH * 2];
+
+	private FileHasher() {
+		try {
+			digest = MessageDigest.getInstance("SHA1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA1 is not supported by this JVM", e);
+		}
+	}
+
+	/**
+	 * @return the hasher of the calling thread
+	 */
+	public static FileHasher get() {
+		return LOCAL.get();
+	}
+
+	/**
+	 * @return the minimum size of files that are hashed through memory mapping, or a negative value if disabled
+	 */
+	public static long getMappedThreshold() {
+		return mappedThreshold;
+	}
+
+	/**
+	 * Sets the minimum size of files that are hashed through memory mapping. Mapped files stay locked on Windows
+	 * until the mapping is garbage collected, so this should stay disabled there if files are replaced right after
+	 * being verified.
+	 *
+	 * @param threshold the size in bytes, or a negative value to disable memory mapping
+	 */
+	public static void setMappedThreshold(long threshold) {
+		mappedThreshold = threshold;
+	}
+
+	/**
+	 * Hashes a file. The returned array is reused by the next call on this thread.
+	 *
+	 * @param file the file to hash
+	 * @return the SHA-1 digest of the file's content
+	 * @throws IOException if the file cannot be read
+	 */
+	public byte[] sha1(File file) throws IOException {
+		digest.reset();
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			long size = channel.size();
+			long threshold = mappedThreshold;
+			if (threshold >= 0 && size >= threshold) {
+				for (long position = 0; position < size; position += MAPPED_WINDOW_SIZE) {
+					MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAPPED_WINDOW_SIZE, size - position));
+					digest.update(window);
+				}
+				return finish();
+			}
+
+			buffer.clear();
+			while (channel.read(buffer) != -1) {
+				buffer.flip();
+				digest.update(buffer);
+				buffer.clear();
+			}
+		}
+		return finish();
+	}
+
+	/**
+	 * Feeds a file's content to another digest through this thread's read buffer.
+	 *
+	 * @param target the digest to update
+	 * @param file   the file to read
+	 * @throws IOException if the file cannot be read
+	 */
+	public void update(MessageDigest target, File file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			buffer.clear();
+			while (channel.read(buffer) != -1) {
+				buffer.flip();
+				target.update(buffer);
+				buffer.clear();
+			}
+		}
+	}
+
+	/**
+	 * @param file the file to hash
+	 * @return the hex encoded SHA-1 digest of the file's content
+	 * @throws IOException if the file cannot be read
+	 */
+	public String sha1Hex(File file) throws IOException {
+		return toHex(sha1(file));
+	}
+
+	/**
+	 * Hex encodes a digest through this thread's reusable char buffer.
+	 *
+	 * @param bytes the digest, at most 20 bytes long
+	 * @return the lowercase hex string
+	 */
+	public String toHex(byte[] bytes) {
+		char[] out = bytes.length <= SHA1_LENGTH ? hex : new char[bytes.length * 2];
+		for (int i = 0; i < bytes.length; i++) {
+			int b = bytes[i] & 0xff;
+			out[i * 2] = HEX[b >>> 4];
+			out[i * 2 + 1] = HEX[b & 0x0f];
+		}
+		return new String(out, 0, bytes.length * 2);
+	}
+
+	private byte[] finish() throws IOException {
+		try {
+			digest.digest(sha1, 0, SHA1_LENGTH);
+		} catch (DigestException e) {
+			throw new IOException(e);
+		}
+		return sha1;
+	}
+}
@@ -1,13 +0,0 @@
-package smlauncher.starmade;
-
-public class FileUpdateTotal {
-
-	public int total;
-	public int index;
-	public long totalSize;
-	public long currentSize;
-	public long lastSpeedSize;
-	public long startTime;
-	public double downloadSpeed;
-
-}
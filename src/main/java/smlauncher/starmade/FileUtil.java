@@ -1,9 +1,16 @@
 package smlauncher.starmade;
 
 import org.apache.commons.io.output.StringBuilderWriter;
+import smlauncher.http.HttpResponse;
+import smlauncher.http.HttpStatusException;
+import smlauncher.http.PooledHttpClient;
 
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.Selector;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
@@ -44,6 +51,12 @@ public class FileUtil {
 	 * The default buffer size ({@value}) to use for
 	 */
 	private static final int DEFAULT_BUFFER_SIZE = 1024 * 4;
+	private static final int TRANSFER_CHUNK_SIZE = 1024 * 1024;
+	private static final int TRANSFER_BUFFER_SIZE = 64 * 1024;
+	private static final ThreadLocal<ByteBuffer> TRANSFER_BUFFER = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(TRANSFER_BUFFER_SIZE));
+	private static final int MAX_DOWNLOAD_ATTEMPTS = 5;
+	private static final long INITIAL_RETRY_DELAY = 1000;
+	private static final long MAX_RETRY_DELAY = 16000;
 
 	static {
 		// avoid security issues
@@ -306,45 +319,187 @@ public class FileUtil {
 		copyInputStreamToFile(input, destination, cb);
 	}
 
+	/**
+	 * Downloads a URL to a file through the shared {@link PooledHttpClient}, so consecutive downloads from the same
+	 * host reuse their connections. The timeouts of the pooled client apply. Unless a range is requested, the server
+	 * may send the file gzip compressed; it is decompressed while writing, so {@code destination}, the callback and
+	 * the digest always see the uncompressed content.
+	 * <p>
+	 * In resume mode an existing {@code destination} is treated as the beginning of the file: only the rest is
+	 * requested with a {@code Range} header and appended, unless the server ignores the range and sends the whole
+	 * file. Failed transfers are resumed up to {@link #MAX_DOWNLOAD_ATTEMPTS} times with exponential backoff. The
+	 * callback always reports the length of {@code destination}, including bytes kept from earlier attempts.
+	 */
 	public static void copyURLToFile(URL source, File destination, int connectionTimeout, int readTimeout, DownloadCallback cb, String user, String pass, boolean resume) throws IOException {
-		URLConnection connection = null;
-		try {
-			connection = source.openConnection();
-			connection.setConnectTimeout(connectionTimeout);
-			connection.setReadTimeout(readTimeout);
-			// #RM1958 swap out Base64 encoder
-			//			String encoding = Base64.encode((user+":"+pass).getBytes());
-			//			connection.setRequestProperty ("Authorization", "Basic " + encoding);
-			InputStream input;
-
-			if(resume) {
-				if(destination.exists()) {
-					long downloadedSize = destination.length();
-					connection.setAllowUserInteraction(true);
-					connection.setRequestProperty("Range", "bytes=" + downloadedSize + "-");
-					connection.setConnectTimeout(14000);
-					input = new BufferedInputStream(connection.getInputStream());
-					input.skip(downloadedSize); //Skip downloaded size
-				} else {
-					input = new BufferedInputStream(connection.getInputStream());
-				}
+		copyURLToFile(source, destination, connectionTimeout, readTimeout, cb, user, pass, resume, null);
+	}
 
-			} else {
-				input = new BufferedInputStream(connection.getInputStream());
+	/**
+	 * Downloads a URL to a file like {@link #copyURLToFile(URL, File, int, int, DownloadCallback, String, String, boolean)}
+	 * and feeds the file's content to a digest on the way. A resumed part is read back once to hash its content.
+	 *
+	 * @param digest the digest to feed, or null. When this returns, it has been updated with exactly the content of
+	 *               {@code destination}.
+	 */
+	public static void copyURLToFile(URL source, File destination, int connectionTimeout, int readTimeout, DownloadCallback cb, String user, String pass, boolean resume, MessageDigest digest) throws IOException {
+		PooledHttpClient client = PooledHttpClient.getDefault();
+		// #RM1958 swap out Base64 encoder
+		//			String encoding = Base64.encode((user+":"+pass).getBytes());
+		//			connection.setRequestProperty ("Authorization", "Basic " + encoding);
+		if(!resume) {
+			if(digest != null) {
+				digest.reset();
 			}
+			HttpResponse response = client.get(source, PooledHttpClient.ACCEPT_GZIP);
+			InputStream body;
+			try {
+				body = response.requireSuccess().getDecodedBody();
+			} catch(IOException | RuntimeException e) {
+				response.close();
+				throw e;
+			}
+			copyInputStreamToFile(body, destination, false, cb, digest);
+			return;
+		}
 
-			copyInputStreamToFile(input, destination, cb);
-		} catch(IOException e) {
-			if(resume) {
+		ResumeCallback resumeCb = new ResumeCallback(cb);
+		long retryDelay = INITIAL_RETRY_DELAY;
+		for(int attempt = 1; ; attempt++) {
+			long downloadedSize = destination.exists() ? destination.length() : 0;
+			try {
+				HttpResponse response;
+				if(downloadedSize > 0) {
+					response = client.get(source, Collections.singletonMap("Range", "bytes=" + downloadedSize + "-"));
+					if(response.getStatus() == 416) {
+						// the part is at least as long as the whole file, so it can't be the start of it
+						response.close();
+						System.err.println("Discarding " + destination.getName() + ": range " + downloadedSize + "- not satisfiable");
+						deleteForRestart(destination);
+						resumeCb.rewind(0);
+						continue;
+					}
+				} else {
+					// ranges refer to the encoded bytes, so only full downloads may be compressed
+					response = client.get(source, PooledHttpClient.ACCEPT_GZIP);
+				}
+
+				// the response holds a connection permit of its host until the copy takes the body over
+				boolean append = false;
+				InputStream body;
+				try {
+					response.requireSuccess();
+					if(response.getStatus() == 206) {
+						append = downloadedSize > 0 && isRangeFrom(response.getHeader("Content-Range"), downloadedSize);
+						if(!append) {
+							response.close();
+							deleteForRestart(destination);
+							throw new IOException("Unexpected Content-Range " + response.getHeader("Content-Range") + " for " + source);
+						}
+					} else if(downloadedSize > 0) {
+						System.err.println("Server ignored range request for " + source + ", downloading the whole file");
+					}
+					resumeCb.rewind(append ? downloadedSize : 0);
+					if(digest != null) {
+						digest.reset();
+						if(append) {
+							FileHasher.get().update(digest, destination);
+						}
+					}
+					body = response.getDecodedBody();
+				} catch(IOException | RuntimeException e) {
+					response.close();
+					throw e;
+				}
+				copyInputStreamToFile(body, destination, append, resumeCb, digest);
+				return;
+			} catch(IOException e) {
+				if(attempt >= MAX_DOWNLOAD_ATTEMPTS || !isRetryable(e)) {
+					throw e;
+				}
+				System.err.println("Disconnected: " + e.getClass() + ": " + e.getMessage() + "! Trying to resume download in " + retryDelay + " ms (attempt " + (attempt + 1) + " of " + MAX_DOWNLOAD_ATTEMPTS + ")");
 				try {
-					System.err.println("Disconnected: " + e.getClass() + ": " + e.getMessage() + "! Trying to resume download!");
-					Thread.sleep(1000);
+					Thread.sleep(retryDelay);
 				} catch(InterruptedException e1) {
-					e1.printStackTrace();
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("Download of " + source + " was interrupted");
 				}
-				copyURLToFile(source, destination, connectionTimeout, readTimeout, cb, user, pass, resume);
-			} else {
-				throw e;
+				retryDelay = Math.min(retryDelay * 2, MAX_RETRY_DELAY);
+			}
+		}
+	}
+
+	/**
+	 * Client errors won't go away by asking again, except for timeouts and rate limits.
+	 */
+	static boolean isRetryable(IOException e) {
+		if(e instanceof InterruptedIOException && !(e instanceof SocketTimeoutException)) {
+			return false;
+		}
+		if(e instanceof HttpStatusException) {
+			int status = ((HttpStatusException) e).getStatus();
+			return status >= 500 || status == 408 || status == 429;
+		}
+		return true;
+	}
+
+	/**
+	 * @return whether a {@code Content-Range} header of a 206 response starts at the given position
+	 */
+	static boolean isRangeFrom(String contentRange, long position) {
+		// bytes <first>-<last>/<length>
+		if(contentRange == null || !contentRange.startsWith("bytes ")) {
+			return false;
+		}
+		int dash = contentRange.indexOf('-');
+		if(dash < 0) {
+			return false;
+		}
+		try {
+			return Long.parseLong(contentRange.substring(6, dash).trim()) == position;
+		} catch(NumberFormatException e) {
+			return false;
+		}
+	}
+
+	private static void deleteForRestart(File destination) throws IOException {
+		if(destination.exists() && !destination.delete()) {
+			throw new IOException("File " + destination.getAbsolutePath() + " could not be removed! Is it still in use?");
+		}
+	}
+
+	/**
+	 * Reports the progress of a resumed download relative to the start of the file. When a download has to start
+	 * over, the bytes reported for the discarded part are taken back with a negative difference.
+	 */
+	private static final class ResumeCallback implements DownloadCallback {
+		private final DownloadCallback cb;
+		private long offset;
+		private long reported;
+
+		ResumeCallback(DownloadCallback cb) {
+			this.cb = cb;
+		}
+
+		void rewind(long position) {
+			offset = position;
+			if(cb != null && position != reported) {
+				cb.downloaded(position, position - reported);
+			}
+			reported = position;
+		}
+
+		@Override
+		public void downloaded(long size, long diff) {
+			reported = offset + size;
+			if(cb != null) {
+				cb.downloaded(reported, diff);
+			}
+		}
+
+		@Override
+		public void doneDownloading() {
+			if(cb != null) {
+				cb.doneDownloading();
 			}
 		}
 	}
@@ -366,10 +521,20 @@ public class FileUtil {
 	 * @since 2.0
 	 */
 	public static void copyInputStreamToFile(InputStream source, File destination, DownloadCallback cb) throws IOException {
+		copyInputStreamToFile(source, destination, false, cb, null);
+	}
+
+	/**
+	 * Copies bytes from an {@link InputStream} {@code source} to a file {@code destination}, optionally appending to
+	 * its existing content. The copied bytes are fed to {@code digest} unless it is null.
+	 *
+	 * @see #copyInputStreamToFile(InputStream, File, DownloadCallback)
+	 */
+	public static void copyInputStreamToFile(InputStream source, File destination, boolean append, DownloadCallback cb, MessageDigest digest) throws IOException {
 		try {
-			FileOutputStream output = openOutputStream(destination);
+			FileChannel output = openOutputStream(destination, append).getChannel();
 			try {
-				copy(source, output, cb);
+				transfer(Channels.newChannel(source), output, cb, digest);
 				output.close(); // don't swallow close Exception if copy completes normally
 			} finally {
 				closeQuietly(output);
@@ -378,6 +543,81 @@ public class FileUtil {
 			closeQuietly(source);
 		}
 	}
+
+	/**
+	 * Copies all bytes of a channel to a file, starting at the file's current position. Without a digest or bandwidth
+	 * limit the file channel pulls the bytes itself with {@link FileChannel#transferFrom} in chunks of
+	 * {@link #TRANSFER_CHUNK_SIZE}, otherwise they pass through a direct buffer owned by the calling thread, so the
+	 * {@link BandwidthLimiter} can meter every read. Either way the callback is invoked once per chunk rather than
+	 * once per read.
+	 *
+	 * @param input  the channel to read from
+	 * @param output the file to write to
+	 * @param cb     the callback to report the number of bytes copied so far to, or null
+	 * @param digest the digest to update with the copied bytes, or null
+	 *
+	 * @return the number of bytes copied
+	 * @throws IOException if an I/O error occurs
+	 */
+	public static long transfer(ReadableByteChannel input, FileChannel output, DownloadCallback cb, MessageDigest digest) throws IOException {
+		BandwidthLimiter limiter = BandwidthLimiter.getGlobal();
+		long count = 0;
+		if(digest == null && limiter.getRate() == 0) {
+			long position = output.position();
+			long n;
+			// transferFrom only returns 0 at the end of a blocking channel
+			while((n = output.transferFrom(input, position + count, TRANSFER_CHUNK_SIZE)) > 0) {
+				count += n;
+				limiter.acquire(n); // only blocks while paused
+				if(cb != null) {
+					cb.downloaded(count, n);
+				}
+			}
+			output.position(position + count);
+		} else {
+			ByteBuffer buffer = TRANSFER_BUFFER.get();
+			buffer.clear();
+			int n;
+			try {
+				while(EOF != (n = input.read(buffer))) {
+					limiter.acquire(n);
+					if(buffer.hasRemaining() && n > 0) {
+						continue; // fill the buffer before reporting
+					}
+					count += flush(buffer, output, digest, cb, count);
+				}
+			} catch(IOException e) {
+				// keep what arrived before the connection broke, so it can be resumed
+				flush(buffer, output, digest, null, count);
+				throw e;
+			}
+			count += flush(buffer, output, digest, cb, count);
+		}
+		if(cb != null) {
+			cb.doneDownloading();
+		}
+		return count;
+	}
+
+	private static int flush(ByteBuffer buffer, FileChannel output, MessageDigest digest, DownloadCallback cb, long count) throws IOException {
+		buffer.flip();
+		int n = buffer.remaining();
+		if(n > 0) {
+			if(digest != null) {
+				buffer.mark();
+				digest.update(buffer);
+				buffer.reset();
+			}
+			while(buffer.hasRemaining()) {
+				output.write(buffer);
+			}
+			if(cb != null) {
+				cb.downloaded(count + n, n);
+			}
+		}
+		buffer.clear();
+		return n;
+	}
 	// copy from InputStream
 	//-----------------------------------------------------------------------
 
@@ -842,25 +1082,7 @@ public class FileUtil {
 	}
 
 	public static byte[] createChecksum(File filename) throws IOException {
-		InputStream fis = new BufferedInputStream(new FileInputStream(filename));
-
-		byte[] buffer = new byte[1024];
-		MessageDigest complete;
-		try {
-			complete = MessageDigest.getInstance("SHA1");
-
-			int numRead;
-
-			while((numRead = fis.read(buffer)) != -1) {
-				complete.update(buffer, 0, numRead);
-			}
-
-			return complete.digest();
-		} catch(NoSuchAlgorithmException e) {
-			throw new IOException(e);
-		} finally {
-			fis.close();
-		}
+		return FileHasher.get().sha1(filename).clone();
 	}
 
 	public static byte[] createChecksum(String filename) throws NoSuchAlgorithmException, IOException {
@@ -889,43 +1111,16 @@ public class FileUtil {
 		}
 	}
 
-	// see this How-to for a faster way to convert
-	// a byte array to a HEX string
 	public static String getSha1Checksum(String filename) throws IOException {
-		byte[] b = new byte[0];
-		try {
-			b = createChecksum(filename);
-		} catch(NoSuchAlgorithmException e) {
-			throw new RuntimeException(e);
-		}
-		String result = "";
-
-		for(int i = 0; i < b.length; i++) {
-			result += Integer.toString((b[i] & 0xff) + 0x100, 16).substring(1);
-		}
-		return result;
+		return FileHasher.get().sha1Hex(new File(filename));
 	}
 
-	// see this How-to for a faster way to convert
-	// a byte array to a HEX string
 	public static String getSha1ChecksumZipped(String filename) throws IOException {
-		byte[] b = createChecksumZipped(filename);
-		String result = "";
-
-		for(int i = 0; i < b.length; i++) {
-			result += Integer.toString((b[i] & 0xff) + 0x100, 16).substring(1);
-		}
-		return result;
+		return FileHasher.get().toHex(createChecksumZipped(filename));
 	}
 
 	public static String getSha1Checksum(File filename) throws IOException {
-		byte[] b = createChecksum(filename);
-		String result = "";
-
-		for(int i = 0; i < b.length; i++) {
-			result += Integer.toString((b[i] & 0xff) + 0x100, 16).substring(1);
-		}
-		return result;
+		return FileHasher.get().sha1Hex(filename);
 	}
 
 	public static String fileToString(File file) throws IOException {
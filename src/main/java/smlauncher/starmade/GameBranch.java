@@ -8,18 +8,25 @@ package smlauncher.starmade;
  */
 public enum GameBranch {
 
-	RELEASE("Release", 0, "http://files.star-made.org/releasebuildindex"),
-	DEV("Development", 1, "http://files.star-made.org/devbuildindex"),
-	PRE("Pre-Release", 2, "http://files.star-made.org/prebuildindex"),
-	ARCHIVE("Archive", -1, "http://files.star-made.org/archivebuildindex");
+	RELEASE("Release", 0, "releasebuildindex"),
+	DEV("Development", 1, "devbuildindex"),
+	PRE("Pre-Release", 2, "prebuildindex"),
+	ARCHIVE("Archive", -1, "archivebuildindex");
 
-	public final String name, url; // download location
+	public final String name, indexFile; // index file on the file server
 	public final int index; // index in drop-down
 
-	GameBranch(String name, int index, String url) {
+	GameBranch(String name, int index, String indexFile) {
 		this.name = name;
 		this.index = index;
-		this.url = url;
+		this.indexFile = indexFile;
+	}
+
+	/**
+	 * @return the download location of the branch's version index, on {@link GameUpdater#FILES_URL}
+	 */
+	public String getUrl() {
+		return GameUpdater.FILES_URL + indexFile;
 	}
 
 	public static GameBranch getForIndex(int index) {
@@ -1,6 +1,8 @@
 package smlauncher.starmade;
 
 import smlauncher.StarMadeLauncher;
+import smlauncher.http.HttpResponse;
+import smlauncher.http.PooledHttpClient;
 import smlauncher.util.OperatingSystem;
 
 import javax.swing.*;
@@ -33,6 +35,18 @@ public class GameUpdater extends Observable {
 	private final StarMadeBackupTool backup = new StarMadeBackupTool();
 	private boolean updating;
 
+	/**
+	 * Points the updater at another file server with the layout of files.star-made.org, such as a
+	 * {@link LanCacheServer}. Version indexes, manifests, game files and the mirror list are then all taken from it.
+	 *
+	 * @param filesUrl the base URL of the file server
+	 */
+	public static void setFilesUrl(String filesUrl) {
+		if (!filesUrl.endsWith("/")) filesUrl += "/";
+		FILES_URL = filesUrl;
+		MIRROR_SITE = filesUrl + "mirrors";
+	}
+
 	public GameUpdater(String installDir) {
 		reloadVersion(installDir);
 	}
@@ -173,20 +187,11 @@ public class GameUpdater extends Observable {
 		setChanged();
 		notifyObservers("Retrieving Mirrors");
 		loading = true;
-		URL urlMirrors;
 		try {
 			versions.clear();
-			urlMirrors = new URL(MIRROR_SITE);
-
-			URLConnection openConnection = urlMirrors.openConnection();
-			openConnection.setConnectTimeout(10000);
-			openConnection.setRequestProperty("User-Agent", "StarMade-Updater_" + StarMadeLauncher.LAUNCHER_VERSION);
-			int version = 0;
-			// Read all the text returned by the server
-			BufferedReader in = new BufferedReader(new InputStreamReader(new BufferedInputStream(openConnection.getInputStream()), StandardCharsets.UTF_8));
-			String str;
-			while ((str = in.readLine()) != null) mirrorURLs.add(str);
-			in.close();
+			// downloads pick their mirrors from the same list
+			mirrorURLs.clear();
+			mirrorURLs.addAll(MirrorSelector.refreshMirrorList());
 		} catch (MalformedURLException e) {
 			e.printStackTrace();
 			(new ErrorDialog("Error", "Malformed URL", e)).setVisible(true);
@@ -200,29 +205,16 @@ public class GameUpdater extends Observable {
 		setChanged();
 		notifyObservers("Retrieving Versions");
 		loading = true;
-		URL url;
 		try {
 			versions.clear();
-			url = new URL(branch.url);
-
-			URLConnection openConnection = url.openConnection();
-			openConnection.setConnectTimeout(10000);
-			openConnection.setReadTimeout(10000);
-			openConnection.setRequestProperty("User-Agent", "StarMade-Updater_" + StarMadeLauncher.LAUNCHER_VERSION);
-			// Read all the text returned by the server
-			BufferedReader in = new BufferedReader(new InputStreamReader(new BufferedInputStream(openConnection.getInputStream()), StandardCharsets.UTF_8));
-			String str;
-			while ((str = in.readLine()) != null) {
-				versions.add(IndexFileEntry.create(str, branch));
-			}
+			// shares the index the launcher fetched at startup instead of downloading it again
+			versions.addAll(VersionIndexService.getDefault().getVersions(branch));
 
 			Collections.sort(versions);
 			System.err.println("loaded files (sorted) " + versions);
-			in.close();
 			versionsLoaded = true;
 			setChanged();
 			notifyObservers("versions loaded");
-			openConnection.getInputStream().close();
 		} catch (MalformedURLException e) {
 			e.printStackTrace();
 			(new ErrorDialog("Error", "Malformed URL", e)).setVisible(true);
@@ -356,29 +348,30 @@ public class GameUpdater extends Observable {
 				notifyObservers("Retrieving checksums for v" + version.version + "(build " + version.build + ")");
 
 				// TODO reused code
-				String buildDir = FILES_URL + version.path + "/";
-				ChecksumFile checksums = getChecksums(buildDir);
+				String buildDir = FILES_URL + version.path;
+				ChecksumFile checksums = new ChecksumFile();
+				try (BufferedReader manifest = openChecksums(buildDir)) {
+					checksums.download(forced, buildDir, installDir, installDirStr, new FileDowloadCallback() {
+						@Override
+						public void update(FileDownloadUpdate u) {
+							setChanged();
+							notifyObservers(u);
+						}
+
+						@Override
+						public void update(String u) {
+							setChanged();
+							notifyObservers(u);
+						}
+
+						@Override
+						public void done(FileDownloadUpdate u) {
+
+						}
+					}, manifest);
+				}
 				System.err.println("Downloaded checksums: \n" + checksums);
 
-				checksums.download(forced, buildDir, installDir, installDirStr, new FileDowloadCallback() {
-					@Override
-					public void update(FileDownloadUpdate u) {
-						setChanged();
-						notifyObservers(u);
-					}
-
-					@Override
-					public void update(String u) {
-						setChanged();
-						notifyObservers(u);
-					}
-
-					@Override
-					public void done(FileDownloadUpdate u) {
-
-					}
-				});
-
 				setChanged();
 				notifyObservers("Update Successfull!");
 
@@ -439,16 +432,51 @@ public class GameUpdater extends Observable {
 	}
 
 	public static ChecksumFile getChecksums(String relPath) throws IOException {
-		URL urlVersion = new URL(relPath + "/checksums");
-		URLConnection openConnection = urlVersion.openConnection();
-		openConnection.setRequestProperty("User-Agent", "StarMade-Updater_" + StarMadeLauncher.LAUNCHER_VERSION);
-		openConnection.setConnectTimeout(10000);
-		openConnection.setReadTimeout(10000);
-		BufferedReader in = new BufferedReader(new InputStreamReader(new BufferedInputStream(openConnection.getInputStream()), StandardCharsets.UTF_8));
 		ChecksumFile f = new ChecksumFile();
-		f.parse(in);
-		in.close();
+		try (BufferedReader in = openChecksums(relPath)) {
+			f.parse(in);
+		}
 		return f;
 	}
 
+	/**
+	 * Drops trailing slashes from the URL of a build directory. The manifest cache and the update journal are keyed
+	 * by this URL, so it has to be spelled the same way wherever an update starts.
+	 */
+	public static String normalizeBuildPath(String buildPath) {
+		int end = buildPath.length();
+		while (end > 0 && buildPath.charAt(end - 1) == '/') end--;
+		return buildPath.substring(0, end);
+	}
+
+	/**
+	 * Opens the manifest of a build for reading while it is downloaded, so it can be handed to
+	 * {@link ChecksumFile#download(boolean, String, File, String, FileDowloadCallback, BufferedReader)} before it
+	 * arrived completely.
+	 *
+	 * @return the manifest text, which the caller has to close
+	 */
+	public static BufferedReader openChecksums(String relPath) throws IOException {
+		relPath = normalizeBuildPath(relPath);
+		ManifestCache cache = ManifestCache.getDefault();
+		if (cache != null) return cache.open(relPath);
+		HttpResponse response = PooledHttpClient.getDefault().get(new URL(relPath + "/checksums"), PooledHttpClient.ACCEPT_GZIP);
+		try {
+			response.requireSuccess();
+			return new BufferedReader(new InputStreamReader(new FilterInputStream(response.getDecodedBody()) {
+				@Override
+				public void close() throws IOException {
+					try {
+						super.close();
+					} finally {
+						response.close();
+					}
+				}
+			}, StandardCharsets.UTF_8));
+		} catch (IOException | RuntimeException e) {
+			response.close();
+			throw e;
+		}
+	}
+
 }
@@ -0,0 +1,385 @@
+package smlauncher.starmade;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import smlauncher.http.HttpResponse;
+import smlauncher.http.PooledHttpClient;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Serves game files to other launchers on the local network, so a build is only downloaded from the internet once.
+ * <p>
+ * The server mirrors the layout of {@link GameUpdater#FILES_URL}: version indexes, build manifests and game files
+ * are all answered from a local directory, which is filled from upstream on a miss. A miss is streamed to the client
+ * while it is written to disk, so large files don't keep clients waiting for headers until upstream finished them.
+ * Concurrent misses for the same file share one upstream download and read along the growing file. Files of dated
+ * build directories never change and are kept for good, everything
+ * else is fetched again once it is older than a minute. Range requests are supported, so clients can resume and
+ * split their downloads as they do against the real file server. The mirror list is answered empty, which keeps
+ * clients on the cache instead of spreading them across the internet mirrors.
+ * <p>
+ * Clients use it with {@code -files_url:http://<host>:<port>/}. Hit and miss counts and throughput are served as
+ * text at {@value #STATS_PATH}.
+ */
+public class LanCacheServer {
+
+	public static final int DEFAULT_PORT = 8085;
+	public static final String STATS_PATH = "/_stats";
+	private static final long MUTABLE_TTL = 60 * 1000;
+	private static final Pattern IMMUTABLE_FILE = Pattern.compile(".*/starmade-build_\\d{8}_\\d{6}/.+");
+
+	private final File dir;
+	private final String upstream;
+	private final PooledHttpClient client;
+	private final Map<String, Fill> fills = new ConcurrentHashMap<>();
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong bytesServed = new AtomicLong();
+	private final AtomicLong bytesFetched = new AtomicLong();
+	private final long started = System.nanoTime();
+	private HttpServer server;
+	private ExecutorService executor;
+	private Path root;
+
+	/**
+	 * @param dir      the directory to keep the cached files in
+	 * @param upstream the base URL of the file server to fill from
+	 * @param client   the client to fill with
+	 */
+	public LanCacheServer(File dir, String upstream, PooledHttpClient client) {
+		this.dir = dir;
+		this.upstream = upstream.endsWith("/") ? upstream : upstream + "/";
+		this.client = client;
+	}
+
+	/**
+	 * Starts serving on all interfaces.
+	 *
+	 * @param port the port to listen on, or 0 for any free port
+	 */
+	public synchronized void start(int port) throws IOException {
+		if (!dir.exists() && !dir.mkdirs()) throw new IOException("Could not create " + dir.getAbsolutePath());
+		root = dir.getCanonicalFile().toPath();
+		server = HttpServer.create(new InetSocketAddress(port), 0);
+		server.createContext("/", this::handle);
+		executor = Executors.newCachedThreadPool();
+		server.setExecutor(executor);
+		server.start();
+		System.err.println("[UPDATER] LAN cache serving " + upstream + " on port " + getPort() + " from " + dir.getAbsolutePath());
+	}
+
+	public synchronized void stop() {
+		if (server == null) return;
+		server.stop(0);
+		executor.shutdownNow();
+		server = null;
+	}
+
+	public synchronized int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * @return a one line summary of hits, misses and throughput since the server was created
+	 */
+	public String getStats() {
+		long h = hits.get();
+		long m = misses.get();
+		double seconds = Math.max(1, (System.nanoTime() - started) / 1e9);
+		return String.format("hits=%d misses=%d hitRate=%.1f%% served=%.1f MB (%.2f MB/s) fetched=%.1f MB",
+				h, m, h + m == 0 ? 0 : h * 100d / (h + m),
+				bytesServed.get() / 1048576d, bytesServed.get() / 1048576d / seconds, bytesFetched.get() / 1048576d);
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		try {
+			String method = exchange.getRequestMethod();
+			URI uri = exchange.getRequestURI();
+			String path = uri.normalize().getPath();
+			if (path.equals(STATS_PATH)) {
+				sendText(exchange, 200, getStats() + "\n");
+			} else if (path.equals("/mirrors")) {
+				sendText(exchange, 200, "");
+			} else if (!method.equals("GET") && !method.equals("HEAD")) {
+				sendText(exchange, 405, "Only GET and HEAD are supported\n");
+			} else if (path.endsWith("/") || path.indexOf('\\') >= 0 || resolve(path) == null) {
+				// a backslash separates directories on Windows, and may not escape the cache directory either
+				sendText(exchange, 404, "Not found\n");
+			} else {
+				File file = resolve(path);
+				if (isFresh(path, file)) {
+					hits.incrementAndGet();
+					send(exchange, file, method.equals("HEAD"));
+					return;
+				}
+				misses.incrementAndGet();
+				Fill fill = fill(uri.getRawPath().substring(1), file);
+				if (!fill.awaitFound()) {
+					sendText(exchange, 404, "Not found\n");
+					return;
+				}
+				send(exchange, fill, method.equals("HEAD"));
+			}
+		} catch (IOException | RuntimeException e) {
+			System.err.println("[UPDATER] LAN cache failed to serve " + exchange.getRequestURI() + ": " + e.getMessage());
+			try {
+				sendText(exchange, 502, "Upstream failed: " + e.getMessage() + "\n");
+			} catch (IOException | RuntimeException ignored) {
+				// the response was already started
+			}
+		} finally {
+			exchange.close();
+		}
+	}
+
+	/**
+	 * @return the file a request path is cached in, or null if the path leads out of the cache directory
+	 */
+	private File resolve(String path) throws IOException {
+		File file = new File(dir, path).getCanonicalFile();
+		Path resolved = file.toPath();
+		return resolved.startsWith(root) && !resolved.equals(root) ? file : null;
+	}
+
+	private static boolean isFresh(String path, File file) {
+		if (!file.isFile()) return false;
+		return IMMUTABLE_FILE.matcher(path).matches() || System.currentTimeMillis() - file.lastModified() < MUTABLE_TTL;
+	}
+
+	/**
+	 * Starts fetching a file from upstream, or joins the fetch another request already started.
+	 *
+	 * @param rawPath the path relative to the upstream URL, as requested
+	 */
+	private Fill fill(String rawPath, File file) throws IOException {
+		String key = file.getAbsolutePath();
+		Fill fill = new Fill(file);
+		Fill running = fills.putIfAbsent(key, fill);
+		if (running != null) return running;
+		try {
+			executor.execute(() -> fetch(rawPath, fill, key));
+		} catch (RejectedExecutionException e) {
+			fills.remove(key, fill);
+			throw new IOException("LAN cache is stopping", e);
+		}
+		return fill;
+	}
+
+	private void fetch(String rawPath, Fill fill, String key) {
+		File tmp = null;
+		try (HttpResponse response = client.get(new URL(upstream + rawPath), Collections.<String, String>emptyMap())) {
+			if (response.getStatus() == 404) {
+				fill.found.complete(false);
+				fill.finish(null);
+				return;
+			}
+			response.requireSuccess();
+			File parent = fill.file.getParentFile();
+			if (!parent.exists() && !parent.mkdirs() && !parent.exists()) throw new IOException("Could not create " + parent.getAbsolutePath());
+			tmp = File.createTempFile(fill.file.getName() + ".", ".tmp", parent);
+			fill.tmp = tmp;
+			fill.length = response.getContentLength();
+			try (InputStream in = response.getBody(); FileChannel out = FileChannel.open(tmp.toPath(), StandardOpenOption.WRITE)) {
+				fill.found.complete(true);
+				byte[] buffer = new byte[64 * 1024];
+				for (int n; (n = in.read(buffer)) != -1; ) {
+					ByteBuffer chunk = ByteBuffer.wrap(buffer, 0, n);
+					while (chunk.hasRemaining()) out.write(chunk);
+					bytesFetched.addAndGet(n);
+					fill.wrote(n);
+				}
+			}
+			// readers open the temporary file under the same lock, so none of them can miss the move
+			synchronized (fill) {
+				LocalHashIndex.moveAtomically(tmp, fill.file);
+				fill.finish(null);
+			}
+			System.err.println("[UPDATER] LAN cache filled " + rawPath + " from upstream");
+		} catch (IOException | RuntimeException e) {
+			System.err.println("[UPDATER] LAN cache failed to fill " + rawPath + ": " + e.getMessage());
+			IOException error = e instanceof IOException ? (IOException) e : new IOException(e);
+			fill.found.completeExceptionally(error);
+			fill.finish(error);
+			if (tmp != null) tmp.delete();
+		} finally {
+			fills.remove(key, fill);
+		}
+	}
+
+	/**
+	 * Serves a file that may still be filled from upstream, reading along as it grows. Without a known length the
+	 * response has to wait for the whole file.
+	 */
+	private void send(HttpExchange exchange, Fill fill, boolean head) throws IOException {
+		FileChannel in = null;
+		synchronized (fill) {
+			if (!fill.done && fill.length >= 0) in = FileChannel.open(fill.tmp.toPath(), StandardOpenOption.READ);
+		}
+		if (in == null) {
+			fill.awaitDone();
+			send(exchange, fill.file, head);
+			return;
+		}
+		try {
+			send(exchange, in, fill.length, fill, head);
+		} finally {
+			in.close();
+		}
+	}
+
+	private void send(HttpExchange exchange, File file, boolean head) throws IOException {
+		try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			send(exchange, in, in.size(), null, head);
+		}
+	}
+
+	/**
+	 * @param fill the fill to wait for before reading bytes it hasn't written yet, or null for a complete file
+	 */
+	private void send(HttpExchange exchange, FileChannel in, long length, Fill fill, boolean head) throws IOException {
+		long from = 0;
+		long to = length - 1;
+		int status = 200;
+		String range = exchange.getRequestHeaders().getFirst("Range");
+		if (range != null && range.startsWith("bytes=") && !range.contains(",")) {
+			String[] bounds = range.substring("bytes=".length()).trim().split("-", 2);
+			try {
+				if (bounds[0].isEmpty()) {
+					from = Math.max(0, length - Long.parseLong(bounds[1]));
+				} else {
+					from = Long.parseLong(bounds[0]);
+					if (bounds.length > 1 && !bounds[1].isEmpty()) to = Math.min(to, Long.parseLong(bounds[1]));
+				}
+			} catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+				from = length;
+			}
+			if (from >= length || from > to) {
+				exchange.getResponseHeaders().add("Content-Range", "bytes */" + length);
+				exchange.sendResponseHeaders(416, -1);
+				return;
+			}
+			status = 206;
+			exchange.getResponseHeaders().add("Content-Range", "bytes " + from + "-" + to + "/" + length);
+		}
+		long count = to + 1 - from;
+		exchange.getResponseHeaders().add("Accept-Ranges", "bytes");
+		exchange.getResponseHeaders().add("Content-Type", "application/octet-stream");
+		if (head) {
+			exchange.getResponseHeaders().add("Content-Length", String.valueOf(count));
+			exchange.sendResponseHeaders(status, -1);
+			return;
+		}
+		exchange.sendResponseHeaders(status, count == 0 ? -1 : count);
+		try (OutputStream body = exchange.getResponseBody()) {
+			WritableByteChannel out = Channels.newChannel(body);
+			for (long position = from; position <= to; ) {
+				long end = fill != null ? Math.min(to + 1, fill.awaitWritten(position)) : to + 1;
+				long n = in.transferTo(position, end - position, out);
+				position += n;
+				bytesServed.addAndGet(n);
+			}
+		}
+	}
+
+	private static void sendText(HttpExchange exchange, int status, String text) throws IOException {
+		byte[] body = text.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().add("Content-Type", "text/plain; charset=utf-8");
+		exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+		if (body.length > 0) exchange.getResponseBody().write(body);
+	}
+
+	/**
+	 * A file being fetched from upstream into a temporary file, which the requests for it read along.
+	 */
+	private static final class Fill {
+		final File file;
+		final CompletableFuture<Boolean> found = new CompletableFuture<>();
+		// set before found completes with true
+		volatile File tmp;
+		volatile long length = -1;
+		private long written;
+		private boolean done;
+		private IOException error;
+
+		Fill(File file) {
+			this.file = file;
+		}
+
+		/**
+		 * @return false if upstream doesn't have the file
+		 */
+		boolean awaitFound() throws IOException {
+			try {
+				return found.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for " + file.getName());
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+				throw new IOException(e.getCause());
+			}
+		}
+
+		synchronized void wrote(long n) {
+			written += n;
+			notifyAll();
+		}
+
+		synchronized void finish(IOException error) {
+			this.error = error;
+			done = true;
+			notifyAll();
+		}
+
+		/**
+		 * Waits until the byte at the given position was written.
+		 *
+		 * @return the number of bytes written so far, more than the position
+		 * @throws IOException if the fill failed or ended before the position
+		 */
+		synchronized long awaitWritten(long position) throws IOException {
+			while (!done && written <= position) await();
+			if (error != null) throw error;
+			if (written <= position) throw new EOFException("Upstream ended " + file.getName() + " after " + written + " bytes");
+			return written;
+		}
+
+		synchronized void awaitDone() throws IOException {
+			while (!done) await();
+			if (error != null) throw error;
+		}
+
+		private void await() throws InterruptedIOException {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for " + file.getName());
+			}
+		}
+	}
+}
@@ -0,0 +1,210 @@
+package smlauncher.starmade;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Persistent index of the SHA-1 checksums of files in an install directory.
+ * <p>
+ * Every entry remembers the size, modification time and file key (inode) the checksum was computed for. As long
+ * as a file's stat data still matches, its checksum is served from the index instead of re-hashing the file.
+ * The index is kept in {@code .launcher/hashindex} inside the install directory and is always replaced atomically,
+ * so a crash can only leave an older index behind, never a half written one.
+ */
+public class LocalHashIndex {
+
+	public static final String LAUNCHER_DIR = ".launcher";
+	private static final String INDEX_FILE = "hashindex";
+	private static final String HEADER = "#hashindex 1";
+	private static final long SAVE_INTERVAL = 2000;
+
+	private final File indexFile;
+	private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+	private volatile boolean dirty;
+	private long lastSave;
+
+	private LocalHashIndex(File installDir) {
+		this.indexFile = new File(new File(installDir, LAUNCHER_DIR), INDEX_FILE);
+	}
+
+	/**
+	 * Loads the hash index of an install directory. A missing or unreadable index results in an empty one.
+	 *
+	 * @param installDir the install directory
+	 * @return the index
+	 */
+	public static LocalHashIndex load(File installDir) {
+		LocalHashIndex index = new LocalHashIndex(installDir);
+		if (!index.indexFile.exists()) return index;
+
+		try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(index.indexFile), StandardCharsets.UTF_8))) {
+			if (!HEADER.equals(in.readLine())) {
+				System.err.println("[UPDATER] Ignoring hash index with unknown format: " + index.indexFile.getAbsolutePath());
+				return index;
+			}
+			String line;
+			while ((line = in.readLine()) != null) {
+				String[] parts = line.split("\t", 5);
+				if (parts.length != 5) continue;
+				try {
+					index.entries.put(parts[4], new Entry(Long.parseLong(parts[0]), Long.parseLong(parts[1]), parts[2], parts[3]));
+				} catch (NumberFormatException ignored) {
+				}
+			}
+		} catch (IOException e) {
+			System.err.println("[UPDATER] Could not read hash index, re-hashing install: " + e.getMessage());
+			index.entries.clear();
+		}
+		return index;
+	}
+
+	/**
+	 * Returns the SHA-1 checksum of a file, hashing it only if its stat data changed since it was last indexed.
+	 *
+	 * @param relativePath the path of the file relative to the install directory
+	 * @param file         the file
+	 * @return the hex encoded checksum
+	 * @throws IOException if the file cannot be read
+	 */
+	public String getChecksum(String relativePath, File file) throws IOException {
+		BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+		Entry entry = entries.get(relativePath);
+		if (entry != null && entry.matches(attributes)) return entry.checksum;
+
+		String checksum = FileUtil.getSha1Checksum(file);
+		put(relativePath, attributes, checksum);
+		return checksum;
+	}
+
+	/**
+	 * Checks without hashing that a file is still the one indexed with the given checksum.
+	 *
+	 * @param relativePath the path of the file relative to the install directory
+	 * @param file         the file
+	 * @param checksum     the hex encoded checksum the file should have
+	 * @return true if the file's stat data matches its index entry and the entry has that checksum
+	 */
+	public boolean isUnchanged(String relativePath, File file, String checksum) {
+		Entry entry = entries.get(relativePath);
+		if (entry == null || !entry.checksum.equals(checksum)) return false;
+		try {
+			return entry.matches(Files.readAttributes(file.toPath(), BasicFileAttributes.class));
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Records the checksum of a file that was just written, without hashing it again.
+	 *
+	 * @param relativePath the path of the file relative to the install directory
+	 * @param file         the file
+	 * @param checksum     the hex encoded checksum of the file's content
+	 * @throws IOException if the file's attributes cannot be read
+	 */
+	public void update(String relativePath, File file, String checksum) throws IOException {
+		put(relativePath, Files.readAttributes(file.toPath(), BasicFileAttributes.class), checksum);
+	}
+
+	/**
+	 * @return the checksums of all indexed files
+	 */
+	public Set<String> getChecksums() {
+		Set<String> checksums = new HashSet<>();
+		for (Entry entry : entries.values()) checksums.add(entry.checksum);
+		return checksums;
+	}
+
+	public void remove(String relativePath) {
+		if (entries.remove(relativePath) != null) dirty = true;
+	}
+
+	/**
+	 * Saves the index if it changed and the last save is older than {@link #SAVE_INTERVAL}, so committing
+	 * thousands of small files doesn't rewrite the index thousands of times.
+	 */
+	public void saveIfDue() {
+		if (!dirty) return;
+		synchronized (this) {
+			if (System.currentTimeMillis() - lastSave < SAVE_INTERVAL) return;
+		}
+		trySave();
+	}
+
+	/**
+	 * Saves the index if it changed, logging instead of failing since a lost index only costs a re-hash.
+	 */
+	public void trySave() {
+		try {
+			save();
+		} catch (IOException e) {
+			System.err.println("[UPDATER] Could not save hash index: " + e.getMessage());
+		}
+	}
+
+	public synchronized void save() throws IOException {
+		if (!dirty) return;
+		dirty = false;
+		lastSave = System.currentTimeMillis();
+
+		File dir = indexFile.getParentFile();
+		if (!dir.exists() && !dir.mkdirs()) throw new IOException("Could not create " + dir.getAbsolutePath());
+
+		File tmp = new File(dir, INDEX_FILE + ".tmp");
+		try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8))) {
+			out.write(HEADER);
+			out.write('\n');
+			for (Map.Entry<String, Entry> e : entries.entrySet()) {
+				Entry entry = e.getValue();
+				out.write(entry.size + "\t" + entry.modified + "\t" + entry.fileKey + "\t" + entry.checksum + "\t" + e.getKey());
+				out.write('\n');
+			}
+		} catch (IOException e) {
+			dirty = true;
+			throw e;
+		}
+		moveAtomically(tmp, indexFile);
+	}
+
+	static void moveAtomically(File source, File target) throws IOException {
+		try {
+			Files.move(source.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	private void put(String relativePath, BasicFileAttributes attributes, String checksum) {
+		entries.put(relativePath, new Entry(attributes.size(), attributes.lastModifiedTime().toMillis(), fileKey(attributes), checksum));
+		dirty = true;
+	}
+
+	private static String fileKey(BasicFileAttributes attributes) {
+		Object key = attributes.fileKey(); // null on windows
+		return key != null ? key.toString().replace('\t', ' ') : "-";
+	}
+
+	private static final class Entry {
+		final long size;
+		final long modified;
+		final String fileKey;
+		final String checksum;
+
+		Entry(long size, long modified, String fileKey, String checksum) {
+			this.size = size;
+			this.modified = modified;
+			this.fileKey = fileKey;
+			this.checksum = checksum;
+		}
+
+		boolean matches(BasicFileAttributes attributes) {
+			return size == attributes.size() && modified == attributes.lastModifiedTime().toMillis() && fileKey.equals(fileKey(attributes));
+		}
+	}
+}
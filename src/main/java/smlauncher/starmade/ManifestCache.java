@@ -0,0 +1,221 @@
+package smlauncher.starmade;
+
+import smlauncher.http.HttpResponse;
+import smlauncher.http.PooledHttpClient;
+import smlauncher.util.OperatingSystem;
+
+import java.io.*;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Properties;
+import java.util.regex.Pattern;
+
+/**
+ * On-disk cache of the {@code checksums} manifests of builds, kept in {@code manifests} of the app directory.
+ * <p>
+ * Builds are published into a new directory named after their build date and never change afterwards, so their
+ * manifests are served from disk without a request. Manifests of other paths, or of servers that don't follow that
+ * naming, are revalidated with {@code If-None-Match} and {@code If-Modified-Since} and only downloaded again if they
+ * changed. The cache is bounded in size; the manifests used least recently are evicted first.
+ */
+public class ManifestCache {
+
+	public static final long DEFAULT_MAX_SIZE = 32 * 1024 * 1024;
+	private static final Pattern IMMUTABLE_BUILD = Pattern.compile(".*/starmade-build_\\d{8}_\\d{6}/?$");
+	private static final String MANIFEST_SUFFIX = ".checksums";
+	private static ManifestCache defaultCache;
+
+	private final File dir;
+	private final long maxSize;
+	private final PooledHttpClient client;
+	private final ConditionalCache cache;
+
+	/**
+	 * @param dir     the directory to keep the manifests in
+	 * @param maxSize the maximum combined size of the cached manifests in bytes
+	 * @param client  the client to download with
+	 */
+	public ManifestCache(File dir, long maxSize, PooledHttpClient client) {
+		this.dir = dir;
+		this.maxSize = maxSize;
+		this.client = client;
+		this.cache = new ConditionalCache(dir, MANIFEST_SUFFIX);
+	}
+
+	/**
+	 * @return the cache in the app directory, or null if the app directory can't be used
+	 */
+	public static synchronized ManifestCache getDefault() {
+		if (defaultCache == null) {
+			try {
+				defaultCache = new ManifestCache(new File(OperatingSystem.getAppDir(), "manifests"), DEFAULT_MAX_SIZE, PooledHttpClient.getDefault());
+			} catch (IOException e) {
+				System.err.println("[UPDATER] Not caching manifests: " + e.getMessage());
+				return null;
+			}
+		}
+		return defaultCache;
+	}
+
+	/**
+	 * @return whether the build at the given URL can never change, going by its name
+	 */
+	static boolean isImmutable(String buildPath) {
+		return IMMUTABLE_BUILD.matcher(buildPath).matches();
+	}
+
+	/**
+	 * Returns the manifest of a build, from the cache if it is still current.
+	 *
+	 * @param buildPath the URL of the build directory
+	 * @return the parsed manifest
+	 * @throws IOException if the manifest could neither be downloaded nor read from the cache
+	 */
+	public ChecksumFile get(String buildPath) throws IOException {
+		ChecksumFile checksums = new ChecksumFile();
+		try (BufferedReader in = open(buildPath)) {
+			checksums.parse(in);
+		}
+		return checksums;
+	}
+
+	/**
+	 * Opens the manifest of a build for reading, from the cache if it is still current. A downloaded manifest is
+	 * streamed to the caller while it is written to the cache, and only cached once it was read to the end.
+	 *
+	 * @param buildDir the URL of the build directory, with or without a trailing slash
+	 * @return the manifest text, which the caller has to close
+	 * @throws IOException if the manifest could neither be downloaded nor read from the cache
+	 */
+	public BufferedReader open(String buildDir) throws IOException {
+		String buildPath = GameUpdater.normalizeBuildPath(buildDir);
+		File manifest = cache.file(buildPath);
+		Properties meta;
+		synchronized (this) {
+			meta = cache.readMeta(buildPath);
+			if (meta != null && (isImmutable(buildPath) || Boolean.parseBoolean(meta.getProperty("immutable")))) {
+				System.err.println("[UPDATER] Using cached manifest of immutable build " + buildPath);
+				return read(manifest);
+			}
+		}
+
+		HttpResponse response = client.get(new URL(buildPath + "/checksums"), ConditionalCache.requestHeaders(meta));
+		try {
+			if (response.getStatus() == 304 && meta != null) {
+				response.close();
+				System.err.println("[UPDATER] Cached manifest of " + buildPath + " is still current");
+				synchronized (this) {
+					return read(manifest);
+				}
+			}
+			response.requireSuccess();
+			Properties fresh = ConditionalCache.validators(buildPath, response);
+			String cacheControl = response.getHeader("Cache-Control");
+			fresh.setProperty("immutable", String.valueOf(cacheControl != null && cacheControl.contains("immutable")));
+
+			File tmp = cache.tempFile(buildPath);
+			return new BufferedReader(new InputStreamReader(new CachingInputStream(response, tmp, buildPath, fresh), StandardCharsets.UTF_8));
+		} catch (IOException | RuntimeException e) {
+			response.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Moves a completely downloaded manifest into the cache.
+	 */
+	private synchronized void store(File tmp, String buildPath, Properties meta) throws IOException {
+		cache.store(buildPath, tmp, meta);
+		evict();
+	}
+
+	/**
+	 * Deletes the manifests used least recently until the cache fits its size bound.
+	 */
+	private void evict() {
+		File[] manifests = dir.listFiles((d, name) -> name.endsWith(MANIFEST_SUFFIX));
+		if (manifests == null) return;
+		long size = 0;
+		for (File manifest : manifests) size += manifest.length();
+		if (size <= maxSize) return;
+
+		Arrays.sort(manifests, Comparator.comparingLong(File::lastModified));
+		for (int i = 0; i < manifests.length - 1 && size > maxSize; i++) {
+			File manifest = manifests[i];
+			size -= manifest.length();
+			cache.delete(manifest);
+			System.err.println("[UPDATER] Evicted cached manifest " + manifest.getName());
+		}
+	}
+
+	/**
+	 * Opens a cached manifest and marks it as recently used.
+	 */
+	private static BufferedReader read(File manifest) throws IOException {
+		BufferedReader in = Files.newBufferedReader(manifest.toPath(), StandardCharsets.UTF_8);
+		manifest.setLastModified(System.currentTimeMillis());
+		return in;
+	}
+
+	/**
+	 * Copies a downloaded manifest into a temporary file while it is read, and caches it when closed after the end
+	 * was reached. A manifest that was not read completely is discarded.
+	 */
+	private final class CachingInputStream extends FilterInputStream {
+		private final HttpResponse response;
+		private final File tmp;
+		private final String buildPath;
+		private final Properties meta;
+		private final OutputStream copy;
+		private boolean complete;
+
+		CachingInputStream(HttpResponse response, File tmp, String buildPath, Properties meta) throws IOException {
+			super(response.getDecodedBody());
+			this.response = response;
+			this.tmp = tmp;
+			this.buildPath = buildPath;
+			this.meta = meta;
+			this.copy = new BufferedOutputStream(new FileOutputStream(tmp));
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b == -1) complete = true;
+			else copy.write(b);
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = super.read(b, off, len);
+			if (n == -1) complete = true;
+			else copy.write(b, off, n);
+			return n;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			throw new IOException("Skipping is not supported while caching");
+		}
+
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				copy.close();
+				if (complete) store(tmp, buildPath, meta);
+			} finally {
+				tmp.delete();
+				response.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,246 @@
+package smlauncher.starmade;
+
+import smlauncher.http.HttpResponse;
+import smlauncher.http.PooledHttpClient;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Spreads the downloads of a build across the mirrors of {@link GameUpdater#FILES_URL}.
+ * <p>
+ * Each mirror is probed for the build's checksum file first; mirrors that don't answer or don't have the build are
+ * never used. Files are then assigned to a random healthy mirror, weighted by the throughput measured on it so far.
+ * A mirror that fails repeatedly is benched for a while.
+ */
+public class MirrorSelector {
+
+	private static final long PROBE_TIMEOUT = 5000;
+	private static final double DEFAULT_THROUGHPUT = 1024 * 1024;
+	private static final double THROUGHPUT_SMOOTHING = 0.2;
+	private static final int MAX_FAILURES = 3;
+	private static final long BENCH_TIME = 60000;
+
+	private static List<String> mirrorList;
+
+	private final List<Mirror> mirrors = new ArrayList<>();
+	private final String buildPath;
+
+	/**
+	 * @param baseUrls  the base URLs of the mirrors, each mirroring the layout of {@link GameUpdater#FILES_URL}
+	 * @param buildPath the path of the build relative to the base URLs
+	 */
+	public MirrorSelector(List<String> baseUrls, String buildPath) {
+		this.buildPath = buildPath;
+		for (String baseUrl : baseUrls) {
+			if (!baseUrl.isEmpty() && !baseUrl.endsWith("/")) baseUrl += "/";
+			boolean duplicate = false;
+			for (Mirror mirror : mirrors) duplicate |= mirror.baseUrl.equals(baseUrl);
+			if (!duplicate) mirrors.add(new Mirror(baseUrl));
+		}
+	}
+
+	/**
+	 * Creates a selector for a build URL. Builds hosted on {@link GameUpdater#FILES_URL} may be downloaded from any
+	 * mirror, other URLs are only downloaded from directly.
+	 *
+	 * @param buildUrl the full URL of the build directory
+	 */
+	public static MirrorSelector forBuild(String buildUrl) {
+		if (!buildUrl.startsWith(GameUpdater.FILES_URL)) {
+			return new MirrorSelector(Collections.singletonList(""), buildUrl);
+		}
+		List<String> baseUrls = new ArrayList<>();
+		baseUrls.add(GameUpdater.FILES_URL);
+		baseUrls.addAll(getMirrorList());
+		return new MirrorSelector(baseUrls, buildUrl.substring(GameUpdater.FILES_URL.length()));
+	}
+
+	/**
+	 * @return the mirrors listed at {@link GameUpdater#MIRROR_SITE}, fetched once per launcher run
+	 */
+	public static synchronized List<String> getMirrorList() {
+		if (mirrorList == null) {
+			try {
+				mirrorList = loadMirrorList();
+			} catch (IOException e) {
+				System.err.println("[UPDATER] Could not load mirror list: " + e.getMessage());
+				return Collections.emptyList();
+			}
+		}
+		return mirrorList;
+	}
+
+	/**
+	 * Fetches the mirror list again and caches it for the following downloads.
+	 *
+	 * @return the base URLs of all mirrors
+	 */
+	public static List<String> refreshMirrorList() throws IOException {
+		List<String> mirrors = loadMirrorList();
+		synchronized (MirrorSelector.class) {
+			mirrorList = mirrors;
+		}
+		return mirrors;
+	}
+
+	private static List<String> loadMirrorList() throws IOException {
+		List<String> mirrors = new ArrayList<>();
+		try (HttpResponse response = PooledHttpClient.getDefault().get(new URL(GameUpdater.MIRROR_SITE)).requireSuccess();
+		     BufferedReader in = new BufferedReader(new InputStreamReader(response.getBody(), StandardCharsets.UTF_8))) {
+			String line;
+			while ((line = in.readLine()) != null) {
+				line = line.trim();
+				if (line.startsWith("http://") || line.startsWith("https://")) mirrors.add(line);
+			}
+		}
+		return mirrors;
+	}
+
+	/**
+	 * Probes all mirrors concurrently for the build's checksum file. Mirrors that don't answer in time are left out.
+	 */
+	public void probe() {
+		if (mirrors.size() == 1) {
+			mirrors.get(0).healthy = true; // nothing to choose from
+			return;
+		}
+		List<CompletableFuture<Void>> probes = new ArrayList<>();
+		for (Mirror mirror : mirrors) {
+			probes.add(CompletableFuture.runAsync(() -> mirror.probe(buildPath)));
+		}
+		try {
+			CompletableFuture.allOf(probes.toArray(new CompletableFuture<?>[0])).get(PROBE_TIMEOUT, TimeUnit.MILLISECONDS);
+		} catch (TimeoutException e) {
+			System.err.println("[UPDATER] Some mirrors did not answer within " + PROBE_TIMEOUT + " ms");
+		} catch (Exception e) {
+			System.err.println("[UPDATER] Probing mirrors failed: " + e);
+		}
+
+		double bestLatency = Double.MAX_VALUE;
+		for (Mirror mirror : mirrors) {
+			if (mirror.healthy) bestLatency = Math.min(bestLatency, mirror.latency);
+		}
+		for (Mirror mirror : mirrors) {
+			// until something was downloaded from a mirror, assume throughput scales with latency
+			if (mirror.healthy) mirror.throughput = DEFAULT_THROUGHPUT * Math.max(1, bestLatency) / Math.max(1, mirror.latency);
+			System.err.println("[UPDATER] Mirror " + mirror);
+		}
+		if (!hasHealthyMirror()) {
+			// the probes may all have failed for unrelated reasons, so still try the primary
+			mirrors.get(0).healthy = true;
+			mirrors.get(0).throughput = DEFAULT_THROUGHPUT;
+		}
+	}
+
+	/**
+	 * Picks a mirror for a file, weighted by measured throughput.
+	 *
+	 * @param exclude the mirrors that already failed for this file
+	 * @return the mirror, or null if every healthy mirror was excluded
+	 */
+	public synchronized Mirror select(Collection<Mirror> exclude) {
+		long now = System.currentTimeMillis();
+		double totalWeight = 0;
+		List<Mirror> candidates = new ArrayList<>();
+		for (Mirror mirror : mirrors) {
+			if (!mirror.healthy || mirror.benchedUntil > now || exclude.contains(mirror)) continue;
+			candidates.add(mirror);
+			totalWeight += mirror.throughput;
+		}
+		if (candidates.isEmpty()) {
+			// all benched, fall back to any mirror that wasn't tried for this file yet
+			for (Mirror mirror : mirrors) {
+				if (mirror.healthy && !exclude.contains(mirror)) return mirror;
+			}
+			return null;
+		}
+		double pick = ThreadLocalRandom.current().nextDouble() * totalWeight;
+		for (Mirror mirror : candidates) {
+			pick -= mirror.throughput;
+			if (pick <= 0) return mirror;
+		}
+		return candidates.get(candidates.size() - 1);
+	}
+
+	public synchronized void reportSuccess(Mirror mirror, long bytes, long millis) {
+		mirror.failures = 0;
+		if (millis > 0) {
+			double throughput = bytes * 1000.0d / millis;
+			mirror.throughput = mirror.throughput * (1 - THROUGHPUT_SMOOTHING) + throughput * THROUGHPUT_SMOOTHING;
+		}
+	}
+
+	public synchronized void reportFailure(Mirror mirror) {
+		if (++mirror.failures >= MAX_FAILURES) {
+			System.err.println("[UPDATER] Benching mirror " + mirror.baseUrl + " after " + mirror.failures + " failures");
+			mirror.benchedUntil = System.currentTimeMillis() + BENCH_TIME;
+			mirror.failures = 0;
+		}
+	}
+
+	/**
+	 * @return the number of mirrors, including unhealthy ones
+	 */
+	public int size() {
+		return mirrors.size();
+	}
+
+	public boolean hasHealthyMirror() {
+		for (Mirror mirror : mirrors) {
+			if (mirror.healthy) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @param mirror       the mirror to download from
+	 * @param relativePath the path of the file inside the build
+	 * @return the URL of the file on the mirror
+	 */
+	public String getFileUrl(Mirror mirror, String relativePath) {
+		return mirror.baseUrl + buildPath + relativePath;
+	}
+
+	/**
+	 * A mirror and what is known about its performance.
+	 */
+	public static final class Mirror {
+		final String baseUrl;
+		volatile boolean healthy;
+		volatile double latency = Double.MAX_VALUE;
+		double throughput;
+		int failures;
+		long benchedUntil;
+
+		Mirror(String baseUrl) {
+			this.baseUrl = baseUrl;
+		}
+
+		void probe(String buildPath) {
+			long start = System.nanoTime();
+			try (HttpResponse response = PooledHttpClient.getDefault().execute("HEAD", new URL(baseUrl + buildPath + "/checksums"), Collections.emptyMap())) {
+				if (response.isSuccessful()) {
+					latency = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+					healthy = true;
+				}
+			} catch (IOException e) {
+				System.err.println("[UPDATER] Mirror " + baseUrl + " is not reachable: " + e.getMessage());
+			}
+		}
+
+		@Override
+		public String toString() {
+			if (!healthy) return baseUrl + " (unavailable)";
+			return latency == Double.MAX_VALUE ? baseUrl : baseUrl + " (" + (long) latency + " ms)";
+		}
+	}
+}
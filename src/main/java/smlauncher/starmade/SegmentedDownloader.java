@@ -0,0 +1,285 @@
+package smlauncher.starmade;
+
+import smlauncher.http.HttpResponse;
+import smlauncher.http.HttpStatusException;
+import smlauncher.http.PooledHttpClient;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Downloads large files over several connections at once.
+ * <p>
+ * Files of at least {@link #getThreshold()} bytes are split into HTTP range segments that are fetched concurrently
+ * and written at their offsets into the preallocated destination. The first segment doubles as the probe for range
+ * support: if the server answers it with the whole file, that response is simply written out instead. A failed
+ * segment is retried from where it stopped, without touching the others.
+ */
+public class SegmentedDownloader {
+
+	public static final long DEFAULT_THRESHOLD = 16 * 1024 * 1024;
+	public static final int DEFAULT_SEGMENTS = 4;
+	private static final int MAX_SEGMENT_ATTEMPTS = 3;
+	private static final long RETRY_DELAY = 500;
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final ThreadLocal<ByteBuffer> BUFFER = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(BUFFER_SIZE));
+	private static final ExecutorService SEGMENT_POOL = Executors.newCachedThreadPool(new ThreadFactory() {
+		private final AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "download-segment-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+	private static SegmentedDownloader defaultDownloader;
+
+	private final PooledHttpClient client;
+	private final int segments;
+	private final long threshold;
+
+	/**
+	 * @param client    the client to download with
+	 * @param segments  the number of segments to split large files into
+	 * @param threshold the minimum size of files to split
+	 */
+	public SegmentedDownloader(PooledHttpClient client, int segments, long threshold) {
+		this.client = client;
+		this.segments = segments;
+		this.threshold = threshold;
+	}
+
+	/**
+	 * @return the downloader using the default client, splitting files of 16 MB and more into 4 segments
+	 */
+	public static synchronized SegmentedDownloader getDefault() {
+		if (defaultDownloader == null) defaultDownloader = new SegmentedDownloader(PooledHttpClient.getDefault(), DEFAULT_SEGMENTS, DEFAULT_THRESHOLD);
+		return defaultDownloader;
+	}
+
+	public long getThreshold() {
+		return threshold;
+	}
+
+	/**
+	 * @return whether a file of the given size would be split into segments
+	 */
+	public boolean isSegmented(long size) {
+		return segments > 1 && size >= threshold;
+	}
+
+	/**
+	 * Asks the server for the size of a file. Some CDNs refuse HEAD requests with a 403 or 405 while serving GET
+	 * just fine, so a refused request only means the size is unknown.
+	 *
+	 * @return the size in bytes, or -1 if the server didn't say
+	 * @throws IOException if the server could not be reached
+	 */
+	public long getContentLength(URL source) throws IOException {
+		try (HttpResponse response = client.execute("HEAD", source, Collections.<String, String>emptyMap()).requireSuccess()) {
+			return response.getContentLength();
+		} catch (HttpStatusException e) {
+			System.err.println("[UPDATER] Could not get the size of " + source + ": " + e.getMessage());
+			return -1;
+		}
+	}
+
+	/**
+	 * Downloads a file, in segments if it is large enough. The destination is replaced, small files are resumed like
+	 * {@link FileUtil#copyURLToFile(URL, File, int, int, DownloadCallback, String, String, boolean)} does.
+	 *
+	 * @param source      the URL to download
+	 * @param destination the file to write to
+	 * @param size        the size of the file, or a negative value to ask the server for it
+	 * @param cb          the callback to report the downloaded bytes to, or null. It is never called concurrently.
+	 * @return the SHA-1 digest of the downloaded file
+	 * @throws IOException if the download failed
+	 */
+	public byte[] download(URL source, File destination, long size, DownloadCallback cb) throws IOException {
+		if (size < 0 && segments > 1) size = getContentLength(source);
+		if (!isSegmented(size)) {
+			MessageDigest digest = newDigest();
+			FileUtil.copyURLToFile(source, destination, 0, 0, cb, "dev", "dev", true, digest);
+			return digest.digest();
+		}
+
+		boolean success = false;
+		try {
+			downloadSegmented(source, destination, size, new SharedCallback(cb));
+			if (cb != null) cb.doneDownloading();
+			success = true;
+		} finally {
+			// the holes of a failed download can't be told apart from content, so it can't be resumed
+			if (!success) destination.delete();
+		}
+		// segments arrive out of order, so the file has to be read back once to hash it
+		return FileHasher.get().sha1(destination).clone();
+	}
+
+	private void downloadSegmented(URL source, File destination, long size, SharedCallback cb) throws IOException {
+		long segmentSize = (size + segments - 1) / segments;
+		List<Segment> parts = new ArrayList<>();
+		for (long start = 0; start < size; start += segmentSize) {
+			parts.add(new Segment(start, Math.min(size, start + segmentSize) - 1));
+		}
+
+		try (FileChannel out = FileChannel.open(destination.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			Segment first = parts.get(0);
+			HttpResponse response = client.get(source, Collections.singletonMap("Range", first.range()));
+			try {
+				response.requireSuccess();
+				if (response.getStatus() != 206 || !FileUtil.isRangeFrom(response.getHeader("Content-Range"), 0)) {
+					System.err.println("[UPDATER] Server ignored range request for " + source + ", downloading in a single stream");
+					try {
+						write(response.getBody(), out, new Segment(0, size - 1), cb);
+					} finally {
+						response.close();
+					}
+					return;
+				}
+			} catch (IOException | RuntimeException e) {
+				response.close();
+				throw e;
+			}
+
+			// preallocate, so segments can be written in any order
+			out.write(ByteBuffer.wrap(new byte[1]), size - 1);
+			List<Future<?>> futures = new ArrayList<>();
+			for (Segment segment : parts.subList(1, parts.size())) {
+				futures.add(SEGMENT_POOL.submit(() -> {
+					fetch(source, out, segment, cb, null);
+					return null;
+				}));
+			}
+			try {
+				fetch(source, out, first, cb, response);
+				for (Future<?> future : futures) future.get();
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+				if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+				throw new IOException(e.getCause());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Download of " + source + " was interrupted");
+			} finally {
+				for (Future<?> future : futures) future.cancel(true);
+			}
+		}
+	}
+
+	/**
+	 * Fetches the rest of a segment, retrying from where it stopped.
+	 *
+	 * @param response the response to read the segment from first, or null to request it
+	 */
+	private void fetch(URL source, FileChannel out, Segment segment, SharedCallback cb, HttpResponse response) throws IOException {
+		for (int attempt = 1; ; attempt++) {
+			try {
+				if (response == null) {
+					response = client.get(source, Collections.singletonMap("Range", segment.range()));
+					response.requireSuccess();
+					if (response.getStatus() != 206 || !FileUtil.isRangeFrom(response.getHeader("Content-Range"), segment.position())) {
+						throw new IOException("Server did not honour range " + segment.range() + " of " + source);
+					}
+				}
+				write(response.getBody(), out, segment, cb);
+				return;
+			} catch (IOException e) {
+				if (attempt >= MAX_SEGMENT_ATTEMPTS || !FileUtil.isRetryable(e) || Thread.currentThread().isInterrupted()) throw e;
+				System.err.println("[UPDATER] Segment " + segment.range() + " of " + source + " failed: " + e.getMessage() + ", retrying");
+				try {
+					Thread.sleep(RETRY_DELAY * attempt);
+				} catch (InterruptedException e1) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("Download of " + source + " was interrupted");
+				}
+			} finally {
+				if (response != null) response.close();
+				response = null;
+			}
+		}
+	}
+
+	private static void write(InputStream body, FileChannel out, Segment segment, SharedCallback cb) throws IOException {
+		ReadableByteChannel in = Channels.newChannel(body);
+		ByteBuffer buffer = BUFFER.get();
+		while (segment.remaining() > 0) {
+			buffer.clear();
+			buffer.limit((int) Math.min(BUFFER_SIZE, segment.remaining()));
+			int n = in.read(buffer);
+			if (n == -1) throw new EOFException("Range " + segment.range() + " ended " + segment.remaining() + " bytes early");
+			BandwidthLimiter.getGlobal().acquire(n);
+			buffer.flip();
+			while (buffer.hasRemaining()) segment.done += out.write(buffer, segment.position());
+			cb.downloaded(n);
+		}
+	}
+
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("SHA1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA1 is not supported by this JVM", e);
+		}
+	}
+
+	/**
+	 * A byte range of the file and how much of it was written.
+	 */
+	private static final class Segment {
+		final long start;
+		final long end;
+		long done;
+
+		Segment(long start, long end) {
+			this.start = start;
+			this.end = end;
+		}
+
+		long position() {
+			return start + done;
+		}
+
+		long remaining() {
+			return end + 1 - position();
+		}
+
+		String range() {
+			return "bytes=" + position() + "-" + end;
+		}
+	}
+
+	/**
+	 * Sums up the progress of all segments for a callback that isn't thread safe.
+	 */
+	private static final class SharedCallback {
+		private final DownloadCallback cb;
+		private long total;
+
+		SharedCallback(DownloadCallback cb) {
+			this.cb = cb;
+		}
+
+		synchronized void downloaded(long diff) {
+			total += diff;
+			if (cb != null) cb.downloaded(total, diff);
+		}
+	}
+}
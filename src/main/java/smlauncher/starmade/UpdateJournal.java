@@ -0,0 +1,132 @@
+package smlauncher.starmade;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Append-only journal of a running update, kept in {@code .launcher/update-journal} of the install directory.
+ * <p>
+ * The journal names the build being installed, then gets a line for every file that was planned for download,
+ * verified as current or committed. If the launcher is killed, the next update of the same build replays it: files
+ * that were verified or committed are skipped without hashing them again, planned ones are downloaded and resume
+ * their {@code .filepart}. Each line is written with a single append, so a crash can at most cut off the last line,
+ * which is ignored on replay. The journal is deleted when the update completes.
+ */
+public class UpdateJournal {
+
+	private static final String JOURNAL_FILE = "update-journal";
+	private static final String HEADER = "#journal 1";
+	private static final char PLANNED = 'P';
+	private static final char VERIFIED = 'V';
+	private static final char COMMITTED = 'C';
+
+	private final File file;
+	private final Map<String, String> completed = new HashMap<>();
+	private OutputStream out;
+
+	private UpdateJournal(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * Opens the journal of an install for an update, replaying the journal of an interrupted update of the same build.
+	 * Problems with the journal are logged; the update then simply runs without one.
+	 *
+	 * @param buildPath the build being installed
+	 * @param fresh     true to discard a previous journal, as a forced update does
+	 */
+	public static UpdateJournal open(File installDir, String buildPath, boolean fresh) {
+		UpdateJournal journal = new UpdateJournal(new File(new File(installDir, LocalHashIndex.LAUNCHER_DIR), JOURNAL_FILE));
+		boolean resume = !fresh && journal.replay(buildPath);
+		try {
+			File dir = journal.file.getParentFile();
+			if (!dir.exists() && !dir.mkdirs()) throw new IOException("Could not create " + dir.getAbsolutePath());
+			journal.out = new FileOutputStream(journal.file, resume);
+			if (!resume) journal.append(HEADER + "\n" + buildPath + "\n");
+		} catch (IOException e) {
+			System.err.println("[UPDATER] Could not open update journal: " + e.getMessage());
+			journal.close();
+		}
+		if (resume) System.err.println("[UPDATER] Resuming interrupted update, " + journal.completed.size() + " files are already done");
+		return journal;
+	}
+
+	private boolean replay(String buildPath) {
+		if (!file.exists()) return false;
+		try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+			if (!HEADER.equals(in.readLine()) || !buildPath.equals(in.readLine())) return false;
+			String line;
+			while ((line = in.readLine()) != null) {
+				String[] parts = line.split("\t", 3);
+				if (parts.length != 3 || parts[0].length() != 1) continue;
+				char state = parts[0].charAt(0);
+				if (state == VERIFIED || state == COMMITTED) completed.put(parts[2], parts[1]);
+				else if (state == PLANNED) completed.remove(parts[2]);
+			}
+			return true;
+		} catch (IOException e) {
+			System.err.println("[UPDATER] Could not replay update journal: " + e.getMessage());
+			completed.clear();
+			return false;
+		}
+	}
+
+	/**
+	 * @return the number of files the replayed journal has as verified or committed
+	 */
+	public int getCompletedCount() {
+		return completed.size();
+	}
+
+	/**
+	 * @return whether the interrupted update already verified or committed this file with the same checksum
+	 */
+	public boolean isCompleted(ChecksumFileEntry e) {
+		return e.checksum.equals(completed.get(e.relativePath));
+	}
+
+	public void planned(ChecksumFileEntry e) {
+		record(PLANNED, e);
+	}
+
+	public void verified(ChecksumFileEntry e) {
+		record(VERIFIED, e);
+	}
+
+	public void committed(ChecksumFileEntry e) {
+		record(COMMITTED, e);
+	}
+
+	private void record(char state, ChecksumFileEntry e) {
+		append(state + "\t" + e.checksum + "\t" + e.relativePath + "\n");
+	}
+
+	private synchronized void append(String text) {
+		if (out == null) return;
+		try {
+			out.write(text.getBytes(StandardCharsets.UTF_8));
+		} catch (IOException ex) {
+			System.err.println("[UPDATER] Could not write update journal, continuing without it: " + ex.getMessage());
+			close();
+		}
+	}
+
+	public synchronized void close() {
+		if (out == null) return;
+		try {
+			out.close();
+		} catch (IOException ignored) {
+		}
+		out = null;
+	}
+
+	/**
+	 * Closes and deletes the journal of a completed update.
+	 */
+	public synchronized void delete() {
+		close();
+		file.delete();
+	}
+}
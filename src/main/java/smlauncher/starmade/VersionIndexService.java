@@ -0,0 +1,229 @@
+package smlauncher.starmade;
+
+import smlauncher.http.HttpResponse;
+import smlauncher.http.PooledHttpClient;
+import smlauncher.util.OperatingSystem;
+
+import java.io.*;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fetches the version indexes of the game branches and keeps them on disk, in {@code versions} of the app directory.
+ * <p>
+ * The launcher starts from the indexes on disk without waiting for the network, and revalidates them in the
+ * background with {@code If-None-Match} and {@code If-Modified-Since}. All branches are fetched concurrently, and
+ * callers asking for an index that is already being fetched share that request instead of starting another one.
+ * Indexes are stored per URL, so a different {@link GameUpdater#FILES_URL} never serves the versions of another
+ * server. An index fetched in this session is reused for {@link #DEFAULT_MAX_AGE} milliseconds, after which callers
+ * that need current versions revalidate it, so a launcher left open still sees new builds.
+ */
+public class VersionIndexService {
+
+	public static final long DEFAULT_MAX_AGE = 5 * 60 * 1000;
+	private static final String INDEX_SUFFIX = ".index";
+	private static final ExecutorService FETCH_POOL = Executors.newCachedThreadPool(new ThreadFactory() {
+		private final AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "version-index-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+	private static VersionIndexService defaultService;
+
+	private final ConditionalCache cache;
+	private final PooledHttpClient client;
+	private final long maxAge;
+	private final Map<String, CompletableFuture<String>> fetches = new ConcurrentHashMap<>();
+	private final Map<String, Fetched> fetched = new ConcurrentHashMap<>();
+
+	/**
+	 * @param dir    the directory to keep the indexes in, or null to only keep them in memory
+	 * @param client the client to fetch with
+	 */
+	public VersionIndexService(File dir, PooledHttpClient client) {
+		this(dir, client, DEFAULT_MAX_AGE);
+	}
+
+	/**
+	 * @param maxAge how long an index fetched in this session is reused by {@link #getVersions}, in milliseconds
+	 */
+	VersionIndexService(File dir, PooledHttpClient client, long maxAge) {
+		this.cache = dir != null ? new ConditionalCache(dir, INDEX_SUFFIX) : null;
+		this.client = client;
+		this.maxAge = maxAge;
+	}
+
+	/**
+	 * @return the service shared by the launcher, which keeps its indexes in the app directory if it can be used
+	 */
+	public static synchronized VersionIndexService getDefault() {
+		if (defaultService == null) {
+			File dir = null;
+			try {
+				dir = new File(OperatingSystem.getAppDir(), "versions");
+			} catch (IOException e) {
+				System.err.println("[UPDATER] Not caching version indexes: " + e.getMessage());
+			}
+			defaultService = new VersionIndexService(dir, PooledHttpClient.getDefault());
+		}
+		return defaultService;
+	}
+
+	/**
+	 * Returns the versions of a branch without going to the network: the index fetched in this session, or else the
+	 * one kept on disk, however old it is.
+	 *
+	 * @return the versions in the order of the index, or null if the index was never fetched
+	 */
+	public List<IndexFileEntry> getCached(GameBranch branch) {
+		String url = branch.getUrl();
+		Fetched session = fetched.get(url);
+		String text = session != null ? session.text : null;
+		if (text == null && cache != null) {
+			File index = cache.file(url);
+			try {
+				if (index.exists()) text = new String(Files.readAllBytes(index.toPath()), StandardCharsets.UTF_8);
+			} catch (IOException e) {
+				System.err.println("[UPDATER] Could not read cached version index of " + branch.name + ": " + e.getMessage());
+			}
+		}
+		try {
+			return text != null ? parse(text, branch) : null;
+		} catch (RuntimeException e) {
+			System.err.println("[UPDATER] Cached version index of " + branch.name + " is invalid: " + e);
+			return null;
+		}
+	}
+
+	/**
+	 * Fetches the index of a branch, or joins the fetch that is already running for it.
+	 *
+	 * @return the versions in the order of the index
+	 */
+	public CompletableFuture<List<IndexFileEntry>> fetch(GameBranch branch) {
+		String url = branch.getUrl();
+		CompletableFuture<String> fetch = new CompletableFuture<>();
+		CompletableFuture<String> running = fetches.putIfAbsent(url, fetch);
+		if (running != null) return running.thenApply(text -> parse(text, branch));
+
+		FETCH_POOL.execute(() -> {
+			String text = null;
+			Exception failure = null;
+			try {
+				text = download(url);
+				fetched.put(url, new Fetched(text));
+			} catch (IOException | RuntimeException e) {
+				failure = e;
+			}
+			// a caller woken by the result must not join this fetch again, but start its own
+			fetches.remove(url, fetch);
+			if (failure != null) fetch.completeExceptionally(failure);
+			else fetch.complete(text);
+		});
+		return fetch.thenApply(text -> parse(text, branch));
+	}
+
+	/**
+	 * Fetches the indexes of several branches concurrently. Branches that fail are logged and left out.
+	 *
+	 * @return the versions of every branch that could be fetched, once all fetches are done
+	 */
+	public CompletableFuture<Map<GameBranch, List<IndexFileEntry>>> fetchAll(Collection<GameBranch> branches) {
+		Map<GameBranch, List<IndexFileEntry>> result = new ConcurrentHashMap<>();
+		List<CompletableFuture<?>> fetches = new ArrayList<>();
+		for (GameBranch branch : branches) {
+			fetches.add(fetch(branch).handle((versions, e) -> {
+				if (e != null) System.err.println("[UPDATER] Could not fetch version index of " + branch.name + ": " + unwrap(e).getMessage());
+				else result.put(branch, versions);
+				return null;
+			}));
+		}
+		return CompletableFuture.allOf(fetches.toArray(new CompletableFuture<?>[0])).thenApply(v -> result);
+	}
+
+	/**
+	 * Returns the current versions of a branch, for callers that can't work with a stale index: the index fetched in
+	 * this session if it is younger than the maximum age, or else a fresh fetch. If the fetch fails, the index fetched
+	 * before or the one on disk is used.
+	 *
+	 * @return the versions in the order of the index
+	 * @throws IOException if the index could neither be fetched nor read from disk
+	 */
+	public List<IndexFileEntry> getVersions(GameBranch branch) throws IOException {
+		Fetched session = fetched.get(branch.getUrl());
+		if (session != null && System.currentTimeMillis() - session.time < maxAge) return parse(session.text, branch);
+		try {
+			return fetch(branch).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while fetching the version index of " + branch.name);
+		} catch (ExecutionException e) {
+			List<IndexFileEntry> cached = getCached(branch);
+			if (cached == null) {
+				if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+				throw new IOException(e.getCause());
+			}
+			System.err.println("[UPDATER] Using cached version index of " + branch.name + ": " + e.getCause().getMessage());
+			return cached;
+		}
+	}
+
+	private String download(String url) throws IOException {
+		Properties meta = cache != null ? cache.readMeta(url) : null;
+		try (HttpResponse response = client.get(new URL(url), ConditionalCache.requestHeaders(meta))) {
+			if (response.getStatus() == 304 && meta != null) {
+				System.err.println("[UPDATER] Version index " + url + " is still current");
+				return new String(Files.readAllBytes(cache.file(url).toPath()), StandardCharsets.UTF_8);
+			}
+			response.requireSuccess();
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			try (InputStream in = response.getDecodedBody()) {
+				for (int n; (n = in.read(buffer)) != -1; ) out.write(buffer, 0, n);
+			}
+			byte[] body = out.toByteArray();
+			if (cache != null) {
+				try {
+					cache.store(url, body, ConditionalCache.validators(url, response));
+				} catch (IOException e) {
+					// failing to keep the index only costs the next start its head start
+					System.err.println("[UPDATER] Could not cache version index: " + e.getMessage());
+				}
+			}
+			return new String(body, StandardCharsets.UTF_8);
+		}
+	}
+
+	private static List<IndexFileEntry> parse(String text, GameBranch branch) {
+		List<IndexFileEntry> versions = new ArrayList<>();
+		for (String line : text.split("\n")) {
+			line = line.trim();
+			if (!line.isEmpty()) versions.add(IndexFileEntry.create(line, branch));
+		}
+		return versions;
+	}
+
+	/**
+	 * An index fetched in this session, and when.
+	 */
+	private static final class Fetched {
+		final String text;
+		final long time = System.currentTimeMillis();
+
+		Fetched(String text) {
+			this.text = text;
+		}
+	}
+
+	private static Throwable unwrap(Throwable e) {
+		return e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+	}
+}
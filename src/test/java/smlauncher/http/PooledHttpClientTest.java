@@ -0,0 +1,273 @@
+package smlauncher.http;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for {@link PooledHttpClient} class against an embedded HTTP server.
+ */
+public class PooledHttpClientTest {
+
+	private HttpServer server;
+	private String baseUrl;
+	private final AtomicInteger active = new AtomicInteger();
+	private final AtomicInteger maxActive = new AtomicInteger();
+
+	@BeforeEach
+	void startServer() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/file", exchange -> {
+			byte[] body = "hello".getBytes(StandardCharsets.UTF_8);
+			exchange.sendResponseHeaders(200, body.length);
+			exchange.getResponseBody().write(body);
+			exchange.close();
+		});
+		server.createContext("/chunked", exchange -> {
+			exchange.sendResponseHeaders(200, 0); // 0 makes the server use chunked encoding
+			try (OutputStream out = exchange.getResponseBody()) {
+				for (int i = 0; i < 100; i++) out.write(("chunk" + i).getBytes(StandardCharsets.UTF_8));
+			}
+		});
+		server.createContext("/redirect", exchange -> {
+			exchange.getResponseHeaders().add("Location", "/file");
+			exchange.sendResponseHeaders(302, -1);
+			exchange.close();
+		});
+		server.createContext("/slow", exchange -> {
+			maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+			try {
+				Thread.sleep(50);
+			} catch (InterruptedException ignored) {
+			}
+			active.decrementAndGet();
+			exchange.sendResponseHeaders(200, 2);
+			exchange.getResponseBody().write(new byte[]{'o', 'k'});
+			exchange.close();
+		});
+		server.setExecutor(Executors.newFixedThreadPool(16));
+		server.start();
+		baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+	}
+
+	@AfterEach
+	void stopServer() {
+		server.stop(0);
+	}
+
+	@Test
+	void reusesConnectionForSequentialRequests() throws IOException {
+		PooledHttpClient client = newClient(4);
+		for (int i = 0; i < 10; i++) {
+			assertEquals("hello", read(client, "/file"));
+		}
+		assertEquals(10, client.getRequestCount());
+		assertEquals(1, client.getConnectionsOpened());
+		assertEquals(9, client.getConnectionsReused());
+	}
+
+	@Test
+	void readsChunkedBodyAndReusesConnection() throws IOException {
+		PooledHttpClient client = newClient(4);
+		StringBuilder expected = new StringBuilder();
+		for (int i = 0; i < 100; i++) expected.append("chunk").append(i);
+		assertEquals(expected.toString(), read(client, "/chunked"));
+		assertEquals(expected.toString(), read(client, "/chunked"));
+		assertEquals(1, client.getConnectionsOpened());
+	}
+
+	@Test
+	void followsRedirects() throws IOException {
+		PooledHttpClient client = newClient(4);
+		assertEquals("hello", read(client, "/redirect"));
+	}
+
+	@Test
+	void reportsUnsuccessfulStatus() throws IOException {
+		PooledHttpClient client = newClient(4);
+		HttpStatusException e = assertThrows(HttpStatusException.class, () -> client.get(new URL(baseUrl + "/missing")).requireSuccess());
+		assertEquals(404, e.getStatus());
+	}
+
+	@Test
+	void boundsConnectionsPerHost() throws Exception {
+		PooledHttpClient client = newClient(2);
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			Future<?>[] futures = new Future<?>[16];
+			for (int i = 0; i < futures.length; i++) {
+				futures[i] = executor.submit(() -> {
+					read(client, "/slow");
+					return null;
+				});
+			}
+			for (Future<?> future : futures) future.get(10, TimeUnit.SECONDS);
+		} finally {
+			executor.shutdownNow();
+		}
+		assertTrue(maxActive.get() <= 2, "at most 2 concurrent requests, was " + maxActive.get());
+		assertTrue(client.getConnectionsOpened() <= 2);
+	}
+
+	@Test
+	void sendsRequestsThroughHttpProxy() throws IOException {
+		List<String> targets = new CopyOnWriteArrayList<>();
+		server.createContext("/", exchange -> {
+			targets.add(exchange.getRequestURI().toString());
+			byte[] body = "proxied".getBytes(StandardCharsets.UTF_8);
+			exchange.sendResponseHeaders(200, body.length);
+			exchange.getResponseBody().write(body);
+			exchange.close();
+		});
+		ProxySelector original = ProxySelector.getDefault();
+		ProxySelector.setDefault(new ProxySelector() {
+			@Override
+			public List<Proxy> select(URI uri) {
+				return Collections.singletonList(new Proxy(Proxy.Type.HTTP, server.getAddress()));
+			}
+
+			@Override
+			public void connectFailed(URI uri, SocketAddress address, IOException e) {
+			}
+		});
+		try {
+			PooledHttpClient client = newClient(4);
+			for (int i = 0; i < 3; i++) {
+				try (HttpResponse response = client.get(new URL("http://game.invalid:8080/build/file?x=" + i)).requireSuccess()) {
+					assertEquals(7, response.getBody().read(new byte[16]));
+				}
+			}
+			assertEquals(Arrays.asList("http://game.invalid:8080/build/file?x=0", "http://game.invalid:8080/build/file?x=1", "http://game.invalid:8080/build/file?x=2"), targets);
+			assertEquals(1, client.getConnectionsOpened());
+		} finally {
+			ProxySelector.setDefault(original);
+		}
+	}
+
+	@Test
+	void retriesOnNewConnectionWhenServerClosedIdleOne() throws Exception {
+		// answers one request per connection, then closes it despite the keep-alive
+		try (RawServer raw = new RawServer(false)) {
+			PooledHttpClient client = newClient(4);
+			assertEquals("ok", read(client, raw.url()));
+			assertEquals("ok", read(client, raw.url()));
+			assertEquals(2, raw.accepted.get());
+			assertEquals(2, client.getConnectionsOpened());
+			assertEquals(0, client.getConnectionsReused());
+		}
+	}
+
+	@Test
+	void doesNotRetryTimedOutRequest() throws Exception {
+		// answers the first request, then never the second one on the same connection
+		try (RawServer raw = new RawServer(true)) {
+			PooledHttpClient client = new PooledHttpClient(4, 5000, 500, "test");
+			assertEquals("ok", read(client, raw.url()));
+			assertThrows(SocketTimeoutException.class, () -> read(client, raw.url()));
+			assertEquals(1, raw.accepted.get());
+			assertEquals(1, client.getConnectionsOpened());
+		}
+	}
+
+	// Helper Methods
+
+	private PooledHttpClient newClient(int maxConnectionsPerHost) {
+		return new PooledHttpClient(maxConnectionsPerHost, 5000, 5000, "test");
+	}
+
+	private String read(PooledHttpClient client, String path) throws IOException {
+		return read(client, new URL(baseUrl + path));
+	}
+
+	private static String read(PooledHttpClient client, URL url) throws IOException {
+		try (HttpResponse response = client.get(url).requireSuccess(); InputStream in = response.getBody()) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[1024];
+			int n;
+			while ((n = in.read(buffer)) != -1) out.write(buffer, 0, n);
+			return new String(out.toByteArray(), StandardCharsets.UTF_8);
+		}
+	}
+
+	/**
+	 * Server answering {@code ok} to the first request of every connection, to misbehave on the ones after it.
+	 */
+	private static final class RawServer implements AutoCloseable {
+
+		final AtomicInteger accepted = new AtomicInteger();
+		private final ServerSocket socket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+		private final CountDownLatch closed = new CountDownLatch(1);
+
+		/**
+		 * @param stall true to read the second request of a connection without answering it, false to close the
+		 *              connection after the first response
+		 */
+		RawServer(boolean stall) throws IOException {
+			Thread acceptor = new Thread(() -> {
+				try {
+					while (true) {
+						Socket connection = socket.accept();
+						accepted.incrementAndGet();
+						Thread handler = new Thread(() -> handle(connection, stall));
+						handler.setDaemon(true);
+						handler.start();
+					}
+				} catch (IOException e) {
+					// closed
+				}
+			});
+			acceptor.setDaemon(true);
+			acceptor.start();
+		}
+
+		URL url() throws MalformedURLException {
+			return new URL("http://127.0.0.1:" + socket.getLocalPort() + "/file");
+		}
+
+		private void handle(Socket connection, boolean stall) {
+			try (Socket s = connection) {
+				InputStream in = s.getInputStream();
+				readRequest(in);
+				OutputStream out = s.getOutputStream();
+				out.write("HTTP/1.1 200 OK\r\nContent-Length: 2\r\n\r\nok".getBytes(StandardCharsets.ISO_8859_1));
+				out.flush();
+				if (stall && readRequest(in)) closed.await(10, TimeUnit.SECONDS);
+			} catch (IOException | InterruptedException e) {
+				// the client went away
+			}
+		}
+
+		/**
+		 * @return false if the connection was closed before a whole request header arrived
+		 */
+		private static boolean readRequest(InputStream in) throws IOException {
+			int matched = 0;
+			int b;
+			while (matched < 4 && (b = in.read()) != -1) {
+				matched = b == "\r\n\r\n".charAt(matched) ? matched + 1 : b == '\r' ? 1 : 0;
+			}
+			return matched == 4;
+		}
+
+		@Override
+		public void close() throws IOException {
+			closed.countDown();
+			socket.close();
+		}
+	}
+}
@@ -0,0 +1,63 @@
+package smlauncher.starmade;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for {@link BandwidthLimiter} class.
+ */
+public class BandwidthLimiterTest {
+
+	@Test
+	void doesNotBlockWithoutLimit() throws InterruptedIOException {
+		BandwidthLimiter limiter = new BandwidthLimiter();
+		long start = System.nanoTime();
+		for (int i = 0; i < 1000; i++) limiter.acquire(1024 * 1024);
+		assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 500);
+	}
+
+	@Test
+	void limitsRate() throws InterruptedIOException {
+		BandwidthLimiter limiter = new BandwidthLimiter();
+		limiter.setRate(1024 * 1024);
+		long start = System.nanoTime();
+		// 768 KB at 1 MB/s, less the last read which only puts the bucket in debt
+		for (int i = 0; i < 12; i++) limiter.acquire(64 * 1024);
+		long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		assertTrue(elapsed >= 500, "took " + elapsed + " ms");
+		assertTrue(elapsed < 2000, "took " + elapsed + " ms");
+	}
+
+	@Test
+	void blocksWhilePaused() throws Exception {
+		BandwidthLimiter limiter = new BandwidthLimiter();
+		limiter.setPaused(true);
+		CountDownLatch acquired = new CountDownLatch(1);
+		Thread download = new Thread(() -> {
+			try {
+				limiter.acquire(1);
+				acquired.countDown();
+			} catch (InterruptedIOException ignored) {
+			}
+		});
+		download.start();
+
+		assertFalse(acquired.await(200, TimeUnit.MILLISECONDS));
+		limiter.setPaused(false);
+		assertTrue(acquired.await(1, TimeUnit.SECONDS));
+	}
+
+	@Test
+	void interruptsPausedDownload() throws Exception {
+		BandwidthLimiter limiter = new BandwidthLimiter();
+		limiter.setPaused(true);
+		Thread.currentThread().interrupt();
+		assertThrows(InterruptedIOException.class, () -> limiter.acquire(1));
+		assertTrue(Thread.interrupted());
+	}
+}
@@ -0,0 +1,309 @@
+package smlauncher.starmade;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for {@link ChecksumFile} class, updating an install from an embedded HTTP server.
+ */
+public class ChecksumFileTest {
+
+	private final Map<String, byte[]> files = new ConcurrentHashMap<>();
+	private final AtomicInteger requests = new AtomicInteger();
+	private TestServer server;
+	private String buildUrl;
+	private File installDir;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		server = new TestServer("install");
+		server.createContext("/build/", exchange -> {
+			byte[] body = files.get(exchange.getRequestURI().getPath().substring("/build".length()));
+			if (!exchange.getRequestMethod().equals("HEAD")) requests.incrementAndGet();
+			exchange.sendResponseHeaders(body == null ? 404 : 200, body == null || exchange.getRequestMethod().equals("HEAD") ? -1 : body.length);
+			if (body != null && !exchange.getRequestMethod().equals("HEAD")) exchange.getResponseBody().write(body);
+			exchange.close();
+		});
+		server.start();
+		buildUrl = server.url() + "/build";
+		installDir = server.dir;
+	}
+
+	@AfterEach
+	void tearDown() throws IOException {
+		server.close();
+		ChecksumFile.setSanityCheck(true);
+		ChecksumFile.setStaged(false);
+	}
+
+	@Test
+	void findsChangedEntries() throws Exception {
+		ChecksumFile installed = manifest("./a.txt 1 aaaa\n./b.txt 1 bbbb\n./c.txt 1 cccc\n");
+		ChecksumFile target = manifest("./a.txt 1 aaaa\n./b.txt 1 bbbd\n./d.txt 1 dddd\n");
+
+		List<ChecksumFileEntry> changed = target.getChanged(installed);
+
+		assertEquals(2, changed.size());
+		assertEquals("/b.txt", changed.get(0).relativePath);
+		assertEquals("/d.txt", changed.get(1).relativePath);
+	}
+
+	@Test
+	void keepsManifestOfCompleteInstall() throws Exception {
+		ChecksumFile first = publish("one", "two");
+		first.download(false, buildUrl, installDir, installDir.getPath(), new Callback());
+
+		ChecksumFile installed = ChecksumFile.loadInstalled(installDir);
+		assertNotNull(installed);
+		assertTrue(first.getChanged(installed).isEmpty());
+	}
+
+	@Test
+	void downloadsOnlyChangedFiles() throws Exception {
+		publish("one", "two").download(false, buildUrl, installDir, installDir.getPath(), new Callback());
+		requests.set(0);
+
+		publish("one", "changed").download(false, buildUrl, installDir, installDir.getPath(), new Callback());
+
+		assertEquals(1, requests.get());
+		assertEquals("changed", new String(Files.readAllBytes(new File(installDir, "data/file1.txt").toPath()), StandardCharsets.UTF_8));
+	}
+
+	@Test
+	void sanityCheckFindsFileChangedOutsideLauncher() throws Exception {
+		ChecksumFile build = publish("one", "two");
+		build.download(false, buildUrl, installDir, installDir.getPath(), new Callback());
+		File local = new File(installDir, "data/file0.txt");
+		Files.write(local.toPath(), "modded".getBytes(StandardCharsets.UTF_8));
+		requests.set(0);
+
+		build.download(false, buildUrl, installDir, installDir.getPath(), new Callback());
+
+		assertEquals(1, requests.get());
+		assertEquals("one", new String(Files.readAllBytes(local.toPath()), StandardCharsets.UTF_8));
+	}
+
+	@Test
+	void verifiesOnlyFilesInstallDoesNotHave() throws Exception {
+		ChecksumFile build = publish("one", "two", "three");
+		build.download(false, buildUrl, installDir, installDir.getPath(), new Callback());
+		assertEquals(3, build.getVerifiedCount());
+		assertEquals(0, build.getSkippedCount());
+
+		Files.write(new File(installDir, "data/file1.txt").toPath(), "modded".getBytes(StandardCharsets.UTF_8));
+		build.download(false, buildUrl, installDir, installDir.getPath(), new Callback());
+		assertEquals(1, build.getVerifiedCount());
+		assertEquals(2, build.getSkippedCount());
+
+		build.download(false, buildUrl, installDir, installDir.getPath(), new Callback());
+		assertEquals(0, build.getVerifiedCount());
+		assertEquals(3, build.getSkippedCount());
+	}
+
+	@Test
+	void verifiesWithAtLeastOneThread() {
+		int parallelism = ChecksumFile.getVerifyParallelism(installDir);
+
+		assertTrue(parallelism >= 1);
+		assertTrue(parallelism <= Runtime.getRuntime().availableProcessors());
+	}
+
+	@Test
+	void trustsInstalledManifestWithoutSanityCheck() throws Exception {
+		ChecksumFile build = publish("one", "two");
+		build.download(false, buildUrl, installDir, installDir.getPath(), new Callback());
+		File local = new File(installDir, "data/file0.txt");
+		Files.write(local.toPath(), "modded".getBytes(StandardCharsets.UTF_8));
+		ChecksumFile.setSanityCheck(false);
+		requests.set(0);
+
+		build.download(false, buildUrl, installDir, installDir.getPath(), new Callback());
+
+		assertEquals(0, requests.get());
+		assertEquals("modded", new String(Files.readAllBytes(local.toPath()), StandardCharsets.UTF_8));
+	}
+
+	@Test
+	void stagedUpdateCommitsAllFiles() throws Exception {
+		publish("one", "two").download(false, buildUrl, installDir, installDir.getPath(), new Callback());
+		ChecksumFile.setStaged(true);
+
+		publish("one", "changed", "added").download(false, buildUrl, installDir, installDir.getPath(), new Callback());
+
+		assertEquals("changed", new String(Files.readAllBytes(new File(installDir, "data/file1.txt").toPath()), StandardCharsets.UTF_8));
+		assertEquals("added", new String(Files.readAllBytes(new File(installDir, "data/file2.txt").toPath()), StandardCharsets.UTF_8));
+		assertFalse(new File(installDir, LocalHashIndex.LAUNCHER_DIR + "/staging").exists());
+	}
+
+	@Test
+	void failedStagedUpdateLeavesInstallUntouched() throws Exception {
+		publish("one", "two").download(false, buildUrl, installDir, installDir.getPath(), new Callback());
+		ChecksumFile.setStaged(true);
+		ChecksumFile update = publish("one", "changed", "added");
+		byte[] added = files.remove("/data/file2.txt");
+
+		assertThrows(IOException.class, () -> update.download(false, buildUrl, installDir, installDir.getPath(), new Callback()));
+		assertEquals("two", new String(Files.readAllBytes(new File(installDir, "data/file1.txt").toPath()), StandardCharsets.UTF_8));
+		assertFalse(new File(installDir, "data/file2.txt").exists());
+
+		// the next attempt keeps what was staged already
+		files.put("/data/file2.txt", added);
+		requests.set(0);
+		update.download(false, buildUrl, installDir, installDir.getPath(), new Callback());
+		assertEquals(1, requests.get());
+		assertEquals("changed", new String(Files.readAllBytes(new File(installDir, "data/file1.txt").toPath()), StandardCharsets.UTF_8));
+	}
+
+	@Test
+	void failedCommitRollsBackAndReportsFailure() throws Exception {
+		publish("one", "two").download(false, buildUrl, installDir, installDir.getPath(), new Callback());
+		ChecksumFile.setStaged(true);
+		ChecksumFile update = publish("changed", "changed too", "added");
+		files.put("/zz/file.txt", "blocked".getBytes(StandardCharsets.UTF_8));
+		update.checksums.add(0, new ChecksumFileEntry(7, sha1("blocked"), "./zz/file.txt"));
+		// a file where the commit needs a directory, committed after the other files
+		File blocker = new File(installDir, "zz");
+		Files.write(blocker.toPath(), new byte[0]);
+		AtomicInteger done = new AtomicInteger();
+		Callback cb = new Callback() {
+			@Override
+			public void done(FileDownloadUpdate u) {
+				done.incrementAndGet();
+			}
+		};
+
+		assertThrows(IOException.class, () -> update.download(false, buildUrl, installDir, installDir.getPath(), cb));
+		assertEquals(0, done.get());
+		assertEquals("one", new String(Files.readAllBytes(new File(installDir, "data/file0.txt").toPath()), StandardCharsets.UTF_8));
+		assertEquals("two", new String(Files.readAllBytes(new File(installDir, "data/file1.txt").toPath()), StandardCharsets.UTF_8));
+		assertFalse(new File(installDir, "data/file2.txt").exists());
+		assertNull(ChecksumFile.loadInstalled(installDir));
+
+		// the staged files are kept for the next attempt
+		blocker.delete();
+		requests.set(0);
+		update.download(false, buildUrl, installDir, installDir.getPath(), cb);
+		assertEquals(0, requests.get());
+		assertEquals(1, done.get());
+		assertEquals("changed", new String(Files.readAllBytes(new File(installDir, "data/file0.txt").toPath()), StandardCharsets.UTF_8));
+		assertEquals("blocked", new String(Files.readAllBytes(new File(installDir, "zz/file.txt").toPath()), StandardCharsets.UTF_8));
+	}
+
+	@Test
+	void resumesInterruptedUpdateFromJournal() throws Exception {
+		ChecksumFile build = publish("one", "two", "three");
+		byte[] missing = files.remove("/data/file2.txt");
+		assertThrows(IOException.class, () -> build.download(false, buildUrl, installDir, installDir.getPath(), new Callback()));
+
+		UpdateJournal journal = UpdateJournal.open(installDir, buildUrl, false);
+		assertEquals(2, journal.getCompletedCount());
+		journal.close();
+		UpdateJournal other = UpdateJournal.open(installDir, buildUrl + "/other", false);
+		assertEquals(0, other.getCompletedCount());
+		other.close();
+
+		// replaying the journal of another build discarded it, so fail once more to write a new one
+		assertThrows(IOException.class, () -> build.download(false, buildUrl, installDir, installDir.getPath(), new Callback()));
+		files.put("/data/file2.txt", missing);
+		requests.set(0);
+		build.download(false, buildUrl + "/", installDir, installDir.getPath(), new Callback());
+
+		assertEquals(1, requests.get());
+		assertEquals("three", new String(Files.readAllBytes(new File(installDir, "data/file2.txt").toPath()), StandardCharsets.UTF_8));
+		assertFalse(new File(installDir, LocalHashIndex.LAUNCHER_DIR + "/update-journal").exists());
+	}
+
+	@Test
+	void cancelBeforeStartAbortsDownload() throws Exception {
+		ChecksumFile build = publish("one", "two");
+		build.cancel();
+
+		assertThrows(InterruptedIOException.class, () -> build.download(false, buildUrl, installDir, installDir.getPath(), new Callback()));
+		assertEquals(0, requests.get());
+		assertFalse(new File(installDir, "data/file0.txt").exists());
+	}
+
+	@Test
+	void downloadsWhileManifestIsRead() throws Exception {
+		publish("one", "two");
+		files.put("/version.txt", "1.0".getBytes(StandardCharsets.UTF_8));
+		// the version file comes first, it still has to be committed last
+		String text = "./version.txt 3 " + sha1("1.0") + "\n./data/file0.txt 3 " + sha1("one") + "\n./data/file1.txt 3 " + sha1("two") + "\n";
+		File firstFile = new File(installDir, "data/file0.txt");
+		ChecksumFile streamed = new ChecksumFile();
+		// the last line is only handed out once the file of the line before was downloaded
+		BufferedReader manifest = new BufferedReader(new StringReader(text)) {
+			private int lines;
+
+			@Override
+			public String readLine() throws IOException {
+				if (lines++ == 2) {
+					long deadline = System.currentTimeMillis() + 10000;
+					while (!firstFile.exists() && System.currentTimeMillis() < deadline) Thread.yield();
+				}
+				return super.readLine();
+			}
+		};
+
+		streamed.download(false, buildUrl, installDir, installDir.getPath(), new Callback(), manifest);
+
+		assertEquals("one", new String(Files.readAllBytes(firstFile.toPath()), StandardCharsets.UTF_8));
+		assertEquals("1.0", new String(Files.readAllBytes(new File(installDir, "version.txt").toPath()), StandardCharsets.UTF_8));
+		assertEquals(ChecksumFile.VERSION_FILE, streamed.checksums.get(streamed.checksums.size() - 1).relativePath);
+		assertNotNull(ChecksumFile.loadInstalled(installDir));
+	}
+
+	/**
+	 * Serves a build with the given file contents and returns its manifest.
+	 */
+	private ChecksumFile publish(String... contents) throws Exception {
+		StringBuilder manifest = new StringBuilder();
+		for (int i = 0; i < contents.length; i++) {
+			byte[] body = contents[i].getBytes(StandardCharsets.UTF_8);
+			files.put("/data/file" + i + ".txt", body);
+			manifest.append("./data/file").append(i).append(".txt ").append(body.length).append(' ')
+					.append(FileHasher.get().toHex(MessageDigest.getInstance("SHA1").digest(body))).append('\n');
+		}
+		return manifest(manifest.toString());
+	}
+
+	private static String sha1(String content) throws Exception {
+		return FileHasher.get().toHex(MessageDigest.getInstance("SHA1").digest(content.getBytes(StandardCharsets.UTF_8)));
+	}
+
+	private static ChecksumFile manifest(String text) throws IOException {
+		ChecksumFile manifest = new ChecksumFile();
+		manifest.parse(new BufferedReader(new StringReader(text)));
+		return manifest;
+	}
+
+	private static class Callback implements FileDowloadCallback {
+		@Override
+		public void update(FileDownloadUpdate u) {
+		}
+
+		@Override
+		public void update(String u) {
+		}
+
+		@Override
+		public void done(FileDownloadUpdate u) {
+		}
+	}
+}
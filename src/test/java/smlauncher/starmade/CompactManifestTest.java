@@ -0,0 +1,71 @@
+package smlauncher.starmade;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for {@link CompactManifest} class, compared against {@link ChecksumFile#parse}.
+ */
+public class CompactManifestTest {
+
+	private static final String HASH_A = "90b34870b3e9df9c5892d23f94f9df710716685a";
+	private static final String HASH_B = "da39a3ee5e6b4b0d3255bfef95601890afd80709";
+	private static final String MANIFEST = "./version.txt 12 " + HASH_B + "\n"
+			+ "./data/audio-resource/Gameplay/0022_gameplay - cockpit warning beep.ogg 14722 " + HASH_A + "\r\n"
+			+ "\n"
+			+ "  ./data/audio-resource/Gameplay/other.ogg   7 " + HASH_B + "  \n"
+			+ "./StarMade.jar 30000000000 " + HASH_A;
+
+	@Test
+	void parsesLikeChecksumFile() throws Exception {
+		CompactManifest compact = parse(MANIFEST);
+		ChecksumFile expected = new ChecksumFile();
+		expected.parse(new BufferedReader(new StringReader(MANIFEST)));
+
+		assertEquals(4, compact.size());
+		ChecksumFile expanded = compact.toChecksumFile();
+		assertEquals(expected.checksums.size(), expanded.checksums.size());
+		for (int i = 0; i < expected.checksums.size(); i++) {
+			ChecksumFileEntry e = expected.checksums.get(i);
+			ChecksumFileEntry c = expanded.checksums.get(i);
+			assertEquals(e.relativePath, c.relativePath);
+			assertEquals(e.size, c.size);
+			assertEquals(e.checksum, c.checksum);
+		}
+		assertEquals(ChecksumFile.VERSION_FILE, expanded.checksums.get(3).relativePath);
+		assertSame(compact.getDirectory(1), compact.getDirectory(2));
+	}
+
+	@Test
+	void findsEntriesByPath() throws Exception {
+		CompactManifest compact = parse(MANIFEST);
+
+		assertEquals(1, compact.indexOf("/data/audio-resource/Gameplay/0022_gameplay - cockpit warning beep.ogg"));
+		assertEquals(3, compact.indexOf("/StarMade.jar"));
+		assertEquals(-1, compact.indexOf("/data/audio-resource/Gameplay/missing.ogg"));
+		assertEquals(-1, compact.indexOf("/missing/StarMade.jar"));
+
+		assertTrue(compact.contains(new ChecksumFileEntry(30000000000L, HASH_A, "./StarMade.jar")));
+		assertFalse(compact.contains(new ChecksumFileEntry(30000000000L, HASH_B, "./StarMade.jar")));
+		assertFalse(compact.contains(new ChecksumFileEntry(1, HASH_A, "./StarMade.jar")));
+	}
+
+	@Test
+	void rejectsMalformedLines() {
+		assertThrows(IOException.class, () -> parse("./a.txt\n"));
+		assertThrows(IOException.class, () -> parse("./a.txt " + HASH_A + "\n"));
+		assertThrows(IOException.class, () -> parse("./a.txt 1x " + HASH_A + "\n"));
+		assertThrows(IOException.class, () -> parse("./a.txt 1 aaaa\n"));
+	}
+
+	private static CompactManifest parse(String text) throws IOException {
+		byte[] data = text.getBytes(StandardCharsets.UTF_8);
+		return CompactManifest.parse(data, 0, data.length);
+	}
+}
@@ -0,0 +1,112 @@
+package smlauncher.starmade;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for {@link ContentStore} class on temporary install directories.
+ */
+public class ContentStoreTest {
+
+	private static final byte[] CONTENT = "shared game file".getBytes(StandardCharsets.UTF_8);
+
+	private File root;
+	private ContentStore store;
+	private String checksum;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		root = Files.createTempDirectory("content-store").toFile();
+		store = new ContentStore(new File(root, "store"));
+		File source = new File(root, "source");
+		Files.write(source.toPath(), CONTENT);
+		checksum = FileUtil.getSha1Checksum(source.getAbsolutePath());
+	}
+
+	@AfterEach
+	void tearDown() throws IOException {
+		try (Stream<Path> paths = Files.walk(root.toPath())) {
+			paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+		}
+	}
+
+	@Test
+	void linksStoredFileIntoOtherInstall() throws IOException {
+		File first = install("first", true);
+		store.add(checksum, first);
+
+		File second = new File(root, "second/data/file");
+		second.getParentFile().mkdirs();
+		assertTrue(store.linkInto(checksum, CONTENT.length, second));
+		assertArrayEquals(CONTENT, Files.readAllBytes(second.toPath()));
+		assertFalse(new File(second.getAbsolutePath() + ".filepart").exists());
+	}
+
+	@Test
+	void doesNotLinkMissingBlob() {
+		File dst = new File(root, "file");
+		assertFalse(store.linkInto(checksum, CONTENT.length, dst));
+		assertFalse(dst.exists());
+	}
+
+	@Test
+	void dropsBlobModifiedThroughInstall() throws IOException {
+		File first = install("first", true);
+		store.add(checksum, first);
+		Files.write(first.toPath(), "changed by the game".getBytes(StandardCharsets.UTF_8));
+
+		assertFalse(store.linkInto(checksum, CONTENT.length, new File(root, "file")));
+		assertFalse(store.getBlob(checksum).exists());
+	}
+
+	@Test
+	void collectsBlobsNoInstallReferences() throws IOException {
+		File kept = install("kept", true);
+		store.add(checksum, kept);
+		File orphan = new File(root, "orphan");
+		Files.write(orphan.toPath(), "no longer in any build".getBytes(StandardCharsets.UTF_8));
+		String orphanChecksum = FileUtil.getSha1Checksum(orphan.getAbsolutePath());
+		store.add(orphanChecksum, orphan);
+		install("removed", true);
+		deleteLauncherDir(new File(root, "removed"));
+
+		long freed = store.collectGarbage();
+
+		assertEquals(orphan.length(), freed);
+		assertTrue(store.getBlob(checksum).exists());
+		assertFalse(store.getBlob(orphanChecksum).exists());
+		assertArrayEquals(CONTENT, Files.readAllBytes(kept.toPath()));
+	}
+
+	/**
+	 * Creates an install with the file and a hash index listing it.
+	 */
+	private File install(String name, boolean register) throws IOException {
+		File installDir = new File(root, name);
+		File file = new File(installDir, "data/file");
+		file.getParentFile().mkdirs();
+		Files.write(file.toPath(), CONTENT);
+		LocalHashIndex index = LocalHashIndex.load(installDir);
+		index.update("/data/file", file, checksum);
+		index.save();
+		if (register) store.registerInstall(installDir);
+		return file;
+	}
+
+	private static void deleteLauncherDir(File installDir) throws IOException {
+		try (Stream<Path> paths = Files.walk(new File(installDir, LocalHashIndex.LAUNCHER_DIR).toPath())) {
+			paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+		}
+	}
+}
@@ -0,0 +1,192 @@
+package smlauncher.starmade;
+
+import com.sun.net.httpserver.HttpExchange;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for {@link DeltaPatch} class, patching from a stand-in server that generates patches against the previous
+ * build.
+ */
+public class DeltaPatchTest {
+
+	private static final byte[] OLD_BUILD = new byte[2 * 1024 * 1024];
+	private static final byte[] NEW_BUILD;
+
+	static {
+		new Random(42).nextBytes(OLD_BUILD);
+		// a few changed classes, one inserted and one removed
+		ByteArrayOutputStream changed = new ByteArrayOutputStream();
+		changed.write(OLD_BUILD, 0, 300000);
+		byte[] inserted = new byte[5000];
+		new Random(7).nextBytes(inserted);
+		changed.write(inserted, 0, inserted.length);
+		changed.write(OLD_BUILD, 300000, 900000);
+		changed.write(OLD_BUILD, 1250000, OLD_BUILD.length - 1250000);
+		NEW_BUILD = changed.toByteArray();
+		NEW_BUILD[NEW_BUILD.length - 10] ^= 1;
+	}
+
+	private TestServer server;
+	private File installDir;
+	private File previousBuild;
+	private MirrorSelector mirrors;
+	private final AtomicInteger fullDownloads = new AtomicInteger();
+	private final AtomicInteger patchBytes = new AtomicInteger();
+	private final AtomicInteger patchRequests = new AtomicInteger();
+
+	@BeforeEach
+	void setUp() throws IOException {
+		server = new TestServer("delta");
+		installDir = server.dir;
+		previousBuild = new File(installDir, "previous.jar");
+		Files.write(previousBuild.toPath(), OLD_BUILD);
+		server.createContext("/", this::serve);
+		server.start();
+		mirrors = new MirrorSelector(Collections.singletonList(server.url()), "build");
+		mirrors.probe();
+	}
+
+	@AfterEach
+	void tearDown() throws IOException {
+		server.close();
+	}
+
+	@Test
+	void patchIsSmallAndReproducesTarget() throws Exception {
+		File target = new File(installDir, "target.jar");
+		Files.write(target.toPath(), NEW_BUILD);
+		ByteArrayOutputStream patch = new ByteArrayOutputStream();
+		DeltaPatch.create(previousBuild, target, patch);
+		assertTrue(patch.size() < NEW_BUILD.length / 50, "patch has " + patch.size() + " bytes");
+
+		File result = new File(installDir, "result.jar");
+		MessageDigest digest = MessageDigest.getInstance("SHA1");
+		DeltaPatch.apply(new ByteArrayInputStream(patch.toByteArray()), previousBuild, result, digest, null);
+		assertArrayEquals(NEW_BUILD, Files.readAllBytes(result.toPath()));
+		assertArrayEquals(MessageDigest.getInstance("SHA1").digest(NEW_BUILD), digest.digest());
+	}
+
+	@Test
+	void refusesPatchForOtherFile() throws Exception {
+		File target = new File(installDir, "target.jar");
+		Files.write(target.toPath(), NEW_BUILD);
+		ByteArrayOutputStream patch = new ByteArrayOutputStream();
+		DeltaPatch.create(previousBuild, target, patch);
+
+		assertThrows(IOException.class, () -> DeltaPatch.apply(new ByteArrayInputStream(patch.toByteArray()), target, new File(installDir, "result.jar"), null, null));
+	}
+
+	@Test
+	void updatesFileWithPatch() throws Exception {
+		File local = new File(installDir, "StarMade.jar");
+		Files.write(local.toPath(), OLD_BUILD);
+
+		download(installed(OLD_BUILD));
+
+		assertArrayEquals(NEW_BUILD, Files.readAllBytes(local.toPath()));
+		assertEquals(0, fullDownloads.get());
+		assertTrue(patchBytes.get() > 0);
+		assertFalse(new File(installDir, "StarMade.jar.patched").exists());
+	}
+
+	@Test
+	void downloadsInFullWithoutPatch() throws Exception {
+		File local = new File(installDir, "StarMade.jar");
+		byte[] unknown = OLD_BUILD.clone();
+		unknown[0] ^= 1;
+		Files.write(local.toPath(), unknown);
+
+		// the installed manifest claims the unknown file, as if it changed since
+		download(installed(unknown));
+
+		assertArrayEquals(NEW_BUILD, Files.readAllBytes(local.toPath()));
+		assertEquals(1, patchRequests.get());
+		assertEquals(1, fullDownloads.get());
+	}
+
+	@Test
+	void asksForPatchOnlyForInstalledFile() throws Exception {
+		File local = new File(installDir, "StarMade.jar");
+		byte[] modded = OLD_BUILD.clone();
+		modded[0] ^= 1;
+		Files.write(local.toPath(), modded);
+
+		download(installed(OLD_BUILD));
+		assertEquals(0, patchRequests.get());
+		assertEquals(1, fullDownloads.get());
+
+		Files.write(local.toPath(), OLD_BUILD);
+		download(null);
+		assertEquals(0, patchRequests.get());
+		assertEquals(2, fullDownloads.get());
+	}
+
+	private void download(CompactManifest installed) throws Exception {
+		ChecksumFileEntry entry = new ChecksumFileEntry(NEW_BUILD.length, sha1(NEW_BUILD), "./StarMade.jar");
+		entry.download(false, mirrors, installDir, installDir.getPath(), LocalHashIndex.load(installDir), new DownloadProgress(null), null, installed);
+	}
+
+	/**
+	 * @return the manifest of an installed build that had the given jar
+	 */
+	private static CompactManifest installed(byte[] jar) throws IOException {
+		byte[] manifest = ("./StarMade.jar " + jar.length + " " + sha1(jar) + "\n").getBytes(StandardCharsets.UTF_8);
+		return CompactManifest.parse(manifest, 0, manifest.length);
+	}
+
+	/**
+	 * Serves the new build, and patches to it from the previous build.
+	 */
+	private void serve(HttpExchange exchange) throws IOException {
+		String path = exchange.getRequestURI().getPath();
+		byte[] body;
+		if (path.endsWith(".patch")) patchRequests.incrementAndGet();
+		if (exchange.getRequestMethod().equals("HEAD")) {
+			body = null;
+		} else if (path.equals("/build/StarMade.jar")) {
+			fullDownloads.incrementAndGet();
+			body = NEW_BUILD;
+		} else if (path.equals("/build/StarMade.jar." + sha1(OLD_BUILD) + ".patch")) {
+			File target = File.createTempFile("delta", ".jar");
+			try {
+				Files.write(target.toPath(), NEW_BUILD);
+				ByteArrayOutputStream patch = new ByteArrayOutputStream();
+				DeltaPatch.create(previousBuild, target, patch);
+				body = patch.toByteArray();
+				patchBytes.addAndGet(body.length);
+			} finally {
+				target.delete();
+			}
+		} else {
+			exchange.sendResponseHeaders(404, -1);
+			exchange.close();
+			return;
+		}
+		exchange.sendResponseHeaders(200, body == null ? -1 : body.length);
+		if (body != null) exchange.getResponseBody().write(body);
+		exchange.close();
+	}
+
+	private static String sha1(byte[] data) {
+		try {
+			return FileHasher.get().toHex(MessageDigest.getInstance("SHA1").digest(data));
+		} catch (Exception e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
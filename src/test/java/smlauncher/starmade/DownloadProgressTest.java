@@ -0,0 +1,105 @@
+package smlauncher.starmade;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for {@link DownloadProgress} class and its sampling thread.
+ */
+public class DownloadProgressTest {
+
+	private final AtomicInteger updates = new AtomicInteger();
+	private final AtomicInteger done = new AtomicInteger();
+	private final AtomicReference<FileDownloadUpdate> last = new AtomicReference<>();
+	private final CountDownLatch sampled = new CountDownLatch(1);
+	private final DownloadProgress progress = new DownloadProgress(new FileDowloadCallback() {
+		@Override
+		public void update(FileDownloadUpdate u) {
+			updates.incrementAndGet();
+			last.set(u);
+			sampled.countDown();
+		}
+
+		@Override
+		public void update(String u) {
+		}
+
+		@Override
+		public void done(FileDownloadUpdate u) {
+			done.incrementAndGet();
+			last.set(u);
+		}
+	});
+
+	@AfterEach
+	void tearDown() {
+		progress.stop(false);
+	}
+
+	@Test
+	void discardTakesPartialFileOutOfTotal() {
+		progress.queued(1000);
+		progress.queued(2000);
+		DownloadProgress.FileProgress first = progress.started("first", 1000);
+		DownloadProgress.FileProgress second = progress.started("second", 2000);
+		first.downloaded(300, 300);
+		first.downloaded(500, 200);
+		second.downloaded(700, 700);
+		assertEquals(1200, progress.getCurrentSize());
+
+		first.discard();
+		assertEquals(700, progress.getCurrentSize());
+		first.downloaded(100, 100);
+		assertEquals(800, progress.getCurrentSize());
+		assertEquals(3000, progress.getTotalSize());
+	}
+
+	@Test
+	void publishesWhileRunningAndFinalUpdateOnStop() throws Exception {
+		progress.start();
+		progress.queued(1000);
+		progress.started("file", 1000).downloaded(400, 400);
+		assertTrue(sampled.await(10 * DownloadProgress.SAMPLE_INTERVAL, TimeUnit.MILLISECONDS));
+
+		DownloadProgress.FileProgress file = progress.started("file", 1000);
+		file.downloaded(1000, 600);
+		progress.finished();
+		progress.stop(true);
+
+		assertEquals(1, done.get());
+		assertEquals(1000, last.get().currentSize);
+		assertEquals(1, last.get().index);
+		assertEquals(1, last.get().total);
+
+		// no samples after the sampler stopped
+		int published = updates.get();
+		Thread.sleep(3 * DownloadProgress.SAMPLE_INTERVAL);
+		assertEquals(published, updates.get());
+	}
+
+	@Test
+	void stopsWithoutFinalUpdateWhenNotDone() throws Exception {
+		progress.start();
+		progress.queued(1000);
+		progress.stop(false);
+
+		assertEquals(0, done.get());
+		Thread.sleep(3 * DownloadProgress.SAMPLE_INTERVAL);
+		assertEquals(0, updates.get());
+	}
+
+	@Test
+	void publishesNothingWhileVerifying() throws Exception {
+		progress.start();
+		Thread.sleep(3 * DownloadProgress.SAMPLE_INTERVAL);
+
+		assertEquals(0, updates.get());
+	}
+}
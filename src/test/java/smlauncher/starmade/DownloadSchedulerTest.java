@@ -0,0 +1,140 @@
+package smlauncher.starmade;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for {@link DownloadScheduler} class, driving its adjustments by hand.
+ */
+public class DownloadSchedulerTest {
+
+	private static final String HASH = "da39a3ee5e6b4b0d3255bfef95601890afd80709";
+
+	private final AtomicLong bytes = new AtomicLong();
+	private final CountDownLatch release = new CountDownLatch(1);
+	private DownloadScheduler scheduler;
+
+	@BeforeEach
+	void setUp() {
+		scheduler = new DownloadScheduler(bytes::get, false);
+	}
+
+	@AfterEach
+	void tearDown() {
+		release.countDown();
+		scheduler.shutdownNow();
+	}
+
+	@Test
+	void routesFilesByLargeFileSize() {
+		Executor small = scheduler.laneFor(0);
+		Executor large = scheduler.laneFor(DownloadScheduler.LARGE_FILE_SIZE);
+
+		assertNotSame(small, large);
+		assertSame(small, scheduler.laneFor(DownloadScheduler.LARGE_FILE_SIZE - 1));
+		assertSame(large, scheduler.laneFor(Long.MAX_VALUE));
+	}
+
+	@Test
+	void growsWhileThroughputImprovesUpToLimit() {
+		fillSmallLane();
+		assertEquals(4, scheduler.getSmallThreads());
+
+		for (int i = 1; i <= 20; i++) {
+			bytes.addAndGet(i * 1000L);
+			scheduler.adjust();
+			assertEquals(Math.min(16, 4 + i), scheduler.getSmallThreads());
+		}
+	}
+
+	@Test
+	void doesNotGrowWithoutQueuedFiles() {
+		bytes.addAndGet(1000);
+		scheduler.adjust();
+
+		assertEquals(4, scheduler.getSmallThreads());
+	}
+
+	@Test
+	void shrinksWhenThroughputDrops() {
+		bytes.addAndGet(10000);
+		scheduler.adjust();
+		bytes.addAndGet(1000);
+		scheduler.adjust();
+
+		assertEquals(3, scheduler.getSmallThreads());
+	}
+
+	@Test
+	void shrinksWhenLatencyRises() {
+		scheduler.completed(result(1000, null, 10));
+		scheduler.adjust();
+		bytes.addAndGet(1000);
+		scheduler.completed(result(1000, null, 10));
+		scheduler.adjust();
+		assertEquals(4, scheduler.getSmallThreads());
+
+		// throughput still improves, but files take far longer than the best seen
+		bytes.addAndGet(5000);
+		scheduler.completed(result(1000, null, 50));
+		scheduler.adjust();
+		assertEquals(3, scheduler.getSmallThreads());
+	}
+
+	@Test
+	void ignoresLatencyOfLargeFiles() {
+		scheduler.completed(result(1000, null, 10));
+		scheduler.adjust();
+		scheduler.completed(result(DownloadScheduler.LARGE_FILE_SIZE, null, 60000));
+		scheduler.adjust();
+
+		assertEquals(4, scheduler.getSmallThreads());
+	}
+
+	@Test
+	void halvesOnFailuresDownToMinimum() {
+		fillSmallLane();
+		for (int i = 1; i <= 4; i++) {
+			bytes.addAndGet(i * 1000L);
+			scheduler.adjust();
+		}
+		assertEquals(8, scheduler.getSmallThreads());
+
+		scheduler.completed(result(1000, new IOException("reset"), 10));
+		scheduler.adjust();
+		assertEquals(4, scheduler.getSmallThreads());
+		scheduler.completed(result(DownloadScheduler.LARGE_FILE_SIZE, new IOException("reset"), 10));
+		scheduler.adjust();
+		assertEquals(2, scheduler.getSmallThreads());
+		scheduler.completed(result(1000, new IOException("reset"), 10));
+		scheduler.adjust();
+		assertEquals(2, scheduler.getSmallThreads());
+	}
+
+	/**
+	 * Keeps every thread of the small file lane busy with more files waiting, so the lane is allowed to grow.
+	 */
+	private void fillSmallLane() {
+		Executor small = scheduler.laneFor(0);
+		for (int i = 0; i < 64; i++) {
+			small.execute(() -> {
+				try {
+					release.await();
+				} catch (InterruptedException ignored) {
+				}
+			});
+		}
+	}
+
+	private static DownloadResult result(long size, Exception error, long durationMillis) {
+		return new DownloadResult(new ChecksumFileEntry(size, HASH, "./data/file.txt"), error, durationMillis);
+	}
+}
@@ -0,0 +1,135 @@
+package smlauncher.starmade;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for {@link FileHasher} class against the checksums of {@link MessageDigest}.
+ */
+public class FileHasherTest {
+
+	private File dir;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		dir = Files.createTempDirectory("hasher").toFile();
+	}
+
+	@AfterEach
+	void tearDown() throws IOException {
+		FileHasher.setMappedThreshold(-1);
+		FileUtil.deleteRecursive(dir);
+	}
+
+	@Test
+	void encodesHex() {
+		byte[] bytes = new byte[256];
+		for (int i = 0; i < bytes.length; i++) bytes[i] = (byte) i;
+
+		assertEquals(hex(bytes), FileHasher.get().toHex(bytes));
+		assertEquals("00ff7f80", FileHasher.get().toHex(new byte[]{0, (byte) 0xff, 0x7f, (byte) 0x80}));
+		assertEquals("", FileHasher.get().toHex(new byte[0]));
+	}
+
+	@Test
+	void hexOfDigestIsNotOverwrittenByNextCall() throws Exception {
+		String first = FileHasher.get().toHex(sha1(new byte[]{1}));
+		String second = FileHasher.get().toHex(sha1(new byte[]{2}));
+
+		assertEquals(hex(sha1(new byte[]{1})), first);
+		assertEquals(hex(sha1(new byte[]{2})), second);
+	}
+
+	@Test
+	void hashesEmptyFile() throws Exception {
+		File file = write("empty", new byte[0]);
+
+		assertEquals(hex(sha1(new byte[0])), FileHasher.get().sha1Hex(file));
+	}
+
+	@Test
+	void hashesFilesAroundReadBufferSize() throws Exception {
+		for (int size : new int[]{1, 256 * 1024 - 1, 256 * 1024, 256 * 1024 + 1, 1000000}) {
+			byte[] content = random(size);
+			File file = write("file" + size, content);
+
+			assertEquals(hex(sha1(content)), FileHasher.get().sha1Hex(file), "size " + size);
+		}
+	}
+
+	@Test
+	void hashesFilesAroundMappedThreshold() throws Exception {
+		// hashMappedThresholdMb of 1
+		FileHasher.setMappedThreshold(1024 * 1024);
+		for (int size : new int[]{1024 * 1024 - 1, 1024 * 1024, 1024 * 1024 + 1}) {
+			byte[] content = random(size);
+			File file = write("file" + size, content);
+
+			assertEquals(hex(sha1(content)), FileHasher.get().sha1Hex(file), "size " + size);
+		}
+	}
+
+	@Test
+	void hashesMappedFileAcrossWindowBoundary() throws Exception {
+		// the mapped windows are 64MB, so this file is hashed through two of them
+		byte[] content = random(64 * 1024 * 1024 + 4099);
+		File file = write("large", content);
+		String expected = hex(sha1(content));
+
+		FileHasher.setMappedThreshold(0);
+		assertEquals(expected, FileHasher.get().sha1Hex(file));
+		FileHasher.setMappedThreshold(-1);
+		assertEquals(expected, FileHasher.get().sha1Hex(file));
+	}
+
+	@Test
+	void hashesEmptyFileMapped() throws Exception {
+		FileHasher.setMappedThreshold(0);
+
+		assertEquals(hex(sha1(new byte[0])), FileHasher.get().sha1Hex(write("empty", new byte[0])));
+	}
+
+	@Test
+	void feedsFileToOtherDigest() throws Exception {
+		byte[] content = random(300000);
+		MessageDigest digest = MessageDigest.getInstance("SHA1");
+		digest.update(new byte[]{42});
+		FileHasher.get().update(digest, write("file", content));
+
+		MessageDigest expected = MessageDigest.getInstance("SHA1");
+		expected.update(new byte[]{42});
+		expected.update(content);
+		assertArrayEquals(expected.digest(), digest.digest());
+	}
+
+	private File write(String name, byte[] content) throws IOException {
+		File file = new File(dir, name);
+		Files.write(file.toPath(), content);
+		return file;
+	}
+
+	private static byte[] random(int size) {
+		byte[] content = new byte[size];
+		new Random(size).nextBytes(content);
+		return content;
+	}
+
+	private static byte[] sha1(byte[] content) throws Exception {
+		return MessageDigest.getInstance("SHA1").digest(content);
+	}
+
+	private static String hex(byte[] bytes) {
+		StringBuilder hex = new StringBuilder();
+		for (byte b : bytes) hex.append(String.format("%02x", b));
+		return hex.toString();
+	}
+}
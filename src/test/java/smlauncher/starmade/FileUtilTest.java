@@ -0,0 +1,203 @@
+package smlauncher.starmade;
+
+import com.sun.net.httpserver.HttpExchange;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import smlauncher.http.PooledHttpClient;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for resumable downloads of {@link FileUtil} class against an embedded HTTP server.
+ */
+public class FileUtilTest {
+
+	private static final byte[] CONTENT = new byte[100000];
+
+	static {
+		for (int i = 0; i < CONTENT.length; i++) CONTENT[i] = (byte) (i * 31);
+	}
+
+	private TestServer server;
+	private String baseUrl;
+	private File file;
+	private final AtomicInteger requests = new AtomicInteger();
+	private final AtomicInteger rangeRequests = new AtomicInteger();
+	private final AtomicInteger compressedBytes = new AtomicInteger();
+
+	@BeforeEach
+	void setUp() throws IOException {
+		server = new TestServer();
+		server.createContext("/ranged", exchange -> send(exchange, true, false));
+		server.createContext("/whole", exchange -> send(exchange, false, false));
+		server.createContext("/flaky", exchange -> send(exchange, true, requests.get() == 0));
+		server.createContext("/gzip", exchange -> {
+			requests.incrementAndGet();
+			String encoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+			if (encoding == null || !encoding.contains("gzip")) {
+				send(exchange, true, false);
+				return;
+			}
+			ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+			try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+				gzip.write(CONTENT);
+			}
+			compressedBytes.set(compressed.size());
+			exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+			exchange.sendResponseHeaders(200, compressed.size());
+			exchange.getResponseBody().write(compressed.toByteArray());
+			exchange.close();
+		});
+		server.createContext("/badgzip", exchange -> {
+			byte[] body = "not gzip".getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+			exchange.sendResponseHeaders(200, body.length);
+			exchange.getResponseBody().write(body);
+			exchange.close();
+		});
+		server.start();
+		baseUrl = server.url();
+		file = File.createTempFile("download", ".filepart");
+	}
+
+	@AfterEach
+	void tearDown() throws IOException {
+		server.close();
+		file.delete();
+	}
+
+	@Test
+	void appendsToExistingPart() throws IOException {
+		Files.write(file.toPath(), Arrays.copyOf(CONTENT, 40000));
+		AtomicLong progress = new AtomicLong();
+		FileUtil.copyURLToFile(new URL(baseUrl + "/ranged"), file, 1000, 1000, callback(progress), "dev", "dev", true);
+
+		assertArrayEquals(CONTENT, Files.readAllBytes(file.toPath()));
+		assertEquals(1, rangeRequests.get());
+		assertEquals(CONTENT.length, progress.get());
+	}
+
+	@Test
+	void replacesPartWhenRangeIsIgnored() throws IOException {
+		Files.write(file.toPath(), new byte[40000]);
+		AtomicLong progress = new AtomicLong();
+		FileUtil.copyURLToFile(new URL(baseUrl + "/whole"), file, 1000, 1000, callback(progress), "dev", "dev", true);
+
+		assertArrayEquals(CONTENT, Files.readAllBytes(file.toPath()));
+		assertEquals(CONTENT.length, progress.get());
+	}
+
+	@Test
+	void resumesAfterDisconnect() throws Exception {
+		file.delete();
+		AtomicLong progress = new AtomicLong();
+		MessageDigest digest = MessageDigest.getInstance("SHA1");
+		FileUtil.copyURLToFile(new URL(baseUrl + "/flaky"), file, 1000, 1000, callback(progress), "dev", "dev", true, digest);
+
+		assertArrayEquals(CONTENT, Files.readAllBytes(file.toPath()));
+		assertArrayEquals(MessageDigest.getInstance("SHA1").digest(CONTENT), digest.digest());
+		assertEquals(2, requests.get());
+		assertEquals(1, rangeRequests.get());
+		assertEquals(CONTENT.length, progress.get());
+	}
+
+	@Test
+	void decompressesGzipResponse() throws Exception {
+		file.delete();
+		AtomicLong progress = new AtomicLong();
+		MessageDigest digest = MessageDigest.getInstance("SHA1");
+		FileUtil.copyURLToFile(new URL(baseUrl + "/gzip"), file, 1000, 1000, callback(progress), "dev", "dev", true, digest);
+
+		assertArrayEquals(CONTENT, Files.readAllBytes(file.toPath()));
+		assertArrayEquals(MessageDigest.getInstance("SHA1").digest(CONTENT), digest.digest());
+		assertEquals(CONTENT.length, progress.get());
+		assertTrue(compressedBytes.get() > 0 && compressedBytes.get() < CONTENT.length / 10);
+	}
+
+	@Test
+	void resumesWithoutCompression() throws Exception {
+		Files.write(file.toPath(), Arrays.copyOf(CONTENT, 40000));
+		FileUtil.copyURLToFile(new URL(baseUrl + "/gzip"), file, 1000, 1000, null, "dev", "dev", true);
+
+		assertArrayEquals(CONTENT, Files.readAllBytes(file.toPath()));
+		assertEquals(1, rangeRequests.get());
+		assertEquals(0, compressedBytes.get());
+	}
+
+	@Test
+	void doesNotRetryMissingFile() throws IOException {
+		file.delete();
+		assertThrows(IOException.class, () -> FileUtil.copyURLToFile(new URL(baseUrl + "/missing"), file, 1000, 1000, null, "dev", "dev", true));
+	}
+
+	@Test
+	void releasesConnectionWhenBodyCannotBeDecoded() throws Exception {
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			// more failures than connections per host, a leaked connection each would block the last download
+			executor.submit(() -> {
+				for (int i = 0; i <= PooledHttpClient.DEFAULT_MAX_CONNECTIONS_PER_HOST; i++) {
+					assertThrows(IOException.class, () -> FileUtil.copyURLToFile(new URL(baseUrl + "/badgzip"), file, 1000, 1000, null, "dev", "dev", false));
+				}
+				FileUtil.copyURLToFile(new URL(baseUrl + "/ranged"), file, 1000, 1000, null, "dev", "dev", false);
+				return null;
+			}).get(30, TimeUnit.SECONDS);
+		} finally {
+			executor.shutdownNow();
+		}
+		assertArrayEquals(CONTENT, Files.readAllBytes(file.toPath()));
+	}
+
+	private void send(HttpExchange exchange, boolean supportsRange, boolean disconnect) throws IOException {
+		requests.incrementAndGet();
+		String range = exchange.getRequestHeaders().getFirst("Range");
+		int from = 0;
+		if (range != null && supportsRange) {
+			rangeRequests.incrementAndGet();
+			from = Integer.parseInt(range.substring("bytes=".length(), range.indexOf('-')));
+			exchange.getResponseHeaders().add("Content-Range", "bytes " + from + "-" + (CONTENT.length - 1) + "/" + CONTENT.length);
+			exchange.sendResponseHeaders(206, CONTENT.length - from);
+		} else {
+			exchange.sendResponseHeaders(200, CONTENT.length);
+		}
+		OutputStream out = exchange.getResponseBody();
+		int to = disconnect ? CONTENT.length / 2 : CONTENT.length;
+		out.write(CONTENT, from, to - from);
+		out.flush();
+		if (disconnect) {
+			// the server drops the connection when a handler fails in the middle of the body
+			throw new IOException("Dropping connection");
+		}
+		exchange.close();
+	}
+
+	private static DownloadCallback callback(AtomicLong progress) {
+		return new DownloadCallback() {
+			@Override
+			public void downloaded(long size, long diff) {
+				progress.addAndGet(diff);
+			}
+
+			@Override
+			public void doneDownloading() {
+			}
+		};
+	}
+}
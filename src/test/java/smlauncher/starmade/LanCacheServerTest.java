@@ -0,0 +1,197 @@
+package smlauncher.starmade;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import smlauncher.http.HttpResponse;
+import smlauncher.http.PooledHttpClient;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for {@link LanCacheServer} class, caching an embedded upstream HTTP server.
+ */
+public class LanCacheServerTest {
+
+	private static final String BUILD_FILE = "/build/starmade-build_20240101_120000/StarMade.jar";
+	private static final String SLOW_FILE = "/build/starmade-build_20240101_120000/slow.jar";
+	private static final byte[] CONTENT = new byte[300000];
+
+	static {
+		new Random(42).nextBytes(CONTENT);
+	}
+
+	private TestServer upstream;
+	private LanCacheServer cache;
+	private File cacheDir;
+	private String cacheUrl;
+	private PooledHttpClient client;
+	private final AtomicInteger upstreamRequests = new AtomicInteger();
+	private final CountDownLatch release = new CountDownLatch(1);
+
+	@BeforeEach
+	void setUp() throws IOException {
+		upstream = new TestServer("lancache");
+		upstream.createContext("/", exchange -> {
+			upstreamRequests.incrementAndGet();
+			boolean found = exchange.getRequestURI().getPath().equals(BUILD_FILE);
+			try {
+				Thread.sleep(100); // give concurrent misses time to pile up
+			} catch (InterruptedException ignored) {
+			}
+			exchange.sendResponseHeaders(found ? 200 : 404, found ? CONTENT.length : -1);
+			if (found) exchange.getResponseBody().write(CONTENT);
+			exchange.close();
+		});
+		upstream.createContext(SLOW_FILE, exchange -> {
+			upstreamRequests.incrementAndGet();
+			exchange.sendResponseHeaders(200, CONTENT.length);
+			OutputStream body = exchange.getResponseBody();
+			body.write(CONTENT, 0, CONTENT.length / 2);
+			body.flush();
+			try {
+				// the rest only comes once the clients got the first half
+				release.await(10, TimeUnit.SECONDS);
+			} catch (InterruptedException ignored) {
+			}
+			body.write(CONTENT, CONTENT.length / 2, CONTENT.length - CONTENT.length / 2);
+			exchange.close();
+		});
+		upstream.start();
+		cacheDir = new File(upstream.dir, "cache");
+		client = new PooledHttpClient(16, 1000, 5000, "test");
+		cache = new LanCacheServer(cacheDir, upstream.url(), client);
+		cache.start(0);
+		cacheUrl = "http://127.0.0.1:" + cache.getPort();
+	}
+
+	@AfterEach
+	void tearDown() throws IOException {
+		release.countDown();
+		cache.stop();
+		upstream.close();
+	}
+
+	@Test
+	void fillsOnMissAndServesHits() throws Exception {
+		assertArrayEquals(CONTENT, get(BUILD_FILE, null));
+		assertArrayEquals(CONTENT, get(BUILD_FILE, null));
+
+		assertEquals(1, upstreamRequests.get());
+		assertEquals(1, cache.getHits());
+		assertEquals(1, cache.getMisses());
+	}
+
+	@Test
+	void sharesConcurrentMisses() throws Exception {
+		ExecutorService pool = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<byte[]>> results = new ArrayList<>();
+			for (int i = 0; i < 8; i++) results.add(pool.submit(() -> get(BUILD_FILE, null)));
+			for (Future<byte[]> result : results) assertArrayEquals(CONTENT, result.get());
+		} finally {
+			pool.shutdown();
+		}
+		assertEquals(1, upstreamRequests.get());
+	}
+
+	@Test
+	void streamsMissWhileUpstreamSendsIt() throws Exception {
+		try (HttpResponse first = client.get(new URL(cacheUrl + SLOW_FILE)).requireSuccess();
+			 HttpResponse second = client.get(new URL(cacheUrl + SLOW_FILE)).requireSuccess()) {
+			assertEquals(CONTENT.length, first.getContentLength());
+			byte[] half = Arrays.copyOf(CONTENT, CONTENT.length / 2);
+			byte[] firstHalf = new byte[half.length];
+			byte[] secondHalf = new byte[half.length];
+			new DataInputStream(first.getBody()).readFully(firstHalf);
+			new DataInputStream(second.getBody()).readFully(secondHalf);
+			assertArrayEquals(half, firstHalf);
+			assertArrayEquals(half, secondHalf);
+
+			release.countDown();
+			assertArrayEquals(Arrays.copyOfRange(CONTENT, half.length, CONTENT.length), read(first.getBody()));
+			assertArrayEquals(Arrays.copyOfRange(CONTENT, half.length, CONTENT.length), read(second.getBody()));
+		}
+		assertEquals(1, upstreamRequests.get());
+		assertArrayEquals(CONTENT, get(SLOW_FILE, null));
+		assertEquals(1, cache.getHits());
+	}
+
+	@Test
+	void servesRanges() throws Exception {
+		try (HttpResponse response = client.get(new URL(cacheUrl + BUILD_FILE), Collections.singletonMap("Range", "bytes=1000-1999"))) {
+			assertEquals(206, response.getStatus());
+			assertEquals("bytes 1000-1999/" + CONTENT.length, response.getHeader("Content-Range"));
+			byte[] expected = new byte[1000];
+			System.arraycopy(CONTENT, 1000, expected, 0, 1000);
+			assertArrayEquals(expected, read(response.getBody()));
+		}
+		try (HttpResponse response = client.get(new URL(cacheUrl + BUILD_FILE), Collections.singletonMap("Range", "bytes=" + CONTENT.length + "-"))) {
+			assertEquals(416, response.getStatus());
+		}
+	}
+
+	@Test
+	void segmentedDownloadThroughCache() throws Exception {
+		File file = new File(cacheDir, "download.bin");
+		new SegmentedDownloader(client, 4, 1000).download(new URL(cacheUrl + BUILD_FILE), file, CONTENT.length, null);
+
+		assertArrayEquals(CONTENT, Files.readAllBytes(file.toPath()));
+		assertEquals(1, upstreamRequests.get());
+	}
+
+	@Test
+	void passesThroughMissingFilesAndHidesMirrors() throws Exception {
+		try (HttpResponse response = client.get(new URL(cacheUrl + "/build/missing"))) {
+			assertEquals(404, response.getStatus());
+		}
+		try (HttpResponse response = client.get(new URL(cacheUrl + "/build/%2e%2e/%2e%2e/secret"))) {
+			assertEquals(404, response.getStatus());
+		}
+		assertEquals(0, get("/mirrors", null).length);
+		assertTrue(new String(get(LanCacheServer.STATS_PATH, null)).startsWith("hits=0 misses=1"));
+	}
+
+	@Test
+	void refusesPathsOutsideCacheDirectory() throws Exception {
+		Files.write(new File(upstream.dir, "secret.txt").toPath(), CONTENT);
+		for (String path : new String[]{"/%2E%2E/secret.txt", "/build/..%5C..%5Csecret.txt", "/..%5Csecret.txt"}) {
+			try (HttpResponse response = client.get(new URL(cacheUrl + path))) {
+				assertEquals(404, response.getStatus(), path);
+			}
+		}
+
+		assertEquals(0, upstreamRequests.get());
+		assertEquals(0, cache.getMisses());
+		assertEquals(0, cacheDir.list().length);
+	}
+
+	private byte[] get(String path, String range) throws IOException {
+		try (HttpResponse response = client.get(new URL(cacheUrl + path), range == null ? Collections.<String, String>emptyMap() : Collections.singletonMap("Range", range)).requireSuccess()) {
+			return read(response.getBody());
+		}
+	}
+
+	private static byte[] read(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		for (int n; (n = in.read(buffer)) != -1; ) out.write(buffer, 0, n);
+		return out.toByteArray();
+	}
+}
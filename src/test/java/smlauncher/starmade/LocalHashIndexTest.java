@@ -0,0 +1,162 @@
+package smlauncher.starmade;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for {@link LocalHashIndex} class on a temporary install directory.
+ * <p>
+ * Most tests index a file under a checksum it doesn't have, so a cache hit is told apart from a re-hash.
+ */
+public class LocalHashIndexTest {
+
+	private static final String PATH = "/data/file.txt";
+	private static final String STALE = "0000000000000000000000000000000000000000";
+	private static final long MODIFIED = 1500000000000L;
+
+	private File installDir;
+	private File file;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		installDir = Files.createTempDirectory("hashindex").toFile();
+		file = new File(installDir, "data/file.txt");
+		file.getParentFile().mkdirs();
+		write(file, "original");
+	}
+
+	@AfterEach
+	void tearDown() throws IOException {
+		FileUtil.deleteRecursive(installDir);
+	}
+
+	@Test
+	void hashesUnindexedFile() throws Exception {
+		LocalHashIndex index = LocalHashIndex.load(installDir);
+
+		assertEquals(sha1("original"), index.getChecksum(PATH, file));
+		assertTrue(index.isUnchanged(PATH, file, sha1("original")));
+		assertTrue(index.getChecksums().contains(sha1("original")));
+	}
+
+	@Test
+	void roundTripsThroughIndexFile() throws Exception {
+		LocalHashIndex index = LocalHashIndex.load(installDir);
+		index.update(PATH, file, STALE);
+		index.update("/name with\ttab.txt", file, sha1("original"));
+		index.save();
+
+		LocalHashIndex loaded = LocalHashIndex.load(installDir);
+		assertEquals(STALE, loaded.getChecksum(PATH, file));
+		assertTrue(loaded.isUnchanged("/name with\ttab.txt", file, sha1("original")));
+		assertFalse(loaded.isUnchanged(PATH, file, sha1("original")));
+	}
+
+	@Test
+	void rehashesWhenSizeChanges() throws Exception {
+		LocalHashIndex index = LocalHashIndex.load(installDir);
+		index.update(PATH, file, STALE);
+		write(file, "modified by a mod");
+
+		assertFalse(index.isUnchanged(PATH, file, STALE));
+		assertEquals(sha1("modified by a mod"), index.getChecksum(PATH, file));
+	}
+
+	@Test
+	void rehashesWhenModificationTimeChanges() throws Exception {
+		LocalHashIndex index = LocalHashIndex.load(installDir);
+		index.update(PATH, file, STALE);
+		// same size, only the time tells the file was written again
+		write(file, "ORIGINAL");
+		file.setLastModified(MODIFIED + 1000);
+
+		assertFalse(index.isUnchanged(PATH, file, STALE));
+		assertEquals(sha1("ORIGINAL"), index.getChecksum(PATH, file));
+	}
+
+	@Test
+	void rehashesWhenFileIsReplaced() throws Exception {
+		if (Files.readAttributes(file.toPath(), BasicFileAttributes.class).fileKey() == null) return; // no inodes here
+		LocalHashIndex index = LocalHashIndex.load(installDir);
+		index.update(PATH, file, STALE);
+		// same size and time, but another file moved over the indexed one
+		File replacement = new File(installDir, "replacement");
+		write(replacement, "ORIGINAL");
+		Files.move(replacement.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+		assertFalse(index.isUnchanged(PATH, file, STALE));
+		assertEquals(sha1("ORIGINAL"), index.getChecksum(PATH, file));
+	}
+
+	@Test
+	void forgetsRemovedEntries() throws Exception {
+		LocalHashIndex index = LocalHashIndex.load(installDir);
+		index.update(PATH, file, STALE);
+		index.save();
+		index.remove(PATH);
+		index.save();
+
+		LocalHashIndex loaded = LocalHashIndex.load(installDir);
+		assertFalse(loaded.isUnchanged(PATH, file, STALE));
+		assertEquals(sha1("original"), loaded.getChecksum(PATH, file));
+	}
+
+	@Test
+	void skipsCorruptAndTruncatedLines() throws Exception {
+		LocalHashIndex index = LocalHashIndex.load(installDir);
+		index.update(PATH, file, STALE);
+		index.save();
+		File indexFile = indexFile();
+		String valid = new String(Files.readAllBytes(indexFile.toPath()), StandardCharsets.UTF_8);
+		write(indexFile, valid + "not\ta\tnumber\t" + STALE + "\t/data/other.txt\n" + "8\t" + MODIFIED + "\t-\t" + STALE.substring(0, 10));
+
+		LocalHashIndex loaded = LocalHashIndex.load(installDir);
+		assertTrue(loaded.isUnchanged(PATH, file, STALE));
+		assertEquals(1, loaded.getChecksums().size());
+	}
+
+	@Test
+	void ignoresIndexOfUnknownFormat() throws Exception {
+		LocalHashIndex index = LocalHashIndex.load(installDir);
+		index.update(PATH, file, STALE);
+		index.save();
+		Files.write(indexFile().toPath(), new byte[]{(byte) 0xff, 0, 'x', '\n', '8', '\t'});
+
+		LocalHashIndex loaded = LocalHashIndex.load(installDir);
+		assertTrue(loaded.getChecksums().isEmpty());
+		assertEquals(sha1("original"), loaded.getChecksum(PATH, file));
+	}
+
+	@Test
+	void ignoresEmptyIndexFile() throws Exception {
+		File indexFile = indexFile();
+		indexFile.getParentFile().mkdirs();
+		Files.write(indexFile.toPath(), new byte[0]);
+
+		assertEquals(sha1("original"), LocalHashIndex.load(installDir).getChecksum(PATH, file));
+	}
+
+	private File indexFile() {
+		return new File(new File(installDir, LocalHashIndex.LAUNCHER_DIR), "hashindex");
+	}
+
+	private static void write(File file, String content) throws IOException {
+		Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+		file.setLastModified(MODIFIED);
+	}
+
+	private static String sha1(String content) throws Exception {
+		return FileHasher.get().toHex(MessageDigest.getInstance("SHA1").digest(content.getBytes(StandardCharsets.UTF_8)));
+	}
+}
@@ -0,0 +1,107 @@
+package smlauncher.starmade;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import smlauncher.http.PooledHttpClient;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for {@link ManifestCache} class against an embedded HTTP server.
+ */
+public class ManifestCacheTest {
+
+	private static final String IMMUTABLE_BUILD = "/build/starmade-build_20240101_120000";
+
+	private TestServer server;
+	private String baseUrl;
+	private final AtomicReference<String> manifest = new AtomicReference<>("./data/a.txt 1 aaaa\n");
+
+	@BeforeEach
+	void setUp() throws IOException {
+		server = new TestServer("manifests");
+		server.serveVersioned("/", () -> manifest.get().getBytes(StandardCharsets.UTF_8));
+		server.start();
+		baseUrl = server.url();
+	}
+
+	@AfterEach
+	void tearDown() throws IOException {
+		server.close();
+	}
+
+	@Test
+	void servesImmutableBuildWithoutRequest() throws Exception {
+		ManifestCache cache = cache(ManifestCache.DEFAULT_MAX_SIZE);
+		cache.get(baseUrl + IMMUTABLE_BUILD);
+		// the launcher and the headless updater spell the build with and without a trailing slash
+		ChecksumFile cached = cache.get(baseUrl + IMMUTABLE_BUILD + "/");
+
+		assertEquals(1, server.requests.get());
+		assertEquals("aaaa", cached.checksums.get(0).checksum);
+	}
+
+	@Test
+	void revalidatesMutablePath() throws Exception {
+		ManifestCache cache = cache(ManifestCache.DEFAULT_MAX_SIZE);
+		cache.get(baseUrl + "/build/latest");
+		ChecksumFile cached = cache.get(baseUrl + "/build/latest");
+
+		assertEquals(2, server.requests.get());
+		assertEquals(1, server.notModified.get());
+		assertEquals("aaaa", cached.checksums.get(0).checksum);
+
+		manifest.set("./data/a.txt 1 bbbb\n");
+		ChecksumFile changed = cache.get(baseUrl + "/build/latest");
+		assertEquals(1, server.notModified.get());
+		assertEquals("bbbb", changed.checksums.get(0).checksum);
+	}
+
+	@Test
+	void evictsLeastRecentlyUsedManifest() throws Exception {
+		int size = manifest.get().length();
+		ManifestCache cache = cache(2 * size);
+		cache.get(baseUrl + "/build/starmade-build_20240101_000001");
+		Thread.sleep(20);
+		cache.get(baseUrl + "/build/starmade-build_20240101_000002");
+		Thread.sleep(20);
+		cache.get(baseUrl + "/build/starmade-build_20240101_000001");
+		Thread.sleep(20);
+		cache.get(baseUrl + "/build/starmade-build_20240101_000003");
+		server.requests.set(0);
+
+		cache.get(baseUrl + "/build/starmade-build_20240101_000001");
+		cache.get(baseUrl + "/build/starmade-build_20240101_000003");
+		assertEquals(0, server.requests.get());
+		cache.get(baseUrl + "/build/starmade-build_20240101_000002");
+		assertEquals(1, server.requests.get());
+	}
+
+	@Test
+	void cachesStreamedManifestOnlyWhenReadCompletely() throws Exception {
+		manifest.set("./data/a.txt 1 aaaa\n./data/b.txt 1 bbbb\n");
+		ManifestCache cache = cache(ManifestCache.DEFAULT_MAX_SIZE);
+		try (BufferedReader in = cache.open(baseUrl + IMMUTABLE_BUILD)) {
+			assertEquals("./data/a.txt 1 aaaa", in.readLine());
+		}
+		assertEquals(0, server.dir.listFiles().length);
+
+		try (BufferedReader in = cache.open(baseUrl + IMMUTABLE_BUILD)) {
+			while (in.readLine() != null) ;
+		}
+		server.requests.set(0);
+		ChecksumFile cached = cache.get(baseUrl + IMMUTABLE_BUILD);
+		assertEquals(0, server.requests.get());
+		assertEquals(2, cached.checksums.size());
+	}
+
+	private ManifestCache cache(long maxSize) {
+		return new ManifestCache(server.dir, maxSize, new PooledHttpClient(4, 1000, 5000, "test"));
+	}
+}
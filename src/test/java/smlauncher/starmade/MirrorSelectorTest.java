@@ -0,0 +1,111 @@
+package smlauncher.starmade;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for {@link MirrorSelector} class, downloading from mirrors on an embedded HTTP server.
+ */
+public class MirrorSelectorTest {
+
+	private static final byte[] CONTENT = "game data".getBytes(StandardCharsets.UTF_8);
+
+	private TestServer server;
+	private String baseUrl;
+	private File installDir;
+	private final AtomicInteger unstableRequests = new AtomicInteger();
+
+	@BeforeEach
+	void setUp() throws IOException {
+		server = new TestServer("mirrors");
+		serve("/good/", CONTENT);
+		serve("/corrupt/", "corrupted".getBytes(StandardCharsets.UTF_8));
+		server.createContext("/unstable/", exchange -> {
+			boolean corrupt = !exchange.getRequestMethod().equals("HEAD") && unstableRequests.getAndIncrement() == 0;
+			byte[] body = corrupt ? "corrupted".getBytes(StandardCharsets.UTF_8) : CONTENT;
+			exchange.sendResponseHeaders(200, exchange.getRequestMethod().equals("HEAD") ? -1 : body.length);
+			if (!exchange.getRequestMethod().equals("HEAD")) exchange.getResponseBody().write(body);
+			exchange.close();
+		});
+		server.createContext("/broken/", exchange -> {
+			exchange.sendResponseHeaders(exchange.getRequestMethod().equals("HEAD") ? 200 : 404, -1);
+			exchange.close();
+		});
+		server.start();
+		baseUrl = server.url();
+		installDir = server.dir;
+	}
+
+	@AfterEach
+	void tearDown() throws IOException {
+		server.close();
+	}
+
+	@Test
+	void failsOverToMirrorWithValidFile() throws Exception {
+		MirrorSelector mirrors = new MirrorSelector(Arrays.asList(baseUrl + "/broken", baseUrl + "/corrupt", baseUrl + "/good"), "build");
+		mirrors.probe();
+
+		for (int i = 0; i < 10; i++) {
+			ChecksumFileEntry entry = new ChecksumFileEntry(CONTENT.length, sha1(CONTENT), "./data/file" + i + ".bin");
+			entry.download(false, mirrors, installDir, installDir.getPath(), LocalHashIndex.load(installDir), new DownloadProgress(null));
+			assertArrayEquals(CONTENT, Files.readAllBytes(new File(installDir, "data/file" + i + ".bin").toPath()));
+		}
+	}
+
+	@Test
+	void failsWhenNoMirrorHasValidFile() throws Exception {
+		MirrorSelector mirrors = new MirrorSelector(Arrays.asList(baseUrl + "/broken", baseUrl + "/corrupt"), "build");
+		mirrors.probe();
+
+		ChecksumFileEntry entry = new ChecksumFileEntry(CONTENT.length, sha1(CONTENT), "./data/file.bin");
+		assertThrows(IOException.class, () -> entry.download(false, mirrors, installDir, installDir.getPath(), LocalHashIndex.load(installDir), new DownloadProgress(null)));
+		assertFalse(new File(installDir, "data/file.bin").exists());
+		assertFalse(new File(installDir, "data/file.bin.filepart").exists());
+	}
+
+	@Test
+	void retriesCorruptDownloadFromSameMirror() throws Exception {
+		MirrorSelector mirrors = new MirrorSelector(Collections.singletonList(baseUrl + "/unstable"), "build");
+		mirrors.probe();
+
+		ChecksumFileEntry entry = new ChecksumFileEntry(CONTENT.length, sha1(CONTENT), "./data/file.bin");
+		entry.download(false, mirrors, installDir, installDir.getPath(), LocalHashIndex.load(installDir), new DownloadProgress(null));
+		assertArrayEquals(CONTENT, Files.readAllBytes(new File(installDir, "data/file.bin").toPath()));
+		assertEquals(2, unstableRequests.get());
+	}
+
+	@Test
+	void skipsMirrorsWithoutBuild() {
+		MirrorSelector mirrors = new MirrorSelector(Arrays.asList(baseUrl + "/missing", baseUrl + "/good"), "build");
+		mirrors.probe();
+
+		for (int i = 0; i < 10; i++) {
+			assertEquals(baseUrl + "/good/build/data/file.bin", mirrors.getFileUrl(mirrors.select(Collections.emptyList()), "/data/file.bin"));
+		}
+	}
+
+	private void serve(String path, byte[] body) {
+		server.createContext(path, exchange -> {
+			exchange.sendResponseHeaders(200, exchange.getRequestMethod().equals("HEAD") ? -1 : body.length);
+			if (!exchange.getRequestMethod().equals("HEAD")) exchange.getResponseBody().write(body);
+			exchange.close();
+		});
+	}
+
+	private static String sha1(byte[] data) throws Exception {
+		return FileHasher.get().toHex(MessageDigest.getInstance("SHA1").digest(data));
+	}
+}
@@ -0,0 +1,167 @@
+package smlauncher.starmade;
+
+import com.sun.net.httpserver.HttpExchange;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import smlauncher.http.PooledHttpClient;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for {@link SegmentedDownloader} class against an embedded HTTP server.
+ */
+public class SegmentedDownloaderTest {
+
+	private static final byte[] CONTENT = new byte[1000000];
+
+	static {
+		new Random(42).nextBytes(CONTENT);
+	}
+
+	private TestServer server;
+	private String baseUrl;
+	private File file;
+	private SegmentedDownloader downloader;
+	private final AtomicInteger rangeRequests = new AtomicInteger();
+	private final AtomicInteger wholeRequests = new AtomicInteger();
+	private final AtomicInteger dropped = new AtomicInteger();
+
+	@BeforeEach
+	void setUp() throws IOException {
+		server = new TestServer();
+		server.createContext("/ranged", exchange -> send(exchange, true, false));
+		server.createContext("/whole", exchange -> send(exchange, false, false));
+		server.createContext("/flaky", exchange -> send(exchange, true, dropped.getAndIncrement() == 1));
+		server.createContext("/nohead", exchange -> {
+			if (exchange.getRequestMethod().equals("HEAD")) {
+				exchange.sendResponseHeaders(405, -1);
+				exchange.close();
+			} else {
+				send(exchange, true, false);
+			}
+		});
+		server.start();
+		baseUrl = server.url();
+		file = File.createTempFile("segmented", ".filepart");
+		downloader = new SegmentedDownloader(new PooledHttpClient(8, 1000, 5000, "test"), 4, 100000);
+	}
+
+	@AfterEach
+	void tearDown() throws IOException {
+		server.close();
+		file.delete();
+	}
+
+	@Test
+	void downloadsInSegments() throws Exception {
+		AtomicLong progress = new AtomicLong();
+		byte[] sha1 = downloader.download(new URL(baseUrl + "/ranged"), file, CONTENT.length, callback(progress));
+
+		assertArrayEquals(CONTENT, Files.readAllBytes(file.toPath()));
+		assertArrayEquals(MessageDigest.getInstance("SHA1").digest(CONTENT), sha1);
+		assertEquals(4, rangeRequests.get());
+		assertEquals(CONTENT.length, progress.get());
+	}
+
+	@Test
+	void asksServerForUnknownSize() throws Exception {
+		downloader.download(new URL(baseUrl + "/ranged"), file, -1, null);
+
+		assertArrayEquals(CONTENT, Files.readAllBytes(file.toPath()));
+		assertEquals(4, rangeRequests.get());
+	}
+
+	@Test
+	void downloadsWhenServerRefusesHead() throws Exception {
+		URL source = new URL(baseUrl + "/nohead");
+		assertEquals(-1, downloader.getContentLength(source));
+
+		downloader.download(source, file, -1, null);
+		assertArrayEquals(CONTENT, Files.readAllBytes(file.toPath()));
+		assertEquals(1, wholeRequests.get());
+	}
+
+	@Test
+	void fallsBackToSingleStreamWithoutRangeSupport() throws Exception {
+		AtomicLong progress = new AtomicLong();
+		byte[] sha1 = downloader.download(new URL(baseUrl + "/whole"), file, CONTENT.length, callback(progress));
+
+		assertArrayEquals(CONTENT, Files.readAllBytes(file.toPath()));
+		assertArrayEquals(MessageDigest.getInstance("SHA1").digest(CONTENT), sha1);
+		assertEquals(1, wholeRequests.get());
+		assertEquals(CONTENT.length, progress.get());
+	}
+
+	@Test
+	void retriesFailedSegment() throws Exception {
+		downloader.download(new URL(baseUrl + "/flaky"), file, CONTENT.length, null);
+
+		assertArrayEquals(CONTENT, Files.readAllBytes(file.toPath()));
+		assertEquals(5, rangeRequests.get());
+	}
+
+	@Test
+	void downloadsSmallFileInSingleStream() throws Exception {
+		SegmentedDownloader large = new SegmentedDownloader(new PooledHttpClient(8, 1000, 5000, "test"), 4, CONTENT.length + 1);
+		large.download(new URL(baseUrl + "/ranged"), file, CONTENT.length, null);
+
+		assertArrayEquals(CONTENT, Files.readAllBytes(file.toPath()));
+		assertEquals(0, rangeRequests.get());
+	}
+
+	private void send(HttpExchange exchange, boolean supportsRange, boolean drop) throws IOException {
+		String range = exchange.getRequestHeaders().getFirst("Range");
+		if (exchange.getRequestMethod().equals("HEAD")) {
+			exchange.getResponseHeaders().add("Content-Length", String.valueOf(CONTENT.length));
+			exchange.sendResponseHeaders(200, -1);
+			exchange.close();
+			return;
+		}
+		int from = 0;
+		int to = CONTENT.length - 1;
+		if (range != null && supportsRange) {
+			rangeRequests.incrementAndGet();
+			String[] bounds = range.substring("bytes=".length()).split("-");
+			from = Integer.parseInt(bounds[0]);
+			if (bounds.length > 1) to = Integer.parseInt(bounds[1]);
+			exchange.getResponseHeaders().add("Content-Range", "bytes " + from + "-" + to + "/" + CONTENT.length);
+			exchange.sendResponseHeaders(206, to + 1 - from);
+		} else {
+			wholeRequests.incrementAndGet();
+			exchange.sendResponseHeaders(200, CONTENT.length);
+		}
+		OutputStream out = exchange.getResponseBody();
+		int length = to + 1 - from;
+		out.write(CONTENT, from, drop ? length / 2 : length);
+		out.flush();
+		if (drop) {
+			// the server drops the connection when a handler fails in the middle of the body
+			throw new IOException("Dropping connection");
+		}
+		exchange.close();
+	}
+
+	private static DownloadCallback callback(AtomicLong progress) {
+		return new DownloadCallback() {
+			@Override
+			public void downloaded(long size, long diff) {
+				progress.addAndGet(diff);
+			}
+
+			@Override
+			public void doneDownloading() {
+			}
+		};
+	}
+}
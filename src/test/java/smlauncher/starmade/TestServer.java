@@ -0,0 +1,107 @@
+package smlauncher.starmade;
+
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Embedded HTTP server for the tests of the updater, with a temporary directory that is deleted when it is closed.
+ * <p>
+ * Handlers run on a thread pool of their own, so they may block while other requests are answered. The pool is shut
+ * down when the server is closed.
+ */
+final class TestServer implements AutoCloseable {
+
+	/**
+	 * Requests answered by {@link #serveVersioned}.
+	 */
+	final AtomicInteger requests = new AtomicInteger();
+	/**
+	 * Conditional requests {@link #serveVersioned} answered with {@code 304 Not Modified}.
+	 */
+	final AtomicInteger notModified = new AtomicInteger();
+	/**
+	 * The temporary directory, or null if none was asked for.
+	 */
+	final File dir;
+
+	private final HttpServer server;
+	private final ExecutorService executor = Executors.newCachedThreadPool();
+
+	/**
+	 * Creates a server without a temporary directory. Contexts can be added until it is started.
+	 */
+	TestServer() throws IOException {
+		this(null);
+	}
+
+	/**
+	 * @param dirPrefix the prefix of the temporary directory to create, or null for none
+	 */
+	TestServer(String dirPrefix) throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.setExecutor(executor);
+		dir = dirPrefix != null ? Files.createTempDirectory(dirPrefix).toFile() : null;
+	}
+
+	void createContext(String path, HttpHandler handler) {
+		server.createContext(path, handler);
+	}
+
+	/**
+	 * Serves a body like the build server serves manifests and indexes: with an {@code ETag} derived from the body,
+	 * and {@code 304 Not Modified} to requests that already have it.
+	 *
+	 * @param body the current body, asked for on every request
+	 */
+	void serveVersioned(String path, Supplier<byte[]> body) {
+		server.createContext(path, exchange -> {
+			requests.incrementAndGet();
+			byte[] bytes = body.get();
+			String etag = "\"" + Integer.toHexString(Arrays.hashCode(bytes)) + "\"";
+			if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+				notModified.incrementAndGet();
+				exchange.sendResponseHeaders(304, -1);
+			} else {
+				exchange.getResponseHeaders().add("ETag", etag);
+				exchange.sendResponseHeaders(200, bytes.length);
+				exchange.getResponseBody().write(bytes);
+			}
+			exchange.close();
+		});
+	}
+
+	void start() {
+		server.start();
+	}
+
+	/**
+	 * @return the URL of the server root, without a trailing slash
+	 */
+	String url() {
+		return "http://127.0.0.1:" + server.getAddress().getPort();
+	}
+
+	/**
+	 * Stops answering requests, to test what happens while the server is down.
+	 */
+	void stop() {
+		server.stop(0);
+	}
+
+	@Override
+	public void close() throws IOException {
+		server.stop(0);
+		executor.shutdownNow();
+		if (dir != null) FileUtil.deleteRecursive(dir);
+	}
+}
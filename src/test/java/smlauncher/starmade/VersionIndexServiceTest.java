@@ -0,0 +1,120 @@
+package smlauncher.starmade;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import smlauncher.http.PooledHttpClient;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for {@link VersionIndexService} class against an embedded HTTP server.
+ */
+public class VersionIndexServiceTest {
+
+	private static final String INDEX = "0.203.175#20240101_120000 ./build/starmade-build_20240101_120000\n"
+			+ "0.203.176#20240201_120000 ./build/starmade-build_20240201_120000\n";
+
+	private final String originalFilesUrl = GameUpdater.FILES_URL;
+	private final String originalMirrorSite = GameUpdater.MIRROR_SITE;
+	private volatile CountDownLatch concurrent = new CountDownLatch(0);
+	private TestServer server;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		server = new TestServer("versions");
+		server.serveVersioned("/", () -> {
+			concurrent.countDown();
+			try {
+				// hold every request until all expected ones arrived, or a while for requests to pile up
+				concurrent.await(2, TimeUnit.SECONDS);
+			} catch (InterruptedException ignored) {
+			}
+			return INDEX.getBytes(StandardCharsets.UTF_8);
+		});
+		server.start();
+		GameUpdater.setFilesUrl(server.url());
+	}
+
+	@AfterEach
+	void tearDown() throws IOException {
+		server.close();
+		GameUpdater.FILES_URL = originalFilesUrl;
+		GameUpdater.MIRROR_SITE = originalMirrorSite;
+	}
+
+	@Test
+	void fetchesAllBranchesConcurrently() throws Exception {
+		List<GameBranch> branches = Arrays.asList(GameBranch.RELEASE, GameBranch.DEV, GameBranch.PRE);
+		concurrent = new CountDownLatch(branches.size());
+
+		Map<GameBranch, List<IndexFileEntry>> versions = service().fetchAll(branches).get(10, TimeUnit.SECONDS);
+
+		// no request was answered before all three were sent
+		assertEquals(0, concurrent.getCount());
+		assertEquals(3, versions.size());
+		assertEquals("20240201_120000", versions.get(GameBranch.DEV).get(1).build);
+		assertSame(GameBranch.DEV, versions.get(GameBranch.DEV).get(1).branch);
+	}
+
+	@Test
+	void sharesFetchInFlight() throws Exception {
+		concurrent = new CountDownLatch(2); // never reached, keeps the first request open for a moment
+		VersionIndexService service = service();
+		List<CompletableFuture<List<IndexFileEntry>>> fetches = new ArrayList<>();
+		for (int i = 0; i < 5; i++) fetches.add(service.fetch(GameBranch.RELEASE));
+		for (CompletableFuture<List<IndexFileEntry>> fetch : fetches) assertEquals(2, fetch.get(10, TimeUnit.SECONDS).size());
+
+		assertEquals(1, server.requests.get());
+		service.getVersions(GameBranch.RELEASE);
+		assertEquals(1, server.requests.get());
+	}
+
+	@Test
+	void revalidatesSessionIndexOnceExpired() throws Exception {
+		VersionIndexService service = new VersionIndexService(server.dir, new PooledHttpClient(4, 1000, 5000, "test"), 0);
+		service.getVersions(GameBranch.RELEASE);
+		assertEquals(2, service.getVersions(GameBranch.RELEASE).size());
+
+		assertEquals(2, server.requests.get());
+		assertEquals(1, server.notModified.get());
+	}
+
+	@Test
+	void servesIndexFromDiskAndRevalidates() throws Exception {
+		service().getVersions(GameBranch.RELEASE);
+		server.requests.set(0);
+
+		VersionIndexService restarted = service();
+		List<IndexFileEntry> cached = restarted.getCached(GameBranch.RELEASE);
+		assertEquals(0, server.requests.get());
+		assertEquals(2, cached.size());
+		assertNull(restarted.getCached(GameBranch.DEV));
+
+		assertEquals(2, restarted.fetch(GameBranch.RELEASE).get(10, TimeUnit.SECONDS).size());
+		assertEquals(1, server.notModified.get());
+	}
+
+	@Test
+	void fallsBackToDiskWhenServerIsDown() throws Exception {
+		service().getVersions(GameBranch.PRE);
+		server.stop();
+
+		assertEquals(2, service().getVersions(GameBranch.PRE).size());
+		assertThrows(IOException.class, () -> service().getVersions(GameBranch.DEV));
+	}
+
+	private VersionIndexService service() {
+		return new VersionIndexService(server.dir, new PooledHttpClient(4, 1000, 5000, "test"));
+	}
+}